@@ -0,0 +1,494 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converts between puzzles and a compact binary form, for large
+ * collections of puzzles that must be loaded quickly. A puzzle is read
+ * in a single pass over a {@link ByteBuffer}, with
+ * {@link #read(ByteBuffer, Locale)}, and written with
+ * {@link #write(Puzzle, OutputStream)}. Everything representable by
+ * {@link XMLFormat} is preserved, so a puzzle converted from XML and
+ * back is unchanged.
+ *
+ * <p>
+ * A puzzle starts with the four bytes of {@link #MAGIC} and a version
+ * byte. All numbers that follow are unsigned variable-length integers,
+ * seven bits per byte, least significant first, with the top bit set
+ * on all but the last byte. A string is its length in bytes followed
+ * by its UTF-8 encoding. A colour is its four ARGB bytes, most
+ * significant first. The sections of a puzzle are:
+ *
+ * <dl>
+ *
+ * <dt><var>geometry</var>
+ *
+ * <dd>The geometry type as a string.
+ *
+ * <dt><var>count</var> (<var>name</var> <var>locale</var>
+ * <var>value</var>)...
+ *
+ * <dd>The meta-data as strings, with each locale as a language tag.
+ * An empty tag stands for the default locale supplied when reading.
+ *
+ * <dt><var>count</var> <var>term</var>...
+ *
+ * <dd>The strings used in tile contexts, such as
+ * <samp>partial</samp> and <samp>complete</samp>, each written once.
+ *
+ * <dt><var>colors</var> <var>tiles</var>...
+ *
+ * <dd>The number of colours, including the background, followed by
+ * the tiles of the unknown colour, then of each colour in index order,
+ * starting with the background. The tiles of a colour are a count,
+ * and then each tile as <var>context</var> <var>foreground</var>
+ * <var>background</var> <var>shape</var>. The context is a count of
+ * alternatives, each a count of term indices that must all apply. The
+ * shape is a {@link Shape} ordinal.
+ *
+ * <dt><var>count</var> (<var>name</var> <var>lines</var>
+ * <var>clue</var>...)...
+ *
+ * <dd>The clue banks. Each clue is one more than its number of blocks,
+ * or zero if the clue is unspecified, followed by each block as
+ * <var>length</var> <var>color</var>. The colour is an index, and is
+ * omitted if the puzzle has only one colour besides the background.
+ *
+ * </dl>
+ *
+ * <p>
+ * Puzzles may be concatenated, as each is read to its end and no
+ * further. The character-stream methods of {@link Format} carry the
+ * same bytes as Base64 text.
+ *
+ * @author simpsons
+ */
+public final class BinaryFormat implements Format {
+    private BinaryFormat() {}
+
+    /**
+     * The sole instance of this class
+     */
+    public static final BinaryFormat INSTANCE = new BinaryFormat();
+
+    /**
+     * The magic number at the start of a puzzle, <samp>NGPZ</samp> in
+     * ASCII
+     */
+    public static final int MAGIC = 0x4e47505a;
+
+    /**
+     * The version of the format
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Holds a buffer for each thread, in which a puzzle is encoded
+     * before being written in one piece. The buffer is emptied after
+     * each puzzle, but keeps its capacity.
+     */
+    private static final ThreadLocal<ByteArrayOutputStream> BUFFERS =
+        ThreadLocal.withInitial(ByteArrayOutputStream::new);
+
+    /**
+     * Write a puzzle in binary form.
+     * 
+     * @param puzzle the puzzle to write
+     * 
+     * @param out the stream to write to
+     * 
+     * @throws IOException if an I/O error occurs
+     * 
+     * @throws IllegalArgumentException if a clue uses a colour with no
+     * tiles
+     */
+    public void write(Puzzle puzzle, OutputStream out) throws IOException {
+        ByteArrayOutputStream buf = BUFFERS.get();
+        buf.reset();
+        encode(puzzle, buf);
+        buf.writeTo(out);
+        buf.reset();
+    }
+
+    private static void encode(Puzzle puzzle, ByteArrayOutputStream out) {
+        for (int shift = 24; shift >= 0; shift -= 8)
+            out.write(MAGIC >>> shift);
+        out.write(VERSION);
+
+        writeString(out, puzzle.geometryType);
+
+        /* Write the meta-data. */
+        int metaCount = 0;
+        for (Metadatum alts : puzzle.meta.values())
+            metaCount += alts.getLocales().size();
+        writeNumber(out, metaCount);
+        for (Map.Entry<String, Metadatum> entry : puzzle.meta.entrySet()) {
+            final Metadatum alts = entry.getValue();
+            for (Locale locale : alts.getLocales()) {
+                writeString(out, entry.getKey());
+                writeString(out, locale == null ? "" : locale.toLanguageTag());
+                writeString(out, alts.get(locale));
+            }
+        }
+
+        /* Write the context terms, so that tiles can refer to them by
+         * index. */
+        Map<String, Integer> terms = new LinkedHashMap<>();
+        for (Puzzle.HueInfo info : puzzle.hueInfo.values()) {
+            if (info.tiles == null) continue;
+            for (Set<Set<String>> context : info.tiles.keySet())
+                for (Set<String> conj : context)
+                    for (String term : conj)
+                        terms.putIfAbsent(term, terms.size());
+        }
+        writeNumber(out, terms.size());
+        for (String term : terms.keySet())
+            writeString(out, term);
+
+        /* Write the colour table, starting with the unknown colour. */
+        final int colors = puzzle.hueIndex.size();
+        writeNumber(out, colors);
+        writeTiles(out, terms, puzzle.hueInfo.get(Hue.UNKNOWN).tiles);
+        for (Hue hue : puzzle.hueIndex)
+            writeTiles(out, terms, puzzle.hueInfo.get(hue).tiles);
+
+        /* Write the clues. */
+        writeNumber(out, puzzle.clues.size());
+        for (Map.Entry<String, List<Clue>> bank : puzzle.clues.entrySet()) {
+            writeString(out, bank.getKey());
+            writeNumber(out, bank.getValue().size());
+            for (Clue line : bank.getValue()) {
+                List<Bar> blocks = line.blocks();
+                if (blocks == null) {
+                    writeNumber(out, 0);
+                    continue;
+                }
+                writeNumber(out, blocks.size() + 1);
+                for (Bar block : blocks) {
+                    writeNumber(out, block.length);
+                    if (colors == 2) continue;
+                    final int index = puzzle.index(block.color);
+                    if (index < 1)
+                        throw new IllegalArgumentException("undefined colour "
+                            + "in bank " + bank.getKey());
+                    writeNumber(out, index);
+                }
+            }
+        }
+    }
+
+    private static void writeTiles(ByteArrayOutputStream out,
+                                   Map<String, Integer> terms,
+                                   Map<Set<Set<String>>, Tile> tiles) {
+        if (tiles == null) {
+            writeNumber(out, 0);
+            return;
+        }
+        writeNumber(out, tiles.size());
+        for (Map.Entry<Set<Set<String>>, Tile> alt : tiles.entrySet()) {
+            writeNumber(out, alt.getKey().size());
+            for (Set<String> conj : alt.getKey()) {
+                writeNumber(out, conj.size());
+                for (String term : conj)
+                    writeNumber(out, terms.get(term));
+            }
+            final Tile tile = alt.getValue();
+            writeColor(out, tile.foreground);
+            writeColor(out, tile.background);
+            writeNumber(out, tile.shape.ordinal());
+        }
+    }
+
+    private static void writeNumber(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out,
+                                    String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeNumber(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeColor(ByteArrayOutputStream out, Color color) {
+        final int argb = color.getRGB();
+        for (int shift = 24; shift >= 0; shift -= 8)
+            out.write(argb >>> shift);
+    }
+
+    /**
+     * Read a puzzle in binary form. The buffer's position is advanced
+     * to the end of the puzzle, so a following puzzle can be read by
+     * another call.
+     * 
+     * @param in the buffer to read from
+     * 
+     * @param defaultLocale the locale to assume for meta-data with no
+     * locale
+     * 
+     * @return the parsed puzzle
+     * 
+     * @throws IllegalArgumentException if the puzzle is incorrectly
+     * formatted or truncated
+     */
+    public Puzzle read(ByteBuffer in, Locale defaultLocale) {
+        try {
+            return decode(in, defaultLocale);
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("truncated puzzle", ex);
+        }
+    }
+
+    private static Puzzle decode(ByteBuffer in, Locale defaultLocale) {
+        int magic = 0;
+        for (int i = 0; i < 4; i++)
+            magic = magic << 8 | (in.get() & 0xff);
+        if (magic != MAGIC)
+            throw new IllegalArgumentException("not a binary puzzle");
+        final int version = in.get() & 0xff;
+        if (version != VERSION)
+            throw new IllegalArgumentException("unknown binary puzzle "
+                + "version: " + version);
+
+        Puzzle.Builder builder = Puzzle.start().geometry(readString(in));
+
+        /* Read the meta-data. */
+        for (int i = readCount(in); i > 0; i--) {
+            final String name = readString(in);
+            final String tag = readString(in);
+            final String value = readString(in);
+            builder = builder.meta(name, tag.isEmpty() ? defaultLocale :
+                Locale.forLanguageTag(tag), value);
+        }
+
+        /* Read the context terms. */
+        String[] terms = new String[readCount(in)];
+        for (int i = 0; i < terms.length; i++)
+            terms[i] = readString(in);
+
+        /* Read the colour table, starting with the unknown colour. */
+        final int colors = readCount(in);
+        if (colors < 1)
+            throw new IllegalArgumentException("no background colour");
+        Hue[] hues = new Hue[colors];
+        hues[0] = Hue.BACKGROUND;
+        for (int i = 1; i < colors; i++)
+            hues[i] = Hue.distinct();
+        builder = readTiles(in, builder, terms, Hue.UNKNOWN);
+        for (Hue hue : hues)
+            builder = readTiles(in, builder, terms, hue);
+
+        /* Read the clues. */
+        for (int i = readCount(in); i > 0; i--) {
+            final String name = readString(in);
+            final int lines = readCount(in);
+            List<Clue> bank = new ArrayList<>(lines);
+            for (int j = 0; j < lines; j++) {
+                final int blocks = readCount(in) - 1;
+                if (blocks < 0) {
+                    bank.add(Clue.unspecified());
+                    continue;
+                }
+                List<Bar> line = new ArrayList<>(blocks);
+                for (int k = 0; k < blocks; k++) {
+                    final int length = readNumber(in);
+                    final int index = colors == 2 ? 1 : readNumber(in);
+                    if (index < 1 || index >= colors)
+                        throw new IllegalArgumentException("bad colour "
+                            + index + " in bank " + name);
+                    line.add(Bar.of(length, hues[index]));
+                }
+                bank.add(Clue.of(line));
+            }
+            builder = builder.clues(name, bank);
+        }
+
+        return builder.create();
+    }
+
+    private static Puzzle.Builder readTiles(ByteBuffer in,
+                                            Puzzle.Builder builder,
+                                            String[] terms, Hue hue) {
+        final Shape[] shapes = Shape.values();
+        for (int i = readCount(in); i > 0; i--) {
+            final int alts = readCount(in);
+            List<Set<String>> context = new ArrayList<>(alts);
+            for (int j = 0; j < alts; j++) {
+                final int count = readCount(in);
+                Set<String> conj = new HashSet<>();
+                for (int k = 0; k < count; k++) {
+                    final int term = readNumber(in);
+                    if (term < 0 || term >= terms.length)
+                        throw new IllegalArgumentException("bad term "
+                            + term);
+                    conj.add(terms[term]);
+                }
+                context.add(conj);
+            }
+            final Color fg = readColor(in);
+            final Color bg = readColor(in);
+            final int shape = readCount(in);
+            if (shape >= shapes.length)
+                throw new IllegalArgumentException("bad shape " + shape);
+            builder =
+                builder.tile(hue, context, Tile.of(fg, bg, shapes[shape]));
+        }
+        return builder;
+    }
+
+    private static int readNumber(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            final int b = in.get();
+            if (shift > 28 || shift == 28 && (b & 0x70) != 0)
+                throw new IllegalArgumentException("number too long");
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    /**
+     * Read a number that determines how much data follows. It is
+     * checked against the remaining bytes, so that a corrupt count
+     * cannot cause a huge allocation.
+     */
+    private static int readCount(ByteBuffer in) {
+        final int value = readNumber(in);
+        if (value < 0 || value > in.remaining() + 1)
+            throw new IllegalArgumentException("count out of range: "
+                + Integer.toUnsignedString(value));
+        return value;
+    }
+
+    private static String readString(ByteBuffer in) {
+        final int length = readCount(in);
+        if (length > in.remaining()) throw new BufferUnderflowException();
+        final String result;
+        if (in.hasArray()) {
+            result = new String(in.array(), in.arrayOffset() + in.position(),
+                                length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            result = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    private static Color readColor(ByteBuffer in) {
+        int argb = 0;
+        for (int i = 0; i < 4; i++)
+            argb = argb << 8 | (in.get() & 0xff);
+        return new Color(argb, true);
+    }
+
+    /**
+     * Read a puzzle in binary form. The rest of the stream is read.
+     * 
+     * @param in the stream to read from
+     * 
+     * @param defaultLocale the locale to assume for meta-data with no
+     * locale
+     * 
+     * @return the parsed puzzle
+     * 
+     * @throws IOException if an I/O error occurs
+     * 
+     * @throws IllegalArgumentException if the puzzle is incorrectly
+     * formatted or truncated
+     */
+    public Puzzle read(InputStream in, Locale defaultLocale)
+        throws IOException {
+        return read(ByteBuffer.wrap(in.readAllBytes()), defaultLocale);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * The binary form is written as MIME Base64 text.
+     */
+    @Override
+    public void write(Puzzle puzzle, Writer out) throws IOException {
+        ByteArrayOutputStream buf = BUFFERS.get();
+        buf.reset();
+        encode(puzzle, buf);
+        byte[] text = Base64.getMimeEncoder().encode(buf.toByteArray());
+        buf.reset();
+        out.write(new String(text, StandardCharsets.US_ASCII));
+        out.write('\n');
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * The binary form is read from MIME Base64 text.
+     */
+    @Override
+    public Puzzle read(Reader in, Locale defaultLocale) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] chunk = new char[4096];
+        for (int got; (got = in.read(chunk)) >= 0;)
+            text.append(chunk, 0, got);
+        byte[] bytes = Base64.getMimeDecoder().decode(text.toString());
+        return read(ByteBuffer.wrap(bytes), defaultLocale);
+    }
+}
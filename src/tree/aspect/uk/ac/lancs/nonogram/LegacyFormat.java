@@ -81,7 +81,7 @@ public final class LegacyFormat implements Format {
     static {
         ResourceBundle charEnts =
             ResourceBundle.getBundle(LegacyFormat.class.getPackage().getName()
-                + "CharacterEntities");
+                + ".CharacterEntities");
         Map<String, Integer> mutable = new HashMap<>();
         for (String key : charEnts.keySet())
             mutable.put(key, Integer.parseInt(charEnts.getString(key), 16));
@@ -126,7 +126,7 @@ public final class LegacyFormat implements Format {
         while ((line = rdr.readLine()) != null) {
             lineNo++;
             Matcher m = OLD_COMMAND_FORMAT.matcher(line);
-            if (!m.matches()) continue;
+            if (!m.lookingAt()) continue;
             String cmd = m.group(1);
             String args = line.substring(m.end());
             if (cmd.equals("maxrule")) {
@@ -223,7 +223,7 @@ public final class LegacyFormat implements Format {
                 + height + "; got=" + rows.size() + ")");
         if (columns == null)
             throw new IllegalArgumentException("width unspecified");
-        if (columns.size() < height)
+        if (columns.size() < width)
             throw new IllegalArgumentException("insufficient column data (exp="
                 + width + "; got=" + columns.size() + ")");
 
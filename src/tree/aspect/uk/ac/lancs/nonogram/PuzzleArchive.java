@@ -0,0 +1,585 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Provides random access to a file of many puzzles. The file is mapped
+ * into memory, and a puzzle is decoded only when it is requested, from
+ * a view of the mapping rather than a copy. An archive is created with
+ * {@link #create(Path, Encoding)}, and opened with
+ * {@link #open(Path, Locale)}.
+ *
+ * <p>
+ * The file starts with a header of {@value #HEADER_SIZE} bytes, all
+ * numbers being most significant byte first:
+ *
+ * <ol>
+ *
+ * <li>the four bytes of {@link #MAGIC};
+ *
+ * <li>a version byte;
+ *
+ * <li>the {@linkplain Encoding encoding} ordinal as a byte, and two
+ * reserved bytes;
+ *
+ * <li>the number of puzzles as eight bytes;
+ *
+ * <li>the position of the index as eight bytes;
+ *
+ * <li>the length of the longest record as four bytes, and four
+ * reserved bytes.
+ *
+ * </ol>
+ *
+ * <p>
+ * The records follow, one per puzzle. The index comes last, and gives
+ * the position of each record as eight bytes, followed by the position
+ * of the index itself, so that each record ends where the next
+ * starts.
+ *
+ * <p>
+ * Puzzles can be traversed in parallel with {@link #stream()}, whose
+ * {@link #spliterator()} splits by ranges of puzzle numbers.
+ *
+ * @author simpsons
+ */
+public final class PuzzleArchive implements Closeable, Iterable<Puzzle> {
+    /**
+     * The magic number at the start of an archive, <samp>NGPA</samp>
+     * in ASCII
+     */
+    public static final int MAGIC = 0x4e475041;
+
+    /**
+     * The version of the archive format
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The size of the header in bytes
+     */
+    public static final int HEADER_SIZE = 32;
+
+    /**
+     * The maximum size of each mapping of the file, beyond its overlap
+     * with the next
+     */
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    /**
+     * The largest encoded puzzle that an archive can hold, so that a
+     * chunk and its overlap with the next can be mapped at once
+     */
+    public static final int MAX_RECORD_SIZE =
+        (int) (Integer.MAX_VALUE - CHUNK_SIZE);
+
+    /**
+     * The largest number of puzzles that an archive can hold, so that
+     * the index can be built in an array
+     */
+    public static final int MAX_PUZZLES = Integer.MAX_VALUE - 9;
+
+    /**
+     * Identifies how the puzzles of an archive are encoded.
+     */
+    public enum Encoding {
+        /**
+         * Each puzzle is in the form of {@link BinaryFormat}.
+         */
+        BINARY,
+
+        /**
+         * Each puzzle is an XML document of {@link XMLFormat}, encoded
+         * in UTF-8.
+         */
+        XML;
+    }
+
+    private final FileChannel channel;
+
+    private final Encoding encoding;
+
+    private final Locale defaultLocale;
+
+    private final long size;
+
+    private final long indexPosition;
+
+    /**
+     * Maps the file in overlapping chunks. Chunk <var>k</var> starts
+     * at <var>k</var>&nbsp;&times;&nbsp;{@link #CHUNK_SIZE}, and
+     * overlaps the next by the longest record, so any record, or any
+     * index entry, lies entirely within the chunk in which it starts.
+     */
+    private final MappedByteBuffer[] chunks;
+
+    private PuzzleArchive(FileChannel channel, Locale defaultLocale)
+        throws IOException {
+        this.channel = channel;
+        this.defaultLocale = defaultLocale;
+
+        final long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE)
+            throw new IOException("not a puzzle archive");
+        ByteBuffer header =
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC)
+            throw new IOException("not a puzzle archive");
+        final int version = header.get(4) & 0xff;
+        if (version != VERSION)
+            throw new IOException("unknown puzzle archive version: "
+                + version);
+        final int encoding = header.get(5) & 0xff;
+        if (encoding >= Encoding.values().length)
+            throw new IOException("unknown puzzle encoding: " + encoding);
+        this.encoding = Encoding.values()[encoding];
+        this.size = header.getLong(8);
+        this.indexPosition = header.getLong(16);
+        final int longest = header.getInt(24);
+        if (size < 0 || indexPosition < HEADER_SIZE || longest < 0
+            || longest > MAX_RECORD_SIZE || indexPosition > fileSize
+            || (fileSize - indexPosition) / Long.BYTES != size + 1)
+            throw new IOException("corrupt puzzle archive header");
+
+        /* Map the whole file, with each chunk extending far enough to
+         * include anything that starts within it. */
+        final long overlap = Math.max(longest, Long.BYTES);
+        final int count = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        this.chunks = new MappedByteBuffer[count];
+        for (int k = 0; k < count; k++) {
+            final long start = k * CHUNK_SIZE;
+            final long end = Math.min(fileSize, start + CHUNK_SIZE + overlap);
+            chunks[k] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                                    end - start);
+        }
+    }
+
+    /**
+     * Open an existing archive for reading.
+     * 
+     * @param path the archive file
+     * 
+     * @param defaultLocale the locale to assume for unspecified
+     * meta-data
+     * 
+     * @return the opened archive
+     * 
+     * @throws IOException if an I/O error occurs, or the file is not a
+     * recognized archive
+     */
+    public static PuzzleArchive open(Path path, Locale defaultLocale)
+        throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new PuzzleArchive(channel, defaultLocale);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Get the number of puzzles in the archive.
+     * 
+     * @return the number of puzzles
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Get the encoding of the puzzles in the archive.
+     * 
+     * @return the puzzles' encoding
+     */
+    public Encoding encoding() {
+        return encoding;
+    }
+
+    private ByteBuffer view(long position, int length) {
+        final int k = (int) (position / CHUNK_SIZE);
+        final int offset = (int) (position - k * CHUNK_SIZE);
+        return chunks[k].slice(offset, length);
+    }
+
+    private long offset(long index) {
+        return view(indexPosition + index * Long.BYTES, Long.BYTES)
+            .getLong(0);
+    }
+
+    /**
+     * Get the undecoded record of a puzzle. The buffer is a read-only
+     * view of the mapped file, not a copy.
+     * 
+     * @param index the puzzle number, counting from zero
+     * 
+     * @return the puzzle's encoded bytes
+     * 
+     * @throws IndexOutOfBoundsException if the index is out of range
+     * 
+     * @throws IllegalArgumentException if the index is corrupt
+     */
+    public ByteBuffer record(long index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("puzzle " + index + " of "
+                + size);
+        final long start = offset(index);
+        final long end = offset(index + 1);
+        if (start < HEADER_SIZE || end < start || end > indexPosition
+            || end - start > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("corrupt index entry for "
+                + "puzzle " + index);
+        return view(start, (int) (end - start));
+    }
+
+    /**
+     * Decode a puzzle.
+     * 
+     * @param index the puzzle number, counting from zero
+     * 
+     * @return the decoded puzzle
+     * 
+     * @throws IndexOutOfBoundsException if the index is out of range
+     * 
+     * @throws IllegalArgumentException if the puzzle or the index is
+     * incorrectly formatted
+     */
+    public Puzzle get(long index) {
+        ByteBuffer in = record(index);
+        switch (encoding) {
+        case BINARY:
+            return BinaryFormat.INSTANCE.read(in, defaultLocale);
+
+        case XML:
+            CharBuffer text = StandardCharsets.UTF_8.decode(in);
+            try {
+                return XMLFormat.INSTANCE
+                    .read(new CharArrayReader(text.array(),
+                                              text.arrayOffset()
+                                                  + text.position(),
+                                              text.remaining()),
+                          defaultLocale);
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("bad XML in puzzle "
+                    + index, ex);
+            }
+
+        default:
+            throw new AssertionError("unreachable");
+        }
+    }
+
+    /**
+     * Iterate over the puzzles in order. Each is decoded as it is
+     * reached.
+     * 
+     * @return an iterator over all puzzles
+     */
+    @Override
+    public Iterator<Puzzle> iterator() {
+        return new Iterator<Puzzle>() {
+            long next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Puzzle next() {
+                if (next >= size) throw new NoSuchElementException();
+                return get(next++);
+            }
+        };
+    }
+
+    /**
+     * Traverse a range of puzzles, splitting by halves.
+     */
+    private final class Range implements Spliterator<Puzzle> {
+        long next;
+
+        final long end;
+
+        Range(long next, long end) {
+            this.next = next;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Puzzle> action) {
+            if (next >= end) return false;
+            action.accept(get(next++));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Puzzle> action) {
+            while (next < end)
+                action.accept(get(next++));
+        }
+
+        @Override
+        public Spliterator<Puzzle> trySplit() {
+            final long mid = next + (end - next) / 2;
+            if (mid <= next) return null;
+            Range prefix = new Range(next, mid);
+            next = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - next;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    /**
+     * Get a splittable traversal of the puzzles. It splits into halves
+     * by puzzle number, and each puzzle is decoded only as it is
+     * reached, so parallel consumers decode independently.
+     * 
+     * @return a traversal of all puzzles
+     */
+    @Override
+    public Spliterator<Puzzle> spliterator() {
+        return new Range(0, size);
+    }
+
+    /**
+     * Get a stream of the puzzles. Call {@link Stream#parallel()} to
+     * decode and process them on several threads.
+     * 
+     * @return a sequential stream of all puzzles
+     */
+    public Stream<Puzzle> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Release the file. Views obtained with {@link #record(long)}
+     * remain valid until they are garbage-collected.
+     * 
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Create an archive to which puzzles are added in order.
+     * 
+     * @param path the file to create or replace
+     * 
+     * @param encoding the encoding of the puzzles
+     * 
+     * @return an appender to the new archive, which must be closed to
+     * complete it
+     * 
+     * @throws IOException if an I/O error occurs
+     */
+    public static Appender create(Path path, Encoding encoding)
+        throws IOException {
+        return new Appender(FileChannel
+            .open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                  StandardOpenOption.TRUNCATE_EXISTING), encoding);
+    }
+
+    /**
+     * Exposes its content without copying.
+     */
+    private static final class Record extends ByteArrayOutputStream {
+        byte[] bytes() {
+            return buf;
+        }
+    }
+
+    /**
+     * Adds puzzles to a new archive. The index and header are written
+     * when the appender is closed. Until then, the file is not a valid
+     * archive.
+     */
+    public static final class Appender implements Closeable {
+        private final FileChannel channel;
+
+        private final Encoding encoding;
+
+        /**
+         * Holds the encoding of the puzzle being added
+         */
+        private final Record record = new Record();
+
+        /**
+         * Holds records not yet written to the file
+         */
+        private final ByteBuffer pending = ByteBuffer.allocate(1 << 20);
+
+        private long[] offsets = new long[1024];
+
+        private long count = 0;
+
+        private long position = HEADER_SIZE;
+
+        private int longest = 0;
+
+        Appender(FileChannel channel, Encoding encoding) throws IOException {
+            this.channel = channel;
+            this.encoding = encoding;
+            channel.position(HEADER_SIZE);
+        }
+
+        /**
+         * Add a puzzle to the archive.
+         * 
+         * @param puzzle the puzzle to add
+         * 
+         * @throws IOException if an I/O error occurs
+         * 
+         * @throws IllegalArgumentException if the puzzle's encoding
+         * exceeds {@link #MAX_RECORD_SIZE}
+         * 
+         * @throws IllegalStateException if the archive already holds
+         * {@link #MAX_PUZZLES} puzzles
+         */
+        public void add(Puzzle puzzle) throws IOException {
+            if (count >= MAX_PUZZLES)
+                throw new IllegalStateException("archive full at " + count
+                    + " puzzles");
+            record.reset();
+            switch (encoding) {
+            case BINARY:
+                BinaryFormat.INSTANCE.write(puzzle, record);
+                break;
+
+            case XML:
+                OutputStreamWriter out =
+                    new OutputStreamWriter(record, StandardCharsets.UTF_8);
+                XMLFormat.INSTANCE.write(puzzle, out);
+                out.flush();
+                break;
+            }
+
+            final int length = record.size();
+            if (length > MAX_RECORD_SIZE)
+                throw new IllegalArgumentException("puzzle too large: "
+                    + length + " bytes");
+
+            if (count + 1 >= offsets.length)
+                offsets = Arrays.copyOf(offsets, (int) Math
+                    .min(offsets.length * 2L, MAX_PUZZLES + 1L));
+            offsets[(int) count++] = position;
+            if (length > pending.remaining()) flush();
+            if (length > pending.remaining())
+                write(ByteBuffer.wrap(record.bytes(), 0, length));
+            else
+                pending.put(record.bytes(), 0, length);
+            position += length;
+            longest = Math.max(longest, length);
+        }
+
+        private void flush() throws IOException {
+            pending.flip();
+            write(pending);
+            pending.clear();
+        }
+
+        private void write(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining())
+                channel.write(buf);
+        }
+
+        /**
+         * Write the index and header, and close the file.
+         * 
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                /* Write the index, ending with its own position. */
+                offsets[(int) count] = position;
+                for (int i = 0; i <= count; i++) {
+                    if (pending.remaining() < Long.BYTES) flush();
+                    pending.putLong(offsets[i]);
+                }
+                flush();
+
+                /* Write the header. */
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC);
+                header.put((byte) VERSION);
+                header.put((byte) encoding.ordinal());
+                header.putShort((short) 0);
+                header.putLong(count);
+                header.putLong(position);
+                header.putInt(longest);
+                header.putInt(0);
+                header.flip();
+                channel.position(0);
+                write(header);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
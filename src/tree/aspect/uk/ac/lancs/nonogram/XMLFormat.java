@@ -38,13 +38,18 @@ package uk.ac.lancs.nonogram;
 import java.awt.Color;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -53,12 +58,12 @@ import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -196,6 +201,132 @@ public class XMLFormat implements Format {
      */
     public static final XMLFormat INSTANCE = new XMLFormat();
 
+    /**
+     * Assign a key to each colour of a puzzle. The background has no
+     * key, the first foreground colour has the empty key, and the rest
+     * have letter sequences <samp>A</samp> to <samp>Z</samp>, then
+     * <samp>AA</samp> and so on.
+     * 
+     * @param puzzle the puzzle whose colours are to be keyed
+     * 
+     * @return the keys, indexed by colour number
+     */
+    private static String[] codes(Puzzle puzzle) {
+        String[] codes = new String[puzzle.hueIndex.size()];
+        if (codes.length > 1) codes[1] = "";
+        for (int i = 2; i < codes.length; i++) {
+            StringBuilder code = new StringBuilder();
+            for (int n = i - 1; n > 0; n = (n - 1) / CODES.length())
+                code.append(CODES.charAt((n - 1) % CODES.length()));
+            codes[i] = code.reverse().toString();
+        }
+        return codes;
+    }
+
+    /**
+     * Choose the locale to declare on the root element, so that most
+     * meta-data need not declare their own.
+     * 
+     * @param puzzle the puzzle whose meta-data are to be written
+     * 
+     * @return the most common locale among the meta-data; or
+     * {@code null} if there are none
+     */
+    private static Locale defaultLocale(Puzzle puzzle) {
+        return puzzle.meta.values().stream()
+            .flatMap(e -> e.getLocales().stream())
+            .collect(Collectors.groupingBy(Function.identity(),
+                                           Collectors.counting()))
+            .entrySet().stream()
+            .max((a, b) -> Long.compare(a.getValue(), b.getValue()))
+            .map(Map.Entry::getKey).orElse(null);
+    }
+
+    /**
+     * Get the key for a colour's tiles.
+     * 
+     * @param puzzle the puzzle defining the colour
+     * 
+     * @param codes the keys of the puzzle's colours
+     * 
+     * @param color the colour
+     * 
+     * @return the key; or {@code null} for the background
+     */
+    private static String key(Puzzle puzzle, String[] codes, Hue color) {
+        if (color == Hue.UNKNOWN) return "?";
+        if (color == Hue.BACKGROUND) return null;
+        return codes[puzzle.index(color)];
+    }
+
+    /**
+     * Get the attributes of a tile element, omitting defaults.
+     * 
+     * @param pred the context in which the tile applies
+     * 
+     * @param tile the tile
+     * 
+     * @param key the key of the tile's colour; or {@code null} for the
+     * background
+     * 
+     * @return the attribute values, by name, in document order
+     */
+    private static Map<String, String>
+        tileAttributes(Set<Set<String>> pred, Tile tile, String key) {
+        Map<String, String> attrs = new LinkedHashMap<>();
+        if (!Puzzle.DEFAULT_CONTEXT.equals(pred))
+            attrs.put("ctxt", Puzzle.generateContext(pred));
+        if (tile.shape != Shape.SOLID)
+            attrs.put("sym", tile.shape.toString().toLowerCase(Locale.ROOT));
+        if (!tile.foreground.equals(Color.BLACK))
+            attrs.put("fg", XMLFormat.toString(tile.foreground));
+        if (!tile.background.equals(Color.WHITE))
+            attrs.put("bg", XMLFormat.toString(tile.background));
+        if (key != null) attrs.put("key", key);
+        return attrs;
+    }
+
+    /**
+     * Get the text content of a bank element. Each line is indented on
+     * its own line. Blocks are separated by dots, an empty line is
+     * <samp>0</samp>, and an unspecified line is <samp>-</samp>.
+     * 
+     * @param puzzle the puzzle defining the colours
+     * 
+     * @param codes the keys of the puzzle's colours
+     * 
+     * @param bank the clues to write
+     * 
+     * @return the text content
+     */
+    private static String bankText(Puzzle puzzle, String[] codes,
+                                   List<Clue> bank) {
+        StringBuilder content = new StringBuilder();
+        for (Clue line : bank) {
+            List<Bar> blocks = line.blocks();
+            content.append("\n    ");
+            if (blocks == null) {
+                content.append("-");
+                continue;
+            }
+            if (blocks.isEmpty()) {
+                content.append("0");
+                continue;
+            }
+            String sep = "";
+            for (Bar block : blocks) {
+                content.append(sep);
+                String key = codes[puzzle.index(block.color)];
+                if (block.length != 1 || key.isEmpty())
+                    content.append(block.length);
+                content.append(key);
+                sep = ".";
+            }
+        }
+        content.append("\n  ");
+        return content.toString();
+    }
+
     /**
      * Generate an XML representation of a puzzle.
      * 
@@ -207,23 +338,14 @@ public class XMLFormat implements Format {
      */
     public static Document toXML(Puzzle puzzle, DocumentBuilder builder) {
         /* Assign a letter code to each colour. */
-        String[] codes = new String[puzzle.hueIndex.size()];
-        codes[0] = null;
-        codes[1] = "";
-        for (int i = 2; i < codes.length; i++)
-            codes[i] = CODES.substring(i - 2, 1);
+        String[] codes = codes(puzzle);
         /* Choose a default locale. */
-        final Locale defaultLocale = puzzle.meta.values().stream()
-            .flatMap(e -> e.getLocales().stream())
-            .collect(Collectors.groupingBy(Function.identity(),
-                                           Collectors.counting()))
-            .entrySet().stream()
-            .max((a, b) -> Long.compare(a.getValue(), b.getValue()))
-            .map(Map.Entry::getKey).orElse(null);
+        final Locale defaultLocale = defaultLocale(puzzle);
         Document doc = builder.newDocument();
         Element root = doc.createElementNS(XMLFormat.NAMESPACE, "nonogram");
         doc.appendChild(root);
-        doc.appendChild(doc.createTextNode("\n"));
+        root.setAttribute("geom", puzzle.geometryType);
+        root.appendChild(doc.createTextNode("\n"));
         /* Add meta-data. */
         if (defaultLocale != null) {
             root.setAttributeNS(XMLConstants.XML_NS_URI,
@@ -250,35 +372,15 @@ public class XMLFormat implements Format {
         }
         /* Add tiles. */
         for (Map.Entry<Hue, Puzzle.HueInfo> entry : puzzle.hueInfo.entrySet()) {
-            Hue color = entry.getKey();
-            final String key;
-            if (color == Hue.UNKNOWN)
-                key = "?";
-            else if (color == Hue.BACKGROUND)
-                key = null;
-            else {
-                int index = puzzle.index(color);
-                key = codes[index];
-            }
+            final String key = key(puzzle, codes, entry.getKey());
             Puzzle.HueInfo info = entry.getValue();
             for (Map.Entry<Set<Set<String>>, Tile> alt : info.tiles
                 .entrySet()) {
-                Set<Set<String>> pred = alt.getKey();
-                Tile tile = alt.getValue();
                 /* Create the element, and add attributes that are not
                  * defaults. */
                 Element elem = doc.createElementNS(XMLFormat.NAMESPACE, "tile");
-                if (!Puzzle.DEFAULT_CONTEXT.equals(pred)) {
-                    String predText = Puzzle.generateContext(pred);
-                    elem.setAttribute("ctxt", predText);
-                }
-                if (tile.shape != Shape.SOLID) elem
-                    .setAttribute("sym", tile.shape.toString().toLowerCase());
-                if (!tile.foreground.equals(Color.BLACK)) elem
-                    .setAttribute("fg", XMLFormat.toString(tile.foreground));
-                if (!tile.background.equals(Color.WHITE)) elem
-                    .setAttribute("bg", XMLFormat.toString(tile.background));
-                if (key != null) elem.setAttribute("key", key);
+                tileAttributes(alt.getKey(), alt.getValue(), key)
+                    .forEach(elem::setAttribute);
                 root.appendChild(doc.createTextNode("  "));
                 root.appendChild(elem);
                 root.appendChild(doc.createTextNode("\n"));
@@ -286,63 +388,304 @@ public class XMLFormat implements Format {
         }
         /* Add clue banks. */
         for (Map.Entry<String, List<Clue>> bank : puzzle.clues.entrySet()) {
-            StringBuilder content = new StringBuilder();
-            for (Clue line : bank.getValue()) {
-                List<Bar> blocks = line.blocks();
-                content.append("\n    ");
-                if (blocks == null) {
-                    content.append("-");
-                    continue;
-                }
-                String sep = "";
-                for (Bar block : blocks) {
-                    content.append(sep);
-                    String key = codes[puzzle.index(block.color)];
-                    if (block.length != 1 || key.isEmpty())
-                        content.append(block.length);
-                    content.append(key);
-                    sep = ".";
-                }
-            }
-            content.append("\n  ");
             Element elem = doc.createElementNS(XMLFormat.NAMESPACE, "bank");
             elem.setAttribute("name", bank.getKey());
-            elem.setTextContent(content.toString());
+            elem.setTextContent(bankText(puzzle, codes, bank.getValue()));
+            root.appendChild(doc.createTextNode("  "));
             root.appendChild(elem);
+            root.appendChild(doc.createTextNode("\n"));
         }
         return doc;
     }
 
+    /**
+     * Write a puzzle as a <samp>nonogram</samp> element to a stream of
+     * XML events, without building a DOM tree. The element has the
+     * same content as the root of {@link #toXML(Puzzle, DocumentBuilder)}.
+     * The caller is responsible for starting and ending the document,
+     * so several puzzles may be written within an enclosing element.
+     * 
+     * @param puzzle the puzzle to write
+     * 
+     * @param out the destination of XML events
+     * 
+     * @throws XMLStreamException if an XML error occurred
+     */
+    public static void write(Puzzle puzzle, XMLStreamWriter out)
+        throws XMLStreamException {
+        /* Assign a letter code to each colour. */
+        String[] codes = codes(puzzle);
+        /* Choose a default locale. */
+        final Locale defaultLocale = defaultLocale(puzzle);
+
+        out.writeStartElement("", "nonogram", XMLFormat.NAMESPACE);
+        out.writeDefaultNamespace(XMLFormat.NAMESPACE);
+        out.writeAttribute("geom", puzzle.geometryType);
+        if (defaultLocale != null)
+            out.writeAttribute(XMLConstants.XML_NS_PREFIX,
+                               XMLConstants.XML_NS_URI, "lang",
+                               defaultLocale.toLanguageTag());
+        out.writeCharacters("\n");
+
+        /* Add meta-data. */
+        if (defaultLocale != null) {
+            for (Map.Entry<String, Metadatum> entry : puzzle.meta.entrySet()) {
+                final String key = entry.getKey();
+                final Metadatum alts = entry.getValue();
+                for (Locale locale : alts.getLocales()) {
+                    out.writeCharacters("  ");
+                    out.writeStartElement("", "meta", XMLFormat.NAMESPACE);
+                    out.writeAttribute("name", key);
+                    if (!locale.equals(defaultLocale))
+                        out.writeAttribute(XMLConstants.XML_NS_PREFIX,
+                                           XMLConstants.XML_NS_URI, "lang",
+                                           locale.toLanguageTag());
+                    out.writeCharacters(alts.get(locale));
+                    out.writeEndElement();
+                    out.writeCharacters("\n");
+                }
+            }
+        }
+
+        /* Add tiles. */
+        for (Map.Entry<Hue, Puzzle.HueInfo> entry : puzzle.hueInfo.entrySet()) {
+            final String key = key(puzzle, codes, entry.getKey());
+            Puzzle.HueInfo info = entry.getValue();
+            for (Map.Entry<Set<Set<String>>, Tile> alt : info.tiles
+                .entrySet()) {
+                out.writeCharacters("  ");
+                out.writeEmptyElement("", "tile", XMLFormat.NAMESPACE);
+                for (Map.Entry<String, String> attr : tileAttributes(alt
+                    .getKey(), alt.getValue(), key).entrySet())
+                    out.writeAttribute(attr.getKey(), attr.getValue());
+                out.writeCharacters("\n");
+            }
+        }
+
+        /* Add clue banks. */
+        for (Map.Entry<String, List<Clue>> bank : puzzle.clues.entrySet()) {
+            out.writeCharacters("  ");
+            out.writeStartElement("", "bank", XMLFormat.NAMESPACE);
+            out.writeAttribute("name", bank.getKey());
+            out.writeCharacters(bankText(puzzle, codes, bank.getValue()));
+            out.writeEndElement();
+            out.writeCharacters("\n");
+        }
+
+        out.writeEndElement();
+    }
+
+    /**
+     * Creates streaming writers for {@link #write(Puzzle, Writer)} and
+     * {@link #writeAll(Iterable, Writer)}. It is configured once, and
+     * then only used to create writers.
+     */
+    private static final XMLOutputFactory OUTPUT_FACTORY =
+        XMLOutputFactory.newInstance();
+
+    /**
+     * Holds a buffer for each thread, into which each puzzle is
+     * serialized before being passed on in one piece. The buffer is
+     * emptied after each puzzle, but keeps its capacity.
+     */
+    private static final ThreadLocal<StringWriter> BUFFERS =
+        ThreadLocal.withInitial(StringWriter::new);
+
+    /**
+     * Pass on the contents of a buffer, and empty it.
+     * 
+     * @param xml the streaming writer feeding the buffer
+     * 
+     * @param buffer the buffer
+     * 
+     * @param out the destination
+     * 
+     * @throws XMLStreamException if an XML error occurred
+     * 
+     * @throws IOException if an I/O error occurred
+     */
+    private static void drain(XMLStreamWriter xml, StringWriter buffer,
+                              Writer out)
+        throws XMLStreamException,
+            IOException {
+        xml.flush();
+        StringBuffer content = buffer.getBuffer();
+        out.append(content);
+        content.setLength(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * The document is generated as a stream with
+     * {@link #write(Puzzle, XMLStreamWriter)}, so no DOM tree is built.
+     */
     @Override
     public void write(Puzzle puzzle, Writer out) throws IOException {
+        StringWriter buffer = BUFFERS.get();
+        buffer.getBuffer().setLength(0);
+        try {
+            XMLStreamWriter xml = OUTPUT_FACTORY.createXMLStreamWriter(buffer);
+            try {
+                xml.writeStartDocument("UTF-8", "1.0");
+                xml.writeCharacters("\n");
+                write(puzzle, xml);
+                xml.writeEndDocument();
+                xml.writeCharacters("\n");
+                drain(xml, buffer, out);
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("XML error", ex);
+        }
+    }
+
+    /**
+     * Write several puzzles as one document. Each puzzle is a
+     * <samp>nonogram</samp> element within a root
+     * <samp>nonograms</samp> element. Each puzzle is passed to the
+     * destination as soon as it has been serialized, so the puzzles
+     * need not all be held in memory. The result can be read back with
+     * {@link #readAll(Reader, Locale, Consumer)}.
+     * 
+     * @param puzzles the puzzles to write
+     * 
+     * @param out the destination
+     * 
+     * @throws IOException if an I/O error occurred
+     */
+    public void writeAll(Iterable<? extends Puzzle> puzzles, Writer out)
+        throws IOException {
+        StringWriter buffer = BUFFERS.get();
+        buffer.getBuffer().setLength(0);
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document doc = toXML(puzzle, db);
-            TransformerFactory tff = TransformerFactory.newInstance();
-            Transformer tf = tff.newTransformer();
-            tf.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-            tf.setOutputProperty(OutputKeys.METHOD, "xml");
-            tf.setOutputProperty(OutputKeys.INDENT, "yes");
-            tf.setOutputProperty(OutputKeys.ENCODING, "utf-8");
-            tf.transform(new DOMSource(doc), new StreamResult(out));
-        } catch (ParserConfigurationException | TransformerException ex) {
+            XMLStreamWriter xml = OUTPUT_FACTORY.createXMLStreamWriter(buffer);
+            try {
+                xml.writeStartDocument("UTF-8", "1.0");
+                xml.writeCharacters("\n");
+                xml.writeStartElement("", "nonograms", XMLFormat.NAMESPACE);
+                xml.writeDefaultNamespace(XMLFormat.NAMESPACE);
+                xml.writeCharacters("\n");
+                for (Puzzle puzzle : puzzles) {
+                    write(puzzle, xml);
+                    xml.writeCharacters("\n");
+                    drain(xml, buffer, out);
+                }
+                xml.writeEndDocument();
+                xml.writeCharacters("\n");
+                drain(xml, buffer, out);
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException ex) {
             throw new IOException("XML error", ex);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * The document is read as a stream with
+     * {@link #load(XMLStreamReader, Locale)}, so no DOM tree is built.
+     */
     @Override
     public Puzzle read(Reader in, Locale defaultLocale) throws IOException {
         try {
-            return load(new InputSource(in), defaultLocale);
-        } catch (SAXException | ParserConfigurationException ex) {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                return load(reader, defaultLocale);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
             throw new IOException("XML error", ex);
         }
     }
 
+    /**
+     * Read all puzzles from a character stream, such as one written by
+     * {@link #writeAll(Iterable, Writer)}. Each <samp>nonogram</samp>
+     * element is loaded with {@link #load(XMLStreamReader, Locale)} as
+     * it is encountered.
+     * 
+     * @param in the stream to read from
+     * 
+     * @param defaultLocale the locale to assume for unspecified
+     * meta-data
+     * 
+     * @param action invoked on each puzzle in document order
+     * 
+     * @throws IOException if an I/O error occurs
+     */
+    public void readAll(Reader in, Locale defaultLocale,
+                        Consumer<? super Puzzle> action)
+        throws IOException {
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT
+                        && XMLFormat.NAMESPACE.equals(reader.getNamespaceURI())
+                        && reader.getLocalName().equals("nonogram"))
+                        action.accept(load(reader, defaultLocale));
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("XML error", ex);
+        }
+    }
+
+    /**
+     * Creates streaming readers for {@link #read(Reader, Locale)}. It
+     * is configured once, and then only used to create readers.
+     */
+    private static final XMLInputFactory INPUT_FACTORY =
+        XMLInputFactory.newInstance();
+
+    /**
+     * Creates DOM parsers for {@link #load(InputSource, Locale)}. It is
+     * configured once, and then only used to create parsers.
+     */
+    private static final DocumentBuilderFactory DOCUMENT_FACTORY;
+
+    static {
+        DOCUMENT_FACTORY = DocumentBuilderFactory.newInstance();
+        DOCUMENT_FACTORY.setNamespaceAware(true);
+        DOCUMENT_FACTORY.setValidating(false);
+        DOCUMENT_FACTORY.setIgnoringComments(true);
+        DOCUMENT_FACTORY.setIgnoringElementContentWhitespace(true);
+    }
+
+    /**
+     * Holds a DOM parser for each thread, as parsers are not
+     * thread-safe, but can be reset and reused.
+     */
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDERS =
+        new ThreadLocal<>();
+
+    private static DocumentBuilder getDocumentBuilder()
+        throws ParserConfigurationException {
+        DocumentBuilder db = DOCUMENT_BUILDERS.get();
+        if (db != null) {
+            db.reset();
+            return db;
+        }
+        synchronized (DOCUMENT_FACTORY) {
+            db = DOCUMENT_FACTORY.newDocumentBuilder();
+        }
+        DOCUMENT_BUILDERS.set(db);
+        return db;
+    }
+
     /**
      * Load a puzzle from an XML document. This method ultimately
-     * delegates to {@link #load(Document, Locale)}.
+     * delegates to {@link #load(Document, Locale)}. The parser is
+     * reused by later calls on the same thread.
      * 
      * @param in the source text
      * 
@@ -361,12 +704,7 @@ public class XMLFormat implements Format {
         throws SAXException,
             IOException,
             ParserConfigurationException {
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        dbf.setValidating(false);
-        dbf.setIgnoringComments(true);
-        dbf.setIgnoringElementContentWhitespace(true);
-        DocumentBuilder db = dbf.newDocumentBuilder();
-        Document doc = db.parse(in);
+        Document doc = getDocumentBuilder().parse(in);
         return load(doc, defaultLocale);
     }
 
@@ -414,9 +752,8 @@ public class XMLFormat implements Format {
                         anc = null;
                     }
                 } while (anc != null && localeText == null);
-                final Locale locale = localeText == null ? defaultLocale :
-                    Locale.forLanguageTag(localeText);
-                builder = builder.meta(name, locale, value);
+                builder = addMeta(builder, name, localeText, value,
+                                  defaultLocale);
             }
         }
 
@@ -431,43 +768,8 @@ public class XMLFormat implements Format {
 
             for (int i = 0; i < elems.getLength(); i++) {
                 Element elem = (Element) elems.item(i);
-
-                /* Assume defaults. */
-                String key = null;
-                Color bg = Color.WHITE;
-                Color fg = Color.BLACK;
-                Shape shape = Shape.SOLID;
-
-                /* Override defaults. */
-                if (elem.hasAttribute("sym"))
-                    // TODO: Check case!
-                    shape = Enum.valueOf(Shape.class, elem.getAttribute("sym"));
-                if (elem.hasAttribute("bg"))
-                    bg = getColor(elem.getAttribute("bg"));
-                if (elem.hasAttribute("fg"))
-                    fg = getColor(elem.getAttribute("fg"));
-                if (elem.hasAttribute("key")) key = elem.getAttribute("key");
-
-                /* Build the tile. */
-                Tile tile = Tile.of(fg, bg, shape);
-
-                /* Parse the context, or use the default. */
-                Set<Set<String>> context;
-                if (elem.hasAttribute("ctxt")) {
-                    context = Puzzle.parseContext(elem.getAttribute("ctxt"));
-                } else {
-                    context = Puzzle.DEFAULT_CONTEXT;
-                }
-
-                /* Determine which cell state this tile is for. */
-                final Hue hue;
-                if (key == null) {
-                    hue = Hue.BACKGROUND;
-                } else {
-                    hue = hues.computeIfAbsent(key, k -> Hue.distinct());
-                }
-
-                builder = builder.tile(hue, context, tile);
+                builder = addTile(builder, hues, name -> elem
+                    .hasAttribute(name) ? elem.getAttribute(name) : null);
             }
         }
 
@@ -477,20 +779,253 @@ public class XMLFormat implements Format {
                 root.getElementsByTagNameNS(XMLFormat.NAMESPACE, "bank");
             for (int i = 0; i < elems.getLength(); i++) {
                 Element elem = (Element) elems.item(i);
-                String text = elem.getTextContent().trim() + ' ';
-                String name = elem.getAttribute("name");
-                List<Clue> bank = new ArrayList<>();
-                parseClues(bank, text, hues);
-                builder = builder.clues(name, bank);
+                builder = addBank(builder, hues, elem.getAttribute("name"),
+                                  elem.getTextContent());
             }
         }
 
         return builder.create();
     }
 
+    /**
+     * Holds the state of an element while a document is being
+     * streamed.
+     */
+    private static final class Frame {
+        /**
+         * The language in scope, from this element's
+         * <samp>xml:lang</samp> attribute or its nearest ancestor's; or
+         * {@code null} if none is specified
+         */
+        final String lang;
+
+        /**
+         * The local name of a meta-datum or bank element, whose text is
+         * being collected; otherwise {@code null}
+         */
+        final String kind;
+
+        /**
+         * The <samp>name</samp> attribute of a meta-datum or bank
+         */
+        final String name;
+
+        final StringBuilder text;
+
+        Frame(String lang, String kind, String name) {
+            this.lang = lang;
+            this.kind = kind;
+            this.name = name;
+            this.text = kind == null ? null : new StringBuilder();
+        }
+    }
+
+    /**
+     * Load a puzzle from a stream of XML events, without building a
+     * DOM tree. The result is the same as from
+     * {@link #load(Document, Locale)}. The reader is left positioned at
+     * the end of the puzzle element, and is not closed.
+     * 
+     * @param in the source of XML events, positioned on or before the
+     * puzzle element
+     * 
+     * @param defaultLocale the locale to assume for untagged meta-data
+     * 
+     * @return the puzzle data extracted from the document
+     * 
+     * @throws XMLStreamException if an XML error occurred
+     */
+    public static Puzzle load(XMLStreamReader in, Locale defaultLocale)
+        throws XMLStreamException {
+        Puzzle.Builder builder = Puzzle.start();
+
+        /* Keep track of colours. */
+        Map<String, Hue> hues = new HashMap<>();
+        hues.put("?", Hue.UNKNOWN);
+
+        /* Meta-data and banks are handled when their text is complete.
+         * As in a DOM tree, their text includes that of any nested
+         * elements. */
+        while (!in.isStartElement()) {
+            if (!in.hasNext())
+                throw new XMLStreamException("no puzzle element");
+            in.next();
+        }
+        Deque<Frame> open = new ArrayDeque<>();
+        do {
+            switch (in.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT: {
+                String lang =
+                    in.getAttributeValue(XMLConstants.XML_NS_URI, "lang");
+                if (lang == null && !open.isEmpty())
+                    lang = open.peek().lang;
+
+                /* Determine the over-all geometry. */
+                if (open.isEmpty()) {
+                    String geom = in.getAttributeValue(null, "geom");
+                    builder = builder.geometry(geom == null ? "rect" : geom);
+                    open.push(new Frame(lang, null, null));
+                    break;
+                }
+
+                String kind = null;
+                if (XMLFormat.NAMESPACE.equals(in.getNamespaceURI())) {
+                    switch (in.getLocalName()) {
+                    case "tile":
+                        builder = addTile(builder, hues,
+                                          name -> in.getAttributeValue(null,
+                                                                       name));
+                        break;
+
+                    case "meta":
+                    case "bank":
+                        kind = in.getLocalName();
+                        break;
+                    }
+                }
+                String name = null;
+                if (kind != null) {
+                    name = in.getAttributeValue(null, "name");
+                    if (name == null) name = "";
+                }
+                open.push(new Frame(lang, kind, name));
+                break;
+            }
+
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                for (Frame frame : open)
+                    if (frame.text != null)
+                        frame.text.append(in.getTextCharacters(),
+                                          in.getTextStart(),
+                                          in.getTextLength());
+                break;
+
+            case XMLStreamConstants.END_ELEMENT: {
+                Frame frame = open.pop();
+                if (frame.kind == null) break;
+                if (frame.kind.equals("meta"))
+                    builder = addMeta(builder, frame.name, frame.lang,
+                                      frame.text.toString(), defaultLocale);
+                else
+                    builder = addBank(builder, hues, frame.name,
+                                      frame.text.toString());
+                break;
+            }
+            }
+
+            /* Stop at the end of the puzzle element. */
+            if (open.isEmpty()) break;
+            in.next();
+        } while (true);
+
+        return builder.create();
+    }
+
+    /**
+     * Add a meta-datum to a puzzle.
+     * 
+     * @param builder the puzzle being built
+     * 
+     * @param name the name of the datum
+     * 
+     * @param localeText the language tag in scope; or {@code null} if
+     * there is none
+     * 
+     * @param value the datum's value
+     * 
+     * @param defaultLocale the locale to assume if no language is in
+     * scope
+     * 
+     * @return the builder
+     */
+    private static Puzzle.Builder addMeta(Puzzle.Builder builder,
+                                          String name, String localeText,
+                                          String value,
+                                          Locale defaultLocale) {
+        final Locale locale = localeText == null ? defaultLocale :
+            Locale.forLanguageTag(localeText);
+        return builder.meta(name, locale, value);
+    }
+
+    /**
+     * Add a tile to a puzzle.
+     * 
+     * @param builder the puzzle being built
+     * 
+     * @param hues the colours defined so far, by key, to be added to
+     * 
+     * @param attrs yields the value of each named attribute of the
+     * tile element, or {@code null} if it is absent
+     * 
+     * @return the builder
+     */
+    private static Puzzle.Builder addTile(Puzzle.Builder builder,
+                                          Map<String, Hue> hues,
+                                          Function<String, String> attrs) {
+        /* Assume defaults. */
+        String key = null;
+        Color bg = Color.WHITE;
+        Color fg = Color.BLACK;
+        Shape shape = Shape.SOLID;
+
+        /* Override defaults. */
+        String text;
+        if ((text = attrs.apply("sym")) != null)
+            shape = Enum.valueOf(Shape.class, text.toUpperCase(Locale.ROOT));
+        if ((text = attrs.apply("bg")) != null) bg = getColor(text);
+        if ((text = attrs.apply("fg")) != null) fg = getColor(text);
+        if ((text = attrs.apply("key")) != null) key = text;
+
+        /* Build the tile. */
+        Tile tile = Tile.of(fg, bg, shape);
+
+        /* Parse the context, or use the default. */
+        Set<Set<String>> context;
+        if ((text = attrs.apply("ctxt")) != null) {
+            context = Puzzle.parseContext(text);
+        } else {
+            context = Puzzle.DEFAULT_CONTEXT;
+        }
+
+        /* Determine which cell state this tile is for. */
+        final Hue hue;
+        if (key == null) {
+            hue = Hue.BACKGROUND;
+        } else {
+            hue = hues.computeIfAbsent(key, k -> Hue.distinct());
+        }
+
+        return builder.tile(hue, context, tile);
+    }
+
+    /**
+     * Add a bank of clues to a puzzle.
+     * 
+     * @param builder the puzzle being built
+     * 
+     * @param hues the colours defined so far, by key, to be added to
+     * 
+     * @param name the bank name
+     * 
+     * @param content the text content of the bank element
+     * 
+     * @return the builder
+     */
+    private static Puzzle.Builder addBank(Puzzle.Builder builder,
+                                          Map<String, Hue> hues,
+                                          String name, String content) {
+        String text = content.trim() + ' ';
+        List<Clue> bank = new ArrayList<>();
+        parseClues(bank, text, hues);
+        return builder.clues(name, bank);
+    }
+
     static String toString(Color color) {
-        // TODO
-        return "#TODO";
+        return String.format("#%02x%02x%02x", color.getRed(),
+                             color.getGreen(), color.getBlue());
     }
 
     private static final Pattern RGB_SYNTAX = Pattern
@@ -530,34 +1065,45 @@ public class XMLFormat implements Format {
     private static void parseClues(List<Clue> bank, String text,
                                    Map<String, Hue> colorCodes) {
         List<Bar> currentLine = new ArrayList<>();
+        boolean zero = false;
         Matcher m = BLOCK_SYNTAX.matcher(text);
         while (m.find()) {
             String numText = m.group(1);
             String tileText = m.group(2);
-            String unitTileText = m.group(3);
-            String sep = m.group(4);
-            String unspec = m.group(5);
+            String unspec = m.group(3);
+            String unitTileText = m.group(4);
+            String end = m.group(6);
 
             if (numText != null) {
                 int size = Integer.parseInt(numText);
                 Hue color =
                     colorCodes.computeIfAbsent(tileText, k -> Hue.distinct());
-                currentLine.add(Bar.of(size, color));
+                if (size == 0)
+                    /* A lone zero-length block denotes an empty line. */
+                    zero = true;
+                else
+                    currentLine.add(Bar.of(size, color));
             } else if (unitTileText != null) {
                 Hue color = colorCodes.computeIfAbsent(unitTileText,
                                                        k -> Hue.distinct());
                 currentLine.add(Bar.of(1, color));
-            } else if (sep != null && sep.isEmpty()) {
-                if (currentLine.size() == 1 && currentLine.get(0).length == 0)
-                    currentLine.clear();
+            } else if (end != null && (zero || !currentLine.isEmpty())) {
                 bank.add(Clue.of(currentLine));
                 currentLine = new ArrayList<>();
+                zero = false;
             } else if (unspec != null) {
                 bank.add(Clue.unspecified());
             }
         }
     }
 
+    /**
+     * Matches one token of a bank of clues. A block is a length and a
+     * colour key, or just a key for a unit length. Blocks of a line are
+     * separated by dots or commas, and lines by white space. A hyphen
+     * denotes an unspecified line.
+     */
     private static final Pattern BLOCK_SYNTAX = Pattern
-        .compile("([0-9]+)([^.,\\s]*)|([^.,\\s]+)|\\s*([,.])\\s*|(-\\s*)|\\s+");
+        .compile("([0-9]+)([^.,\\s]*)|(-\\s*)|([^.,\\s]+)"
+            + "|\\s*([,.])\\s*|(\\s+)");
 }
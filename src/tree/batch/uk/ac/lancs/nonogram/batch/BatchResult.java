@@ -0,0 +1,128 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.batch;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Describes the outcome of solving one puzzle of a batch.
+ *
+ * @author simpsons
+ */
+public final class BatchResult {
+    /**
+     * Classifies the outcome of solving a puzzle.
+     *
+     * @author simpsons
+     */
+    public enum Status {
+        /**
+         * The puzzle has exactly one solution.
+         */
+        UNIQUE,
+
+        /**
+         * The puzzle has more than one solution. The search stopped at
+         * the configured solution limit.
+         */
+        MULTIPLE,
+
+        /**
+         * The puzzle has no solution.
+         */
+        UNSOLVABLE,
+
+        /**
+         * The puzzle's budget was exceeded before the search completed.
+         */
+        TIMEOUT,
+
+        /**
+         * The puzzle could not be read, or no layout could be made
+         * from it.
+         */
+        ERROR;
+    }
+
+    /**
+     * @resume The file from which the puzzle was read
+     */
+    public final Path path;
+
+    /**
+     * @resume The outcome of solving the puzzle
+     */
+    public final Status status;
+
+    /**
+     * @resume The number of solutions found
+     */
+    public final int solutions;
+
+    /**
+     * @resume The time spent reading and solving the puzzle, excluding
+     * time spent waiting between stages
+     */
+    public final Duration latency;
+
+    /**
+     * @resume A description of the error, or {@code null} if there was
+     * none
+     */
+    public final String message;
+
+    BatchResult(Path path, Status status, int solutions, Duration latency,
+                String message) {
+        this.path = path;
+        this.status = status;
+        this.solutions = solutions;
+        this.latency = latency;
+        this.message = message;
+    }
+
+    /**
+     * Get a string representation of this result.
+     *
+     * @return the status, the number of solutions, the latency in
+     * microseconds, and the path, separated by tabs
+     */
+    @Override
+    public String toString() {
+        return status + "\t" + solutions + "\t" + latency.toNanos() / 1000
+            + "\t" + path;
+    }
+}
@@ -0,0 +1,959 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.batch;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import uk.ac.lancs.nonogram.Clue;
+import uk.ac.lancs.nonogram.Format;
+import uk.ac.lancs.nonogram.LegacyFormat;
+import uk.ac.lancs.nonogram.Puzzle;
+import uk.ac.lancs.nonogram.XMLFormat;
+import uk.ac.lancs.nonogram.cache.SolutionCache;
+import uk.ac.lancs.nonogram.geom.Geometry;
+import uk.ac.lancs.nonogram.geom.NullWidgetDisplayFactory;
+import uk.ac.lancs.nonogram.layout.Layout;
+import uk.ac.lancs.nonogram.line.LineAlgorithm;
+import uk.ac.lancs.nonogram.line.heuristic.LineHeuristic;
+import uk.ac.lancs.nonogram.plugin.PluginException;
+import uk.ac.lancs.nonogram.sat.SatEngine;
+import uk.ac.lancs.nonogram.solver.FrontierPolicy;
+import uk.ac.lancs.nonogram.solver.Grid;
+import uk.ac.lancs.nonogram.solver.GridManager;
+import uk.ac.lancs.nonogram.solver.LatencyHistogram;
+import uk.ac.lancs.nonogram.solver.LineWorker;
+import uk.ac.lancs.nonogram.solver.SessionRecorder;
+import uk.ac.lancs.nonogram.solver.SolveBudget;
+
+/**
+ * Solves large numbers of puzzles concurrently. Puzzle files pass
+ * through a pipeline of stages connected by bounded queues:
+ *
+ * <ol>
+ *
+ * <li>A reader thread enumerates the files to be solved, skipping any
+ * recorded by an earlier run.
+ *
+ * <li>Parser threads read each file with a {@link Format}, look it up
+ * in a {@link SolutionCache} if one is configured, and otherwise make a
+ * layout for it with {@link Geometry#makeLayout(String, Function, Map)}.
+ *
+ * <li>Solver threads each solve one puzzle at a time with a
+ * {@link GridManager} and {@link LineWorker}, or with a
+ * {@link SatEngine}, subject to a per-puzzle {@link SolveBudget}.
+ * Unique solutions are added to the cache.
+ *
+ * <li>The calling thread records each result in a progress file, and
+ * gathers statistics.
+ *
+ * </ol>
+ *
+ * <p>
+ * As each queue is bounded, memory use does not grow with the number
+ * of puzzles, except for the record of puzzles already solved when a
+ * run is resumed.
+ *
+ * @author simpsons
+ */
+public final class BatchSolver {
+    /**
+     * Identifies a means of solving puzzles.
+     */
+    public enum Engine {
+        /**
+         * Puzzles are solved by line solving and bifurcation, with a
+         * {@link Grid}.
+         */
+        GRID,
+
+        /**
+         * Puzzles are solved by clause learning, with a
+         * {@link SatEngine}.
+         */
+        SAT;
+    }
+
+    private final int parsers;
+
+    private final int solvers;
+
+    private final int capacity;
+
+    private final int solutionLimit;
+
+    private final Duration timeout;
+
+    private final List<LineAlgorithm> algorithms;
+
+    private final LineHeuristic heuristic;
+
+    private final Function<? super Path, ? extends Format> formats;
+
+    private final Locale locale;
+
+    private final SolutionCache cache;
+
+    private final Engine engine;
+
+    private final FrontierPolicy frontier;
+
+    private final Path sessions;
+
+    private BatchSolver(Builder builder, List<LineAlgorithm> algorithms,
+                        LineHeuristic heuristic) {
+        this.parsers = builder.parsers;
+        this.solvers = builder.solvers;
+        this.capacity = builder.capacity;
+        this.solutionLimit = builder.solutionLimit;
+        this.timeout = builder.timeout;
+        this.formats = builder.formats;
+        this.locale = builder.locale;
+        this.cache = builder.cache;
+        this.engine = builder.engine;
+        this.frontier = builder.frontier;
+        this.sessions = builder.sessions;
+        this.algorithms = algorithms;
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * Choose a format based on a file's name. Files ending in
+     * <samp>.xml</samp> are read with {@link XMLFormat}, and all others
+     * with {@link LegacyFormat}.
+     *
+     * @param path the file to be read
+     *
+     * @return the format to read the file with
+     */
+    public static Format formatByName(Path path) {
+        Path name = path.getFileName();
+        if (name != null
+            && name.toString().toLowerCase(Locale.ROOT).endsWith(".xml"))
+            return XMLFormat.INSTANCE;
+        return LegacyFormat.INSTANCE;
+    }
+
+    /**
+     * Prepare to create a batch solver.
+     *
+     * @return a default configuration
+     *
+     * @constructor
+     */
+    public static Builder start() {
+        return new Builder();
+    }
+
+    /**
+     * @resume A mutable configuration for a batch solver
+     *
+     * @author simpsons
+     */
+    public static final class Builder {
+        private Builder() {}
+
+        private int parsers = 1;
+
+        private int solvers = Runtime.getRuntime().availableProcessors();
+
+        private int capacity = 64;
+
+        private int solutionLimit = 2;
+
+        private Duration timeout;
+
+        private final List<String> algorithms = new ArrayList<>();
+
+        private String heuristic = "fast";
+
+        private Function<? super Path, ? extends Format> formats =
+            BatchSolver::formatByName;
+
+        private Locale locale = Locale.getDefault();
+
+        private SolutionCache cache;
+
+        private Engine engine = Engine.GRID;
+
+        private FrontierPolicy frontier = FrontierPolicy.unbounded();
+
+        private Path sessions;
+
+        private static int positive(String what, int amount) {
+            if (amount < 1)
+                throw new IllegalArgumentException("non-positive " + what
+                    + ": " + amount);
+            return amount;
+        }
+
+        /**
+         * Set the number of threads reading puzzles. The default is 1.
+         *
+         * @param amount the number of parser threads
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the amount is not
+         * positive
+         */
+        public Builder parsers(int amount) {
+            this.parsers = positive("parsers", amount);
+            return this;
+        }
+
+        /**
+         * Set the number of threads solving puzzles. The default is the
+         * number of available processors.
+         *
+         * @param amount the number of solver threads
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the amount is not
+         * positive
+         */
+        public Builder solvers(int amount) {
+            this.solvers = positive("solvers", amount);
+            return this;
+        }
+
+        /**
+         * Set the capacity of each queue between stages. The default
+         * is 64.
+         *
+         * @param amount the maximum number of puzzles waiting between
+         * two stages
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the amount is not
+         * positive
+         */
+        public Builder capacity(int amount) {
+            this.capacity = positive("capacity", amount);
+            return this;
+        }
+
+        /**
+         * Set the number of solutions after which a puzzle's search
+         * stops. The default is 2, which is enough to distinguish
+         * unique puzzles from others.
+         *
+         * @param amount the solution limit; or zero to find all
+         * solutions
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the amount is 1 or
+         * negative, as uniqueness could then not be determined
+         */
+        public Builder solutionLimit(int amount) {
+            if (amount < 0 || amount == 1)
+                throw new IllegalArgumentException("bad solution limit: "
+                    + amount);
+            this.solutionLimit = amount;
+            return this;
+        }
+
+        /**
+         * Set the time allowed for solving each puzzle. By default,
+         * there is no limit.
+         *
+         * @param timeout the time allowed; or {@code null} for no limit
+         *
+         * @return this builder
+         */
+        public Builder timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Add a line-solving algorithm. If none is added, the
+         * <samp>fast</samp> algorithm is used.
+         *
+         * @param config the plug-in configuration of the algorithm
+         *
+         * @return this builder
+         *
+         * @see LineAlgorithm#findLineAlgorithm(String)
+         */
+        public Builder algorithm(String config) {
+            this.algorithms.add(config);
+            return this;
+        }
+
+        /**
+         * Set the line heuristic. The default is <samp>fast</samp>.
+         *
+         * @param config the plug-in configuration of the heuristic
+         *
+         * @return this builder
+         *
+         * @see LineHeuristic#findLineHeuristic(String)
+         */
+        public Builder heuristic(String config) {
+            this.heuristic = config;
+            return this;
+        }
+
+        /**
+         * Set the means of choosing a format for each file. The default
+         * is {@link BatchSolver#formatByName(Path)}.
+         *
+         * @param formats a function yielding a format for each file
+         *
+         * @return this builder
+         */
+        public Builder
+            formats(Function<? super Path, ? extends Format> formats) {
+            this.formats = formats;
+            return this;
+        }
+
+        /**
+         * Set the locale to assume for unspecified meta-data. The
+         * default is the platform default.
+         *
+         * @param locale the default locale
+         *
+         * @return this builder
+         */
+        public Builder locale(Locale locale) {
+            this.locale = locale;
+            return this;
+        }
+
+        /**
+         * Set the cache of solutions. Puzzles found in the cache are
+         * not solved, and are reported as unique. By default, there is
+         * no cache.
+         *
+         * @param cache the solution cache; or {@code null} if none is
+         * to be used
+         *
+         * @return this builder
+         */
+        public Builder cache(SolutionCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Set the means of solving puzzles. The default is
+         * {@link Engine#GRID}.
+         *
+         * @param engine the engine to solve puzzles with
+         *
+         * @return this builder
+         *
+         * @throws NullPointerException if the engine is {@code null}
+         */
+        public Builder engine(Engine engine) {
+            this.engine = Objects.requireNonNull(engine, "engine");
+            return this;
+        }
+
+        /**
+         * Set the policy bounding the grids in existence while solving
+         * each puzzle with {@link Engine#GRID}. By default, the
+         * frontier is unbounded.
+         *
+         * @param frontier the frontier policy
+         *
+         * @return this builder
+         *
+         * @throws NullPointerException if the policy is {@code null}
+         */
+        public Builder frontier(FrontierPolicy frontier) {
+            this.frontier = Objects.requireNonNull(frontier, "frontier");
+            return this;
+        }
+
+        /**
+         * Set the directory in which to record the schedule of each
+         * puzzle solved with {@link Engine#GRID}, so that a slow solve
+         * can be re-executed by {@link ReplayDriver}. Each record is
+         * named <samp><var>seq</var>-<var>file</var>.session</samp>,
+         * where <var>seq</var> is the puzzle's position in the input,
+         * counting from zero, and <var>file</var> is the name of its
+         * file, so that files of the same name from different
+         * directories do not share a record. An existing record is
+         * never overwritten; the run fails instead. By default,
+         * nothing is recorded.
+         *
+         * @param dir the directory for records; or {@code null} if
+         * nothing is to be recorded
+         *
+         * @return this builder
+         *
+         * @see SessionRecorder
+         */
+        public Builder sessions(Path dir) {
+            this.sessions = dir;
+            return this;
+        }
+
+        /**
+         * Create a batch solver from this configuration.
+         *
+         * @return the new batch solver
+         *
+         * @throws PluginException if an algorithm or the heuristic
+         * could not be loaded
+         */
+        public BatchSolver create() throws PluginException {
+            List<LineAlgorithm> algos = new ArrayList<>();
+            for (String config : algorithms.isEmpty() ?
+                Collections.singletonList("fast") : algorithms)
+                algos.add(LineAlgorithm.findLineAlgorithm(config));
+            LineHeuristic heur = LineHeuristic.findLineHeuristic(heuristic);
+            return new BatchSolver(this, Collections.unmodifiableList(algos),
+                                   heur);
+        }
+    }
+
+    /**
+     * Passes a puzzle file to the first stage.
+     */
+    @FunctionalInterface
+    private interface Feed {
+        void accept(Path path) throws InterruptedException;
+    }
+
+    /**
+     * Enumerates puzzle files.
+     */
+    @FunctionalInterface
+    private interface Feeder {
+        void feed(Feed out) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Carries a puzzle between stages.
+     */
+    private static final class Task {
+        final Path path;
+
+        /**
+         * The position of the puzzle in the input, counting from zero,
+         * and including puzzles skipped as already done
+         */
+        final long sequence;
+
+        Puzzle puzzle;
+
+        Layout layout;
+
+        long nanos;
+
+        Task(Path path, long sequence) {
+            this.path = path;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Performs the work of a pipeline stage.
+     */
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws IOException, InterruptedException;
+    }
+
+    private static void rethrow(Throwable t) throws IOException {
+        if (t == null) return;
+        if (t instanceof IOException) throw (IOException) t;
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        throw (Error) t;
+    }
+
+    private static final Task END_TASK = new Task(null, -1);
+
+    private static final BatchResult END_RESULT =
+        new BatchResult(null, null, 0, null, null);
+
+    /**
+     * Solve all regular files under some directories.
+     *
+     * @param roots the files and directories to search
+     *
+     * @param progress the file to record results in, and to resume
+     * from; or {@code null} if results are not to be recorded
+     *
+     * @return statistics of the run
+     *
+     * @throws IOException if an I/O error occurs in searching the
+     * directories or recording the results
+     *
+     * @throws InterruptedException if the calling thread was
+     * interrupted
+     */
+    public BatchStats run(Collection<? extends Path> roots, Path progress)
+        throws IOException,
+            InterruptedException {
+        final Path exclude =
+            progress == null ? null : progress.toAbsolutePath().normalize();
+        return run(out -> {
+            for (Path root : roots) {
+                try (Stream<Path> files = Files.walk(root)) {
+                    Iterator<Path> iter = files
+                        .filter(Files::isRegularFile)
+                        .filter(p -> !p.toAbsolutePath().normalize()
+                            .equals(exclude))
+                        .iterator();
+                    while (iter.hasNext())
+                        out.accept(iter.next());
+                }
+            }
+        }, progress);
+    }
+
+    /**
+     * Solve a sequence of puzzle files. The sequence is consumed
+     * lazily, as the first stage has room.
+     *
+     * @param files the files to solve
+     *
+     * @param progress the file to record results in, and to resume
+     * from; or {@code null} if results are not to be recorded
+     *
+     * @return statistics of the run
+     *
+     * @throws IOException if an I/O error occurs in recording the
+     * results
+     *
+     * @throws InterruptedException if the calling thread was
+     * interrupted
+     */
+    public BatchStats run(Iterator<? extends Path> files, Path progress)
+        throws IOException,
+            InterruptedException {
+        return run(out -> {
+            while (files.hasNext())
+                out.accept(files.next());
+        }, progress);
+    }
+
+    private BatchStats run(Feeder feeder, Path progressPath)
+        throws IOException,
+            InterruptedException {
+        final long start = System.nanoTime();
+        final BlockingQueue<Task> paths = new ArrayBlockingQueue<>(capacity);
+        final BlockingQueue<Task> tasks = new ArrayBlockingQueue<>(capacity);
+        final BlockingQueue<BatchResult> results =
+            new ArrayBlockingQueue<>(capacity);
+        final AtomicInteger parsersLeft = new AtomicInteger(parsers);
+        final AtomicInteger solversLeft = new AtomicInteger(solvers);
+        final AtomicLong skipped = new AtomicLong();
+        final AtomicLong sequence = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>();
+
+        try (ProgressFile progress =
+            progressPath == null ? null : new ProgressFile(progressPath)) {
+            final Thread writer = Thread.currentThread();
+            final Function<Stage, Runnable> guard = body -> () -> {
+                try {
+                    body.run();
+                } catch (InterruptedException ex) {
+                    /* We're being shut down. */
+                } catch (IOException | RuntimeException | Error ex) {
+                    /* Abandon the run. */
+                    failure.compareAndSet(null, ex);
+                    writer.interrupt();
+                }
+            };
+
+            threads.add(new Thread(guard.apply(() -> {
+                feeder.feed(path -> {
+                    final long seq = sequence.getAndIncrement();
+                    if (progress != null && progress.isDone(path))
+                        skipped.incrementAndGet();
+                    else
+                        paths.put(new Task(path, seq));
+                });
+                for (int i = 0; i < parsers; i++)
+                    paths.put(END_TASK);
+            }), "batch-reader"));
+
+            for (int i = 0; i < parsers; i++)
+                threads.add(new Thread(guard.apply(() -> {
+                    for (Task task; (task = paths.take()) != END_TASK;) {
+                        BatchResult error = parse(task);
+                        if (error == null)
+                            tasks.put(task);
+                        else
+                            results.put(error);
+                    }
+                    if (parsersLeft.decrementAndGet() == 0)
+                        for (int j = 0; j < solvers; j++)
+                            tasks.put(END_TASK);
+                }), "batch-parser-" + i));
+
+            for (int i = 0; i < solvers; i++)
+                threads.add(new Thread(guard.apply(() -> {
+                    for (Task task; (task = tasks.take()) != END_TASK;)
+                        results.put(solve(task));
+                    if (solversLeft.decrementAndGet() == 0)
+                        results.put(END_RESULT);
+                }), "batch-solver-" + i));
+
+            for (Thread t : threads)
+                t.start();
+
+            /* Record results as they arrive. A failing stage interrupts
+             * us. */
+            Map<BatchResult.Status, Long> counts =
+                new EnumMap<>(BatchResult.Status.class);
+            LatencyHistogram latencies = new LatencyHistogram();
+            try {
+                for (BatchResult result;
+                     (result = results.take()) != END_RESULT;) {
+                    if (progress != null) progress.record(result);
+                    counts.merge(result.status, 1L, Long::sum);
+                    latencies.record(result.latency.toNanos());
+                }
+            } catch (InterruptedException | IOException ex) {
+                rethrow(failure.get());
+                throw ex;
+            }
+            rethrow(failure.get());
+            return new BatchStats(counts, skipped.get(),
+                                  Duration.ofNanos(System.nanoTime() - start),
+                                  latencies.snapshot());
+        } finally {
+            /* Stop all stages if we're leaving early. */
+            for (Thread t : threads)
+                t.interrupt();
+            for (Thread t : threads)
+                t.join();
+        }
+    }
+
+    /**
+     * Read a puzzle, and create its layout.
+     *
+     * @param task the puzzle to be read, whose layout is set if it is
+     * to be solved
+     *
+     * @return {@code null} if the puzzle is to be solved; or a result
+     * describing an error or a cached solution
+     *
+     * @throws IOException if an I/O error occurs in the cache
+     */
+    private BatchResult parse(Task task) throws IOException {
+        final long start = System.nanoTime();
+        final Puzzle puzzle;
+        try {
+            Format format = formats.apply(task.path);
+            try (Reader in = Files.newBufferedReader(task.path,
+                                                     StandardCharsets.UTF_8)) {
+                puzzle = format.read(in, locale);
+            }
+        } catch (IOException | RuntimeException ex) {
+            return new BatchResult(task.path, BatchResult.Status.ERROR, 0,
+                                   Duration.ofNanos(System.nanoTime() - start),
+                                   ex.toString());
+        }
+
+        if (cache != null && cache.get(puzzle) != null)
+            return new BatchResult(task.path, BatchResult.Status.UNIQUE, 1,
+                                   Duration.ofNanos(System.nanoTime() - start),
+                                   null);
+
+        try {
+            task.puzzle = puzzle;
+            final Map<String, List<? extends Clue>> banks =
+                Collections.unmodifiableMap(puzzle.clues);
+            task.layout = Geometry.makeLayout(puzzle.geometryType,
+                                              puzzle::index, banks);
+            task.nanos = System.nanoTime() - start;
+            return null;
+        } catch (PluginException | RuntimeException ex) {
+            return new BatchResult(task.path, BatchResult.Status.ERROR, 0,
+                                   Duration.ofNanos(System.nanoTime() - start),
+                                   ex.toString());
+        }
+    }
+
+    /**
+     * Solve a puzzle on the calling thread.
+     *
+     * @param task the puzzle to be solved
+     *
+     * @return the result of solving the puzzle
+     *
+     * @throws IOException if an I/O error occurs in the cache
+     *
+     * @throws InterruptedException if the calling thread was
+     * interrupted
+     */
+    private BatchResult solve(Task task)
+        throws IOException,
+            InterruptedException {
+        final long start = System.nanoTime();
+        try {
+            return solve(task, start);
+        } catch (RuntimeException ex) {
+            return new BatchResult(task.path, BatchResult.Status.ERROR, 0,
+                                   Duration.ofNanos(task.nanos
+                                       + System.nanoTime() - start),
+                                   ex.toString());
+        }
+    }
+
+    /**
+     * Open a recorder for the schedule of a puzzle's solve, if one is
+     * required.
+     *
+     * @param task the puzzle to be solved
+     *
+     * @return the new recorder; or {@code null} if the solve is not to
+     * be recorded
+     *
+     * @throws IOException if the record could not be created
+     */
+    private SessionRecorder record(Task task) throws IOException {
+        if (sessions == null || engine != Engine.GRID) return null;
+        Path name = sessions.resolve(task.sequence + "-"
+            + task.path.getFileName() + ".session");
+        return new SessionRecorder(Files
+            .newOutputStream(name, StandardOpenOption.CREATE_NEW,
+                             StandardOpenOption.WRITE));
+    }
+
+    private BatchResult solve(Task task, long start)
+        throws IOException,
+            InterruptedException {
+        final List<long[]> solutions;
+        final boolean exceeded;
+        try (SessionRecorder recorder = record(task)) {
+            SolveBudget budget = SolveBudget.start().timeout(timeout)
+                .recorder(recorder).create();
+            switch (engine) {
+            case SAT:
+                SatEngine sat = new SatEngine(task.layout);
+                solutions = sat.solve(solutionLimit, budget);
+                exceeded = sat.isBudgetExceeded();
+                break;
+
+            default:
+                GridManager manager =
+                    new GridManager(solutionLimit, budget, frontier);
+                Grid grid =
+                    new Grid(algorithms.size(), manager, task.layout,
+                             heuristic, NullWidgetDisplayFactory.INSTANCE,
+                             budget);
+                grid.start();
+                new LineWorker(manager, algorithms).run();
+                manager.awaitCompletion();
+                solutions = manager.getSolutions();
+                exceeded = manager.isBudgetExceeded();
+                break;
+            }
+        }
+
+        final BatchResult.Status status;
+        final int count = solutions.size();
+        if (exceeded)
+            status = BatchResult.Status.TIMEOUT;
+        else if (count == 0)
+            status = BatchResult.Status.UNSOLVABLE;
+        else if (count == 1)
+            status = BatchResult.Status.UNIQUE;
+        else
+            status = BatchResult.Status.MULTIPLE;
+        if (status == BatchResult.Status.UNIQUE && cache != null)
+            cache.put(task.puzzle, solutions.get(0));
+        Duration latency =
+            Duration.ofNanos(task.nanos + System.nanoTime() - start);
+        return new BatchResult(task.path, status, count, latency, null);
+    }
+
+    /**
+     * Solve puzzles from the command line. Arguments are files and
+     * directories to search for puzzles, optionally preceded by:
+     *
+     * <dl>
+     *
+     * <dt><samp>-p <var>n</var></samp>
+     *
+     * <dd>the number of parser threads
+     *
+     * <dt><samp>-j <var>n</var></samp>
+     *
+     * <dd>the number of solver threads
+     *
+     * <dt><samp>-t <var>ms</var></samp>
+     *
+     * <dd>the time allowed for each puzzle in milliseconds
+     *
+     * <dt><samp>-n <var>n</var></samp>
+     *
+     * <dd>the solution limit
+     *
+     * <dt><samp>-a <var>config</var></samp>
+     *
+     * <dd>a line-solving algorithm to add
+     *
+     * <dt><samp>-h <var>config</var></samp>
+     *
+     * <dd>the line heuristic
+     *
+     * <dt><samp>-r <var>file</var></samp>
+     *
+     * <dd>the progress file to record results in and resume from
+     *
+     * <dt><samp>-c <var>file</var></samp>
+     *
+     * <dd>the solution cache
+     *
+     * <dt><samp>-e <var>engine</var></samp>
+     *
+     * <dd>the engine, <samp>grid</samp> or <samp>sat</samp>
+     *
+     * <dt><samp>-f <var>n</var></samp>
+     *
+     * <dd>the number of grids per puzzle at which to search depth-first
+     *
+     * <dt><samp>-s <var>dir</var></samp>
+     *
+     * <dd>the directory in which to record each solve's schedule
+     *
+     * </dl>
+     *
+     * @param args the command-line arguments
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public static void main(String[] args) throws Exception {
+        Builder builder = start();
+        Path progress = null;
+        Path cachePath = null;
+        List<Path> roots = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!roots.isEmpty() || !arg.startsWith("-")
+                || arg.length() != 2) {
+                roots.add(Paths.get(arg));
+                continue;
+            }
+            if (++i == args.length)
+                throw new IllegalArgumentException("missing value for "
+                    + arg);
+            String val = args[i];
+            switch (arg.charAt(1)) {
+            case 'p':
+                builder.parsers(Integer.parseInt(val));
+                break;
+
+            case 'j':
+                builder.solvers(Integer.parseInt(val));
+                break;
+
+            case 't':
+                builder.timeout(Duration.ofMillis(Long.parseLong(val)));
+                break;
+
+            case 'n':
+                builder.solutionLimit(Integer.parseInt(val));
+                break;
+
+            case 'a':
+                builder.algorithm(val);
+                break;
+
+            case 'h':
+                builder.heuristic(val);
+                break;
+
+            case 'r':
+                progress = Paths.get(val);
+                break;
+
+            case 'c':
+                cachePath = Paths.get(val);
+                break;
+
+            case 'f':
+                builder.frontier(FrontierPolicy.start()
+                    .grids(Integer.parseInt(val)).create());
+                break;
+
+            case 'e':
+                builder.engine(Engine.valueOf(val.toUpperCase(Locale.ROOT)));
+                break;
+
+            case 's':
+                builder.sessions(Paths.get(val));
+                break;
+
+            default:
+                throw new IllegalArgumentException("unknown switch: " + arg);
+            }
+        }
+
+        try (SolutionCache cache = cachePath == null ? null :
+            SolutionCache.open(cachePath, 1024)) {
+            BatchStats stats =
+                builder.cache(cache).create().run(roots, progress);
+            System.out.println(stats);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.batch;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import uk.ac.lancs.nonogram.solver.LatencyHistogram;
+
+/**
+ * Summarizes a completed batch run.
+ *
+ * @author simpsons
+ */
+public final class BatchStats {
+    /**
+     * @resume The number of puzzles with each outcome, excluding those
+     * skipped because they were recorded by an earlier run
+     */
+    public final Map<BatchResult.Status, Long> counts;
+
+    /**
+     * @resume The number of puzzles skipped because an earlier run had
+     * already recorded them
+     */
+    public final long skipped;
+
+    /**
+     * @resume The wall-clock time of the run
+     */
+    public final Duration elapsed;
+
+    /**
+     * @resume The median time to read and solve a puzzle
+     */
+    public final Duration p50;
+
+    /**
+     * @resume The 99th-percentile time to read and solve a puzzle
+     */
+    public final Duration p99;
+
+    BatchStats(Map<BatchResult.Status, Long> counts, long skipped,
+               Duration elapsed, LatencyHistogram.Snapshot latencies) {
+        Map<BatchResult.Status, Long> copy =
+            new EnumMap<>(BatchResult.Status.class);
+        for (BatchResult.Status s : BatchResult.Status.values())
+            copy.put(s, counts.getOrDefault(s, 0L));
+        this.counts = Collections.unmodifiableMap(copy);
+        this.skipped = skipped;
+        this.elapsed = elapsed;
+        this.p50 = Duration.ofNanos(latencies.getMedianNanos());
+        this.p99 = Duration.ofNanos(latencies.getP99Nanos());
+    }
+
+    /**
+     * Get the number of puzzles processed by this run.
+     *
+     * @return the total number of puzzles processed, excluding those
+     * skipped
+     */
+    public long total() {
+        return counts.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Get the rate at which puzzles were processed.
+     *
+     * @return the number of puzzles processed per second
+     */
+    public double throughput() {
+        long nanos = elapsed.toNanos();
+        if (nanos <= 0) return 0.0;
+        return total() * 1e9 / nanos;
+    }
+
+    /**
+     * Get a string representation of these statistics.
+     *
+     * @return a one-line summary
+     */
+    @Override
+    public String toString() {
+        return String.format("%d puzzles (%d skipped) in %.3fs: "
+            + "%.1f/s, p50 %.3fms, p99 %.3fms, %s", total(), skipped,
+                             elapsed.toNanos() / 1e9, throughput(),
+                             p50.toNanos() / 1e6, p99.toNanos() / 1e6,
+                             counts);
+    }
+}
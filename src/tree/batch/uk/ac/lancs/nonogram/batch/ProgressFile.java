@@ -0,0 +1,126 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.batch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Records the results of a batch run, one per line, so that an
+ * interrupted run can be resumed. Each line is flushed as it is
+ * written, so at most a partial final line is lost if the process is
+ * killed, and such a line is ignored when the file is read back.
+ *
+ * @author simpsons
+ */
+final class ProgressFile implements Closeable {
+    private final BufferedWriter out;
+
+    private final Set<String> done;
+
+    /**
+     * Open a progress file, reading any results it already holds.
+     *
+     * @param path the location of the file
+     *
+     * @throws IOException if the file could not be read or opened for
+     * appending
+     */
+    ProgressFile(Path path) throws IOException {
+        this.done = new HashSet<>();
+        boolean brokenTail = false;
+        try (BufferedReader in =
+            Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                brokenTail = fields.length < 4;
+                if (brokenTail) continue;
+                done.add(fields[3]);
+            }
+        } catch (NoSuchFileException ex) {
+            /* We're starting afresh. */
+        }
+        this.out = Files
+            .newBufferedWriter(path, StandardCharsets.UTF_8,
+                               StandardOpenOption.CREATE,
+                               StandardOpenOption.APPEND);
+
+        /* Don't let new results be glued onto a partial line. */
+        if (brokenTail) {
+            out.newLine();
+            out.flush();
+        }
+    }
+
+    /**
+     * Determine whether a puzzle was recorded by an earlier run.
+     *
+     * @param path the puzzle's location
+     *
+     * @return {@code true} if the puzzle has already been recorded
+     */
+    boolean isDone(Path path) {
+        return done.contains(path.toString());
+    }
+
+    /**
+     * Record a result.
+     *
+     * @param result the result to record
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void record(BatchResult result) throws IOException {
+        out.write(result.toString());
+        out.newLine();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
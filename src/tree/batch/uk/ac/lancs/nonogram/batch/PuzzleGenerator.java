@@ -0,0 +1,586 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.batch;
+
+import java.awt.Color;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import uk.ac.lancs.nonogram.Bar;
+import uk.ac.lancs.nonogram.Clue;
+import uk.ac.lancs.nonogram.Hue;
+import uk.ac.lancs.nonogram.Puzzle;
+import uk.ac.lancs.nonogram.Shape;
+import uk.ac.lancs.nonogram.Tile;
+import uk.ac.lancs.nonogram.clue.ArrayCellSequence;
+import uk.ac.lancs.nonogram.clue.Colors;
+import uk.ac.lancs.nonogram.geom.Geometry;
+import uk.ac.lancs.nonogram.geom.NullWidgetDisplayFactory;
+import uk.ac.lancs.nonogram.layout.Cell;
+import uk.ac.lancs.nonogram.layout.Layout;
+import uk.ac.lancs.nonogram.layout.Line;
+import uk.ac.lancs.nonogram.line.LineAlgorithm;
+import uk.ac.lancs.nonogram.line.LineChallenge;
+import uk.ac.lancs.nonogram.line.LineSolver;
+import uk.ac.lancs.nonogram.line.heuristic.LineHeuristic;
+import uk.ac.lancs.nonogram.plugin.PluginException;
+import uk.ac.lancs.nonogram.solver.Grid;
+import uk.ac.lancs.nonogram.solver.GridManager;
+import uk.ac.lancs.nonogram.solver.LineWorker;
+import uk.ac.lancs.nonogram.solver.SimpleCache;
+import uk.ac.lancs.nonogram.solver.SolveBudget;
+
+/**
+ * Generates random rectangular puzzles, for load testing and
+ * benchmarking. Each candidate puzzle's clues are derived from a random
+ * image, in which each cell is filled with a given probability, with a
+ * colour chosen uniformly. Candidates may then be filtered, keeping
+ * only those that are uniquely solvable, or that can be solved by line
+ * solving alone.
+ *
+ * <p>
+ * Candidates are numbered, and each is generated from its own random
+ * sequence, seeded from its number and the generator's seed. A
+ * candidate therefore does not depend on the order in which candidates
+ * are generated, so they can be generated in parallel, e.g., with
+ * {@code stream().parallel()}, and the same puzzles are obtained
+ * however many threads are used.
+ *
+ * @author simpsons
+ */
+public final class PuzzleGenerator {
+    /**
+     * Selects the candidates that are kept.
+     */
+    public enum Filter {
+        /**
+         * Every candidate is kept.
+         */
+        NONE,
+
+        /**
+         * Only candidates with exactly one solution are kept.
+         * Candidates whose search exceeds the time allowed are
+         * discarded.
+         */
+        UNIQUE,
+
+        /**
+         * Only candidates that line solving alone can solve completely
+         * are kept. Such puzzles are also unique.
+         */
+        LINE_SOLVABLE;
+    }
+
+    private static final String GEOMETRY = "rect";
+
+    private static final String ROWS = "rows";
+
+    private static final String COLUMNS = "cols";
+
+    private static final Set<Set<String>> ALL_CONTEXTS =
+        Set.of(Set.of("partial"), Set.of("complete"));
+
+    private final int width;
+
+    private final int height;
+
+    private final int colors;
+
+    private final double density;
+
+    private final long seed;
+
+    private final Filter filter;
+
+    private final Duration timeout;
+
+    private final List<LineAlgorithm> algorithms;
+
+    private final LineHeuristic heuristic;
+
+    private final LongAdder attempts = new LongAdder();
+
+    private final LongAdder accepted = new LongAdder();
+
+    private PuzzleGenerator(Builder builder, List<LineAlgorithm> algorithms,
+                            LineHeuristic heuristic) {
+        this.width = builder.width;
+        this.height = builder.height;
+        this.colors = builder.colors;
+        this.density = builder.density;
+        this.seed = builder.seed;
+        this.filter = builder.filter;
+        this.timeout = builder.timeout;
+        this.algorithms = algorithms;
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * Prepare to create a generator.
+     *
+     * @return a default configuration
+     *
+     * @constructor
+     */
+    public static Builder start() {
+        return new Builder();
+    }
+
+    /**
+     * @resume A mutable configuration for a puzzle generator
+     *
+     * @author simpsons
+     */
+    public static final class Builder {
+        private Builder() {}
+
+        private int width = 20;
+
+        private int height = 20;
+
+        private int colors = 2;
+
+        private double density = 0.6;
+
+        private long seed = 1;
+
+        private Filter filter = Filter.NONE;
+
+        private Duration timeout = Duration.ofSeconds(10);
+
+        private final List<String> algorithms = new ArrayList<>();
+
+        private String heuristic = "fast";
+
+        /**
+         * Set the size of each puzzle. The default is 20 by 20.
+         *
+         * @param width the number of columns
+         *
+         * @param height the number of rows
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if either dimension is not
+         * positive
+         */
+        public Builder size(int width, int height) {
+            if (width < 1 || height < 1)
+                throw new IllegalArgumentException("non-positive size: "
+                    + width + "x" + height);
+            this.width = width;
+            this.height = height;
+            return this;
+        }
+
+        /**
+         * Set the number of colours. The default is 2.
+         *
+         * @param amount the number of colours, including the background
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the amount is less than
+         * 2, or more than a cell can represent
+         */
+        public Builder colors(int amount) {
+            if (amount < 2 || amount > Long.SIZE)
+                throw new IllegalArgumentException("bad colours: " + amount);
+            this.colors = amount;
+            return this;
+        }
+
+        /**
+         * Set the proportion of cells not in the background. The
+         * default is 0.6.
+         *
+         * @param density the probability that a cell is filled
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the density is not
+         * between 0 and 1
+         */
+        public Builder density(double density) {
+            if (!(density >= 0.0 && density <= 1.0))
+                throw new IllegalArgumentException("bad density: "
+                    + density);
+            this.density = density;
+            return this;
+        }
+
+        /**
+         * Set the seed from which all candidates are derived. The
+         * default is 1.
+         *
+         * @param seed the seed
+         *
+         * @return this builder
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Set the candidates to keep. The default is
+         * {@link Filter#NONE}.
+         *
+         * @param filter the filter
+         *
+         * @return this builder
+         *
+         * @throws NullPointerException if the filter is {@code null}
+         */
+        public Builder filter(Filter filter) {
+            this.filter = Objects.requireNonNull(filter, "filter");
+            return this;
+        }
+
+        /**
+         * Set the time allowed for checking each candidate's
+         * uniqueness. The default is 10 seconds.
+         *
+         * @param timeout the time allowed; or {@code null} for no limit
+         *
+         * @return this builder
+         */
+        public Builder timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Add a line-solving algorithm for filtering. If none is
+         * added, the <samp>fast</samp> algorithm is used.
+         *
+         * @param config the plug-in configuration of the algorithm
+         *
+         * @return this builder
+         *
+         * @see LineAlgorithm#findLineAlgorithm(String)
+         */
+        public Builder algorithm(String config) {
+            this.algorithms.add(config);
+            return this;
+        }
+
+        /**
+         * Set the line heuristic for filtering. The default is
+         * <samp>fast</samp>.
+         *
+         * @param config the plug-in configuration of the heuristic
+         *
+         * @return this builder
+         *
+         * @see LineHeuristic#findLineHeuristic(String)
+         */
+        public Builder heuristic(String config) {
+            this.heuristic = config;
+            return this;
+        }
+
+        /**
+         * Create a generator from this configuration.
+         *
+         * @return the new generator
+         *
+         * @throws PluginException if an algorithm or heuristic could
+         * not be loaded
+         */
+        public PuzzleGenerator create() throws PluginException {
+            List<LineAlgorithm> algos = new ArrayList<>();
+            for (String config : algorithms.isEmpty() ?
+                Collections.singletonList("fast") : algorithms)
+                algos.add(LineAlgorithm.findLineAlgorithm(config));
+            LineHeuristic heur = LineHeuristic.findLineHeuristic(heuristic);
+            return new PuzzleGenerator(this, Collections
+                .unmodifiableList(algos), heur);
+        }
+    }
+
+    /**
+     * Scramble a number, so that consecutive inputs yield unrelated
+     * outputs.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Generate a random image.
+     * 
+     * @param rng the source of randomness
+     * 
+     * @return the colour of each cell, row by row, with 0 as the
+     * background
+     */
+    private int[] image(SplittableRandom rng) {
+        final int[] result = new int[width * height];
+        for (int i = 0; i < result.length; i++)
+            if (rng.nextDouble() < density)
+                result[i] = 1 + rng.nextInt(colors - 1);
+        return result;
+    }
+
+    /**
+     * Derive a clue from a line of an image.
+     * 
+     * @param image the colour of each cell
+     * 
+     * @param start the index of the line's first cell
+     * 
+     * @param stride the distance between the line's cells
+     * 
+     * @param length the number of cells in the line
+     * 
+     * @param hues the hue of each colour
+     * 
+     * @return the clue for the line
+     */
+    private static Clue clue(int[] image, int start, int stride, int length,
+                             Hue[] hues) {
+        List<Bar> bars = new ArrayList<>();
+        int color = 0, run = 0;
+        for (int i = 0; i < length; i++) {
+            final int c = image[start + i * stride];
+            if (c == color) {
+                run++;
+                continue;
+            }
+            if (color != 0) bars.add(Bar.of(run, hues[color]));
+            color = c;
+            run = 1;
+        }
+        if (color != 0) bars.add(Bar.of(run, hues[color]));
+        return Clue.of(bars);
+    }
+
+    /**
+     * Create a puzzle from an image.
+     * 
+     * @param image the colour of each cell, row by row, with 0 as the
+     * background
+     * 
+     * @return a puzzle whose solutions include the image
+     */
+    private Puzzle puzzle(int[] image) {
+        Puzzle.Builder builder = Puzzle.start().geometry(GEOMETRY);
+
+        /* Define a palette. */
+        final Hue[] hues = new Hue[colors];
+        hues[0] = Hue.BACKGROUND;
+        builder.tile(Hue.BACKGROUND, Set.of(Set.of("complete")),
+                     Tile.COMPLETE_MONOCHROME_EMPTY);
+        builder.tile(Hue.BACKGROUND, Set.of(Set.of("partial")),
+                     Tile.WORKING_MONOCHROME_EMPTY);
+        builder.tile(Hue.UNKNOWN, Set.of(Set.of("partial")),
+                     Tile.WORKING_MONOCHROME_UNKNOWN);
+        for (int c = 1; c < colors; c++) {
+            hues[c] = Hue.distinct();
+            final Tile tile = colors == 2 ? Tile.COMPLETE_MONOCHROME_FILLED :
+                Tile.of(Color.getHSBColor((c - 1f) / (colors - 1), 0.8f,
+                                          0.8f),
+                        Color.WHITE, Shape.SOLID);
+            builder.tile(hues[c], ALL_CONTEXTS, tile);
+        }
+
+        List<Clue> rows = new ArrayList<>(height);
+        for (int y = 0; y < height; y++)
+            rows.add(clue(image, y * width, 1, width, hues));
+        List<Clue> cols = new ArrayList<>(width);
+        for (int x = 0; x < width; x++)
+            cols.add(clue(image, x, width, height, hues));
+        builder.clues(ROWS, rows);
+        builder.clues(COLUMNS, cols);
+        return builder.create();
+    }
+
+    /**
+     * Generate a numbered candidate, and filter it.
+     * 
+     * @param index the candidate's number
+     * 
+     * @return the candidate puzzle; or {@code null} if it was filtered
+     * out
+     */
+    public Puzzle generate(long index) {
+        final SplittableRandom rng =
+            new SplittableRandom(mix(seed + index * 0x9e3779b97f4a7c15L));
+        final Puzzle candidate = puzzle(image(rng));
+        attempts.increment();
+        if (!accept(candidate)) return null;
+        accepted.increment();
+        return candidate;
+    }
+
+    /**
+     * Get an unlimited sequence of puzzles that pass the filter. The
+     * sequential stream always yields the same puzzles in the same
+     * order. A parallel stream yields the same puzzles, but not in
+     * order, unless limited after filtering.
+     * 
+     * @return a stream of puzzles
+     */
+    public Stream<Puzzle> stream() {
+        return LongStream.range(0, Long.MAX_VALUE).mapToObj(this::generate)
+            .filter(Objects::nonNull);
+    }
+
+    /**
+     * Get the number of candidates generated so far.
+     * 
+     * @return the number of candidates
+     */
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    /**
+     * Get the number of candidates that have passed the filter so far.
+     * 
+     * @return the number of puzzles accepted
+     */
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    private boolean accept(Puzzle candidate) {
+        if (filter == Filter.NONE) return true;
+        final Map<String, List<? extends Clue>> banks =
+            Collections.unmodifiableMap(candidate.clues);
+        final Layout layout;
+        try {
+            layout = Geometry.makeLayout(candidate.geometryType,
+                                         candidate::index, banks);
+        } catch (PluginException ex) {
+            throw new IllegalStateException("no rect geometry", ex);
+        }
+        switch (filter) {
+        case LINE_SOLVABLE:
+            return isLineSolvable(layout);
+
+        default:
+            return isUnique(layout);
+        }
+    }
+
+    /**
+     * Determine whether a puzzle has exactly one solution.
+     * 
+     * @param layout the puzzle's layout
+     * 
+     * @return {@code true} if the puzzle has exactly one solution;
+     * {@code false} if it has none, several, or the time allowed was
+     * exceeded
+     */
+    private boolean isUnique(Layout layout) {
+        final SolveBudget budget =
+            SolveBudget.start().timeout(timeout).create();
+        final GridManager manager = new GridManager(2, budget);
+        final Grid grid =
+            new Grid(algorithms.size(), manager, layout, heuristic,
+                     NullWidgetDisplayFactory.INSTANCE, budget);
+        grid.start();
+        new LineWorker(manager, algorithms).run();
+        try {
+            manager.awaitCompletion();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !manager.isBudgetExceeded()
+            && manager.getSolutions().size() == 1;
+    }
+
+    /**
+     * Determine whether line solving alone determines every cell of a
+     * puzzle. Each line is solved with each algorithm in turn, and is
+     * solved again whenever an intersecting line changes one of its
+     * cells.
+     * 
+     * @param layout the puzzle's layout
+     * 
+     * @return {@code true} if every cell was determined
+     */
+    private boolean isLineSolvable(Layout layout) {
+        final int colors = layout.colors();
+        final long[] cells = new long[layout.cells().size()];
+        Arrays.fill(cells, Colors.all(colors));
+        final List<Line> lines = layout.lines();
+        final BitSet pending = new BitSet();
+        pending.set(0, lines.size());
+        for (int next = pending.nextSetBit(0); next >= 0;
+             next = pending.nextSetBit(0)) {
+            pending.clear(next);
+            final Line line = lines.get(next);
+            final List<Cell> lineCells = line.cells();
+            final long[] state = new long[lineCells.size()];
+            for (int i = 0; i < state.length; i++)
+                state[i] = cells[lineCells.get(i).index()];
+            for (LineAlgorithm algo : algorithms) {
+                LineChallenge challenge =
+                    new LineChallenge(colors, line.clue(),
+                                      new ArrayCellSequence(state),
+                                      new SimpleCache());
+                if (algo.prepare(challenge).process()
+                    == LineSolver.Result.INCONSISTENT) return false;
+            }
+            for (int i = 0; i < state.length; i++) {
+                final Cell cell = lineCells.get(i);
+                if (state[i] == cells[cell.index()]) continue;
+                cells[cell.index()] = state[i];
+                pending.or(cell.intersects());
+            }
+        }
+        for (long cell : cells)
+            if (!Colors.oneLeft(cell)) return false;
+        return true;
+    }
+}
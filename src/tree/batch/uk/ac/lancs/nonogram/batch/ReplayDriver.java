@@ -0,0 +1,179 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.batch;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import uk.ac.lancs.nonogram.Clue;
+import uk.ac.lancs.nonogram.Puzzle;
+import uk.ac.lancs.nonogram.geom.Geometry;
+import uk.ac.lancs.nonogram.geom.NullWidgetDisplayFactory;
+import uk.ac.lancs.nonogram.layout.Layout;
+import uk.ac.lancs.nonogram.line.LineAlgorithm;
+import uk.ac.lancs.nonogram.line.heuristic.LineHeuristic;
+import uk.ac.lancs.nonogram.solver.SessionRecorder;
+import uk.ac.lancs.nonogram.solver.SessionReplay;
+
+/**
+ * Re-executes a recorded solve on a single thread, for profiling. The
+ * schedule is recorded by a {@link SessionRecorder}, for example with
+ * {@link BatchSolver.Builder#sessions(Path)}, and replayed by
+ * {@link SessionReplay}, so that changes to line algorithms can be
+ * compared on the search path of a particular solve.
+ *
+ * @author simpsons
+ */
+public final class ReplayDriver {
+    private ReplayDriver() {}
+
+    /**
+     * Replay a recorded solve from the command line. The arguments are
+     * the puzzle file and the record, optionally preceded by:
+     *
+     * <dl>
+     *
+     * <dt><samp>-a <var>config</var></samp>
+     *
+     * <dd>a line-solving algorithm to add, there being as many as when
+     * the record was made; the default is <samp>fast</samp>
+     *
+     * <dt><samp>-h <var>config</var></samp>
+     *
+     * <dd>the line heuristic used when the record was made; the default
+     * is <samp>fast</samp>
+     *
+     * <dt><samp>-n <var>n</var></samp>
+     *
+     * <dd>the number of times to replay, so that later replays are not
+     * distorted by warm-up
+     *
+     * </dl>
+     *
+     * <p>
+     * A line of statistics is printed for each replay.
+     *
+     * @param args the command-line arguments
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> algoConfigs = new ArrayList<>();
+        String heurConfig = "fast";
+        int repeats = 1;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!files.isEmpty() || !arg.startsWith("-")
+                || arg.length() != 2) {
+                files.add(Paths.get(arg));
+                continue;
+            }
+            if (++i == args.length)
+                throw new IllegalArgumentException("missing value for "
+                    + arg);
+            String val = args[i];
+            switch (arg.charAt(1)) {
+            case 'a':
+                algoConfigs.add(val);
+                break;
+
+            case 'h':
+                heurConfig = val;
+                break;
+
+            case 'n':
+                repeats = Integer.parseInt(val);
+                break;
+
+            default:
+                throw new IllegalArgumentException("unknown switch: " + arg);
+            }
+        }
+        if (files.size() != 2)
+            throw new IllegalArgumentException("usage: [-a algo]..."
+                + " [-h heur] [-n repeats] puzzle record");
+
+        List<LineAlgorithm> algos = new ArrayList<>();
+        for (String config : algoConfigs.isEmpty() ?
+            Collections.singletonList("fast") : algoConfigs)
+            algos.add(LineAlgorithm.findLineAlgorithm(config));
+        LineHeuristic heur = LineHeuristic.findLineHeuristic(heurConfig);
+
+        final Puzzle puzzle;
+        try (Reader in = Files.newBufferedReader(files.get(0),
+                                                 StandardCharsets.UTF_8)) {
+            puzzle = BatchSolver.formatByName(files.get(0))
+                .read(in, Locale.getDefault());
+        }
+        Layout layout = Geometry
+            .makeLayout(puzzle.geometryType, puzzle::index, Collections
+                .<String, List<? extends Clue>>unmodifiableMap(puzzle.clues));
+
+        final SessionReplay replay;
+        try (InputStream in = Files.newInputStream(files.get(1))) {
+            replay = SessionReplay.read(in);
+        }
+        if (replay.isTruncated())
+            System.err.println("record is truncated");
+
+        for (int run = 0; run < repeats; run++) {
+            SessionReplay.Report report =
+                replay.replay(layout, heur, NullWidgetDisplayFactory.INSTANCE,
+                              algos);
+            StringBuilder line = new StringBuilder();
+            line.append(String.format("jobs %d; elapsed %.3f ms; solving",
+                                      report.getLineJobs(),
+                                      report.getElapsed().toNanos() / 1e6));
+            for (int i = 0; i < algos.size(); i++)
+                line.append(String
+                    .format(" %.3f", report.getSolverTime(i).toNanos() / 1e6));
+            line.append(String.format(" ms; mismatches %d; divergences %d;"
+                + " skipped %d; solutions %d", report.getMismatches(),
+                                      report.getDivergences(),
+                                      report.getSkipped(),
+                                      report.getSolutions().size()));
+            System.out.println(line);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.lancs.nonogram.line.LineAlgorithm;
+import uk.ac.lancs.nonogram.line.LineChallenge;
+import uk.ac.lancs.nonogram.line.LineSolver;
+import uk.ac.lancs.nonogram.line.fast.FastLineAlgorithm;
+import uk.ac.lancs.nonogram.plugin.PluginException;
+import uk.ac.lancs.nonogram.solver.SimpleCache;
+
+/**
+ * Measures the throughput of registered line-solving algorithms over
+ * lines from {@link LineInput}. Other algorithms can be measured by
+ * overriding the parameter, e.g., <samp>-p algorithm=fast,foo</samp>.
+ * Run with <samp>-prof gc</samp> to report the allocation rate too.
+ *
+ * @author simpsons
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineAlgorithmBenchmark {
+    /**
+     * The configuration of each registered line algorithm to be
+     * measured, as accepted by
+     * {@link LineAlgorithm#findLineAlgorithm(String)}
+     */
+    @Param({ FastLineAlgorithm.ALGORITHM_TYPE })
+    public String algorithm;
+
+    private LineAlgorithm algo;
+
+    /**
+     * Load the algorithm.
+     * 
+     * @throws PluginException if the algorithm could not be loaded
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws PluginException {
+        algo = LineAlgorithm.findLineAlgorithm(algorithm);
+    }
+
+    /**
+     * Solve a line with the configured algorithm.
+     * 
+     * @param input the source of lines
+     * 
+     * @return the solver's result
+     */
+    @Benchmark
+    public LineSolver.Result process(LineInput input) {
+        final LineInput.Sample sample = input.next();
+        return algo.prepare(challenge(input, sample)).process();
+    }
+
+    private static LineChallenge challenge(LineInput input,
+                                           LineInput.Sample sample) {
+        return new LineChallenge(input.colors, sample.clue, sample.copy(),
+                                 new SimpleCache());
+    }
+}
@@ -0,0 +1,236 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.bench;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import uk.ac.lancs.nonogram.clue.ArrayCellSequence;
+import uk.ac.lancs.nonogram.clue.Block;
+import uk.ac.lancs.nonogram.clue.CellSequence;
+import uk.ac.lancs.nonogram.clue.Colors;
+import uk.ac.lancs.nonogram.line.LineCandidate;
+
+/**
+ * Supplies seeded random lines to benchmarks. Each line is generated
+ * by laying out blocks of random colours and sizes in a random
+ * solution, from which its clue is derived by
+ * {@link LineCandidate#createClue(CellSequence)}. Every cell of the
+ * line starts with all colours possible.
+ *
+ * <p>
+ * Several lines are generated, and benchmarks cycle through them, so
+ * that no single line's shape dominates.
+ *
+ * @author simpsons
+ */
+@State(Scope.Thread)
+public class LineInput {
+    /**
+     * The number of lines generated, a power of two
+     */
+    private static final int SAMPLES = 64;
+
+    /**
+     * The number of cells in each line
+     */
+    @Param({ "20", "50", "200" })
+    public int length;
+
+    /**
+     * The number of blocks in each line, reduced if they do not fit
+     */
+    @Param({ "3", "8" })
+    public int blocks;
+
+    /**
+     * The number of colours, including the background
+     */
+    @Param({ "2", "4" })
+    public int colors;
+
+    /**
+     * The proportion of cells not in the background, reduced if the
+     * blocks and the gaps between them do not fit
+     */
+    @Param({ "0.5", "0.8" })
+    public double fill;
+
+    /**
+     * The seed for generating lines
+     */
+    @Param({ "1" })
+    public long seed;
+
+    /**
+     * @resume A line to be solved
+     */
+    public static final class Sample {
+        /**
+         * The line's clue
+         */
+        public final List<Block> clue;
+
+        /**
+         * The initial state of each cell, not to be modified
+         */
+        public final long[] initial;
+
+        /**
+         * The initial state of the line, not to be modified
+         */
+        public final CellSequence cells;
+
+        /**
+         * Space for the positions of the clue's blocks
+         */
+        public final int[] positions;
+
+        Sample(List<Block> clue, long[] initial) {
+            this.clue = clue;
+            this.initial = initial;
+            this.cells = new ArrayCellSequence(initial);
+            this.positions = new int[clue.size() + 1];
+        }
+
+        /**
+         * Get a fresh copy of the initial state, for a solver to
+         * modify.
+         * 
+         * @return the initial state of the line
+         */
+        public CellSequence copy() {
+            return new ArrayCellSequence(initial.clone());
+        }
+    }
+
+    private final Sample[] samples = new Sample[SAMPLES];
+
+    private int next;
+
+    /**
+     * Generate the lines.
+     */
+    @Setup(Level.Trial)
+    public void generate() {
+        final Random rng = new Random(seed);
+        for (int i = 0; i < SAMPLES; i++) {
+            final long[] solution = solve(rng);
+            final List<Block> clue =
+                LineCandidate.createClue(new ArrayCellSequence(solution));
+            final long[] initial = new long[length];
+            Arrays.fill(initial, Colors.all(colors));
+            samples[i] = new Sample(clue, initial);
+        }
+        next = 0;
+    }
+
+    /**
+     * Create a random solution with the configured number of blocks and
+     * filled cells. Adjacent blocks are always separated, so the clue
+     * has as many blocks as the solution.
+     * 
+     * @param rng the source of randomness
+     * 
+     * @return the colour set of each cell, each with exactly one colour
+     */
+    private long[] solve(Random rng) {
+        final int count = Math.max(1, Math.min(blocks, (length + 1) / 2));
+        final int filled =
+            Math.max(count, Math.min((int) Math.round(fill * length),
+                                     length - (count - 1)));
+
+        /* Split the filled cells into blocks of at least one cell. */
+        final int[] sizes = split(rng, filled, count, 1);
+
+        /* Split the background cells into gaps before, between and
+         * after the blocks. Only the inner gaps must be non-empty. */
+        final int[] gaps = split(rng, length - filled - (count - 1),
+                                 count + 1, 0);
+        for (int i = 1; i < count; i++)
+            gaps[i]++;
+
+        final long[] result = new long[length];
+        int pos = 0;
+        for (int b = 0; b < count; b++) {
+            for (int i = 0; i < gaps[b]; i++)
+                result[pos++] = Colors.of(0);
+            final long color = Colors.of(1 + rng.nextInt(colors - 1));
+            for (int i = 0; i < sizes[b]; i++)
+                result[pos++] = color;
+        }
+        while (pos < length)
+            result[pos++] = Colors.of(0);
+        return result;
+    }
+
+    /**
+     * Split a total randomly into parts.
+     * 
+     * @param rng the source of randomness
+     * 
+     * @param total the total to be split
+     * 
+     * @param parts the number of parts
+     * 
+     * @param min the minimum size of each part
+     * 
+     * @return the size of each part
+     */
+    private static int[] split(Random rng, int total, int parts, int min) {
+        final int[] result = new int[parts];
+        Arrays.fill(result, min);
+        for (int i = total - min * parts; i > 0; i--)
+            result[rng.nextInt(parts)]++;
+        return result;
+    }
+
+    /**
+     * Get the next line to solve.
+     * 
+     * @return the next line
+     */
+    public Sample next() {
+        final Sample result = samples[next];
+        next = (next + 1) & (SAMPLES - 1);
+        return result;
+    }
+}
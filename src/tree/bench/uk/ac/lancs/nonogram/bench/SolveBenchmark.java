@@ -0,0 +1,324 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.bench;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import uk.ac.lancs.nonogram.Clue;
+import uk.ac.lancs.nonogram.Puzzle;
+import uk.ac.lancs.nonogram.batch.PuzzleGenerator;
+import uk.ac.lancs.nonogram.geom.NullWidgetDisplayFactory;
+import uk.ac.lancs.nonogram.geom.rect.RectangularGeometry;
+import uk.ac.lancs.nonogram.layout.Layout;
+import uk.ac.lancs.nonogram.line.LineAlgorithm;
+import uk.ac.lancs.nonogram.line.fast.FastLineAlgorithm;
+import uk.ac.lancs.nonogram.line.fast.FastLineHeuristic;
+import uk.ac.lancs.nonogram.solver.Grid;
+import uk.ac.lancs.nonogram.solver.GridManager;
+import uk.ac.lancs.nonogram.solver.LineWorker;
+import uk.ac.lancs.nonogram.solver.SolveBudget;
+
+/**
+ * Measures whole solves over corpora of random puzzles from a
+ * {@link PuzzleGenerator}. Each puzzle is solved in turn, from building
+ * its layout to finding up to two solutions, with a number of
+ * {@link LineWorker}s working on its {@link Grid}. Every corpus is
+ * solved at each number of workers, and the report gives the puzzles
+ * solved per second, the median, 99th-percentile and worst latencies,
+ * and the parallel efficiency, i.e., the throughput per worker,
+ * relative to that with the first number of workers.
+ *
+ * @author simpsons
+ */
+public final class SolveBenchmark {
+    private static final List<LineAlgorithm> ALGORITHMS =
+        List.of(FastLineAlgorithm.INSTANCE);
+
+    private final ExecutorService pool;
+
+    private final Duration timeout;
+
+    private SolveBenchmark(int maxThreads, Duration timeout) {
+        this.pool = Executors.newFixedThreadPool(maxThreads, r -> {
+            Thread t = new Thread(r, "bench-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        this.timeout = timeout;
+    }
+
+    /**
+     * Solve a puzzle.
+     * 
+     * @param puzzle the puzzle to solve
+     * 
+     * @param threads the number of workers
+     * 
+     * @return the time taken in nanoseconds; or {@code -1} if the
+     * budget was exceeded
+     */
+    private long solve(Puzzle puzzle, int threads)
+        throws InterruptedException,
+            ExecutionException {
+        final long start = System.nanoTime();
+        final Map<String, List<? extends Clue>> banks =
+            Collections.unmodifiableMap(puzzle.clues);
+        final Layout layout = RectangularGeometry.INSTANCE
+            .createLayout(puzzle.geometryType, puzzle::index, banks);
+        final SolveBudget budget =
+            SolveBudget.start().timeout(timeout).create();
+        final GridManager manager = new GridManager(2, budget);
+        final Grid grid =
+            new Grid(ALGORITHMS.size(), manager, layout,
+                     FastLineHeuristic.INSTANCE,
+                     NullWidgetDisplayFactory.INSTANCE, budget);
+        grid.start();
+        List<Future<?>> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++)
+            workers.add(pool.submit(new LineWorker(manager, ALGORITHMS)));
+        manager.awaitCompletion();
+        for (Future<?> worker : workers)
+            worker.get();
+        final long elapsed = System.nanoTime() - start;
+        return manager.isBudgetExceeded() ? -1 : elapsed;
+    }
+
+    /**
+     * Holds the measurements of one corpus at one number of workers.
+     */
+    private static final class Run {
+        final long[] latencies;
+
+        final int timeouts;
+
+        final long elapsed;
+
+        Run(long[] latencies, int timeouts, long elapsed) {
+            this.latencies = latencies;
+            Arrays.sort(this.latencies);
+            this.timeouts = timeouts;
+            this.elapsed = elapsed;
+        }
+
+        double throughput() {
+            return latencies.length * 1e9 / elapsed;
+        }
+
+        double percentile(double fraction) {
+            if (latencies.length == 0) return Double.NaN;
+            int rank = (int) Math.ceil(fraction * latencies.length);
+            return latencies[Math.max(rank, 1) - 1] / 1e6;
+        }
+    }
+
+    private Run measure(List<Puzzle> corpus, int threads)
+        throws InterruptedException,
+            ExecutionException {
+        long[] latencies = new long[corpus.size()];
+        int solved = 0, timeouts = 0;
+        final long start = System.nanoTime();
+        for (Puzzle puzzle : corpus) {
+            final long latency = solve(puzzle, threads);
+            if (latency < 0)
+                timeouts++;
+            else
+                latencies[solved++] = latency;
+        }
+        final long elapsed = System.nanoTime() - start;
+        return new Run(Arrays.copyOf(latencies, solved), timeouts, elapsed);
+    }
+
+    private static int[] parseInts(String text) {
+        return Arrays.stream(text.split(",")).mapToInt(Integer::parseInt)
+            .toArray();
+    }
+
+    private static double[] parseDoubles(String text) {
+        return Arrays.stream(text.split(","))
+            .mapToDouble(Double::parseDouble).toArray();
+    }
+
+    /**
+     * Run the benchmark from the command line, and report on standard
+     * output. Arguments are:
+     *
+     * <dl>
+     *
+     * <dt><samp>-s <var>n</var>,...</samp>
+     *
+     * <dd>the puzzle sizes, default <samp>10,15,20</samp>
+     *
+     * <dt><samp>-d <var>p</var>,...</samp>
+     *
+     * <dd>the densities, default <samp>0.5,0.6</samp>
+     *
+     * <dt><samp>-c <var>n</var>,...</samp>
+     *
+     * <dd>the numbers of colours, default <samp>2</samp>
+     *
+     * <dt><samp>-j <var>n</var>,...</samp>
+     *
+     * <dd>the numbers of workers, default <samp>1,2,4,8,16</samp>
+     *
+     * <dt><samp>-n <var>n</var></samp>
+     *
+     * <dd>the number of puzzles in each corpus, default 50
+     *
+     * <dt><samp>-w <var>n</var></samp>
+     *
+     * <dd>the number of warm-up passes over each corpus, default 1
+     *
+     * <dt><samp>-r <var>seed</var></samp>
+     *
+     * <dd>the seed for generating corpora, default 1
+     *
+     * <dt><samp>-t <var>ms</var></samp>
+     *
+     * <dd>the time allowed for each puzzle in milliseconds, default
+     * 10000
+     *
+     * </dl>
+     *
+     * @param args the command-line arguments
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public static void main(String[] args) throws Exception {
+        int[] sizes = { 10, 15, 20 };
+        double[] densities = { 0.5, 0.6 };
+        int[] colors = { 2 };
+        int[] threads = { 1, 2, 4, 8, 16 };
+        int count = 50;
+        int warmups = 1;
+        long seed = 1;
+        Duration timeout = Duration.ofSeconds(10);
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-") || arg.length() != 2)
+                throw new IllegalArgumentException("bad argument: " + arg);
+            if (++i == args.length)
+                throw new IllegalArgumentException("missing value for "
+                    + arg);
+            String val = args[i];
+            switch (arg.charAt(1)) {
+            case 's':
+                sizes = parseInts(val);
+                break;
+
+            case 'd':
+                densities = parseDoubles(val);
+                break;
+
+            case 'c':
+                colors = parseInts(val);
+                break;
+
+            case 'j':
+                threads = parseInts(val);
+                break;
+
+            case 'n':
+                count = Integer.parseInt(val);
+                break;
+
+            case 'w':
+                warmups = Integer.parseInt(val);
+                break;
+
+            case 'r':
+                seed = Long.parseLong(val);
+                break;
+
+            case 't':
+                timeout = Duration.ofMillis(Long.parseLong(val));
+                break;
+
+            default:
+                throw new IllegalArgumentException("unknown switch: " + arg);
+            }
+        }
+
+        PrintStream out = System.out;
+
+        SolveBenchmark bench =
+            new SolveBenchmark(Arrays.stream(threads).max().orElse(1),
+                               timeout);
+        out.printf(Locale.ROOT, "%4s %5s %3s %3s %10s %9s %9s %9s %5s %4s%n",
+                   "size", "dens", "col", "thr", "puzzles/s", "p50 ms",
+                   "p99 ms", "max ms", "eff", "t/o");
+        for (int size : sizes) {
+            for (double density : densities) {
+                for (int color : colors) {
+                    /* Each corpus depends only on its parameters. */
+                    final List<Puzzle> corpus = PuzzleGenerator.start()
+                        .size(size, size).colors(color).density(density)
+                        .seed(Objects.hash(seed, size, density, color))
+                        .create().stream().limit(count)
+                        .collect(Collectors.toList());
+                    double base = Double.NaN;
+                    for (int thr : threads) {
+                        for (int w = 0; w < warmups; w++)
+                            bench.measure(corpus, thr);
+                        Run run = bench.measure(corpus, thr);
+                        if (thr == threads[0])
+                            base = run.throughput() / thr;
+                        out.printf(Locale.ROOT,
+                                   "%4d %5.2f %3d %3d %10.1f %9.2f %9.2f"
+                                       + " %9.2f %5.2f %4d%n",
+                                   size, density, color, thr,
+                                   run.throughput(), run.percentile(0.5),
+                                   run.percentile(0.99),
+                                   run.percentile(1.0),
+                                   run.throughput() / thr / base,
+                                   run.timeouts);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import uk.ac.lancs.nonogram.Bar;
+import uk.ac.lancs.nonogram.Clue;
+import uk.ac.lancs.nonogram.Puzzle;
+
+/**
+ * Relates a puzzle to its canonical orientation. A rectangular puzzle
+ * can be presented in eight orientations, obtained by optionally
+ * reflecting it left-to-right, reflecting it top-to-bottom, and
+ * transposing it. The canonical orientation is the one whose serialized
+ * clues are least, and the puzzle's key is the SHA-256 digest of that
+ * serialization. Other geometries are taken as they are.
+ *
+ * @author simpsons
+ */
+final class CanonicalForm {
+    private static final String RECT_TYPE = "rect";
+
+    private static final String ROWS = "rows";
+
+    private static final String COLUMNS = "cols";
+
+    /**
+     * @resume The key of the canonical puzzle
+     */
+    final PuzzleKey key;
+
+    /**
+     * Whether the puzzle is reflected left-to-right before transposing
+     */
+    private final boolean flipX;
+
+    /**
+     * Whether the puzzle is reflected top-to-bottom before transposing
+     */
+    private final boolean flipY;
+
+    /**
+     * Whether the puzzle is transposed after reflection
+     */
+    private final boolean transpose;
+
+    /**
+     * The width of the input puzzle, or -1 if it is not rectangular
+     */
+    private final int width;
+
+    /**
+     * The height of the input puzzle, or -1 if it is not rectangular
+     */
+    private final int height;
+
+    private CanonicalForm(PuzzleKey key, boolean flipX, boolean flipY,
+                          boolean transpose, int width, int height) {
+        this.key = key;
+        this.flipX = flipX;
+        this.flipY = flipY;
+        this.transpose = transpose;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Find the canonical form of a puzzle.
+     *
+     * @param puzzle the puzzle to be examined
+     *
+     * @return the puzzle's canonical form
+     */
+    static CanonicalForm of(Puzzle puzzle) {
+        List<Clue> rows = puzzle.clues.get(ROWS);
+        List<Clue> cols = puzzle.clues.get(COLUMNS);
+        if (!RECT_TYPE.equals(puzzle.geometryType) || rows == null
+            || cols == null || puzzle.clues.size() != 2) {
+            /* Serialize the banks in a fixed order. */
+            Map<String, List<Clue>> banks = new TreeMap<>(puzzle.clues);
+            byte[] best = serialize(puzzle, banks);
+            return new CanonicalForm(digest(best), false, false, false, -1,
+                                     -1);
+        }
+
+        byte[] best = null;
+        int bestCode = 0;
+        for (int code = 0; code < 8; code++) {
+            boolean fx = (code & 1) != 0;
+            boolean fy = (code & 2) != 0;
+            boolean tr = (code & 4) != 0;
+            List<Clue> newRows = orient(rows, fy, fx);
+            List<Clue> newCols = orient(cols, fx, fy);
+            Map<String, List<Clue>> banks = new TreeMap<>();
+            banks.put(ROWS, tr ? newCols : newRows);
+            banks.put(COLUMNS, tr ? newRows : newCols);
+            byte[] cand = serialize(puzzle, banks);
+            if (best == null || Arrays.compareUnsigned(cand, best) < 0) {
+                best = cand;
+                bestCode = code;
+            }
+        }
+        return new CanonicalForm(digest(best), (bestCode & 1) != 0,
+                                 (bestCode & 2) != 0, (bestCode & 4) != 0,
+                                 cols.size(), rows.size());
+    }
+
+    /**
+     * Reflect a bank of clues.
+     *
+     * @param lines the bank to be reflected
+     *
+     * @param reverseOrder whether to reverse the order of lines
+     *
+     * @param reverseLines whether to reverse the blocks within each
+     * line
+     *
+     * @return the reflected bank
+     */
+    private static List<Clue> orient(List<Clue> lines, boolean reverseOrder,
+                                     boolean reverseLines) {
+        List<Clue> result = new ArrayList<>(lines.size());
+        for (Clue line : lines) {
+            if (reverseLines && line.blocks() != null) {
+                List<Bar> blocks = new ArrayList<>(line.blocks());
+                Collections.reverse(blocks);
+                line = Clue.of(blocks);
+            }
+            result.add(line);
+        }
+        if (reverseOrder) Collections.reverse(result);
+        return result;
+    }
+
+    private static byte[] serialize(Puzzle puzzle,
+                                    Map<String, List<Clue>> banks) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+            out.writeUTF(puzzle.geometryType);
+            out.writeInt(banks.size());
+            for (Map.Entry<String, List<Clue>> bank : banks.entrySet()) {
+                out.writeUTF(bank.getKey());
+                out.writeInt(bank.getValue().size());
+                for (Clue line : bank.getValue()) {
+                    List<Bar> blocks = line.blocks();
+                    if (blocks == null) {
+                        out.writeInt(-1);
+                        continue;
+                    }
+                    out.writeInt(blocks.size());
+                    for (Bar block : blocks) {
+                        out.writeInt(block.length);
+                        out.writeInt(puzzle.index(block.color));
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return buf.toByteArray();
+    }
+
+    private static PuzzleKey digest(byte[] content) {
+        try {
+            return new PuzzleKey(MessageDigest.getInstance("SHA-256")
+                .digest(content));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new AssertionError("unreachable", ex);
+        }
+    }
+
+    /**
+     * Get the index in the canonical puzzle of a cell of the input
+     * puzzle.
+     *
+     * @param x the column of the cell in the input puzzle
+     *
+     * @param y the row of the cell in the input puzzle
+     *
+     * @return the index of the corresponding cell in the canonical
+     * puzzle
+     */
+    private int canonicalIndex(int x, int y) {
+        if (flipX) x = width - 1 - x;
+        if (flipY) y = height - 1 - y;
+        return transpose ? y + x * height : x + y * width;
+    }
+
+    /**
+     * Convert cell states of the input puzzle to the canonical
+     * orientation.
+     *
+     * @param cells the cell states of the input puzzle
+     *
+     * @return the corresponding cell states of the canonical puzzle
+     *
+     * @throws IllegalArgumentException if the number of cells does not
+     * match the puzzle
+     */
+    long[] toCanonical(long[] cells) {
+        if (width < 0) return cells.clone();
+        if (cells.length != width * height)
+            throw new IllegalArgumentException("bad cell count: "
+                + cells.length);
+        long[] result = new long[cells.length];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                result[canonicalIndex(x, y)] = cells[x + y * width];
+        return result;
+    }
+
+    /**
+     * Convert cell states of the canonical puzzle to the orientation of
+     * the input puzzle.
+     *
+     * @param cells the cell states of the canonical puzzle
+     *
+     * @return the corresponding cell states of the input puzzle; or
+     * {@code null} if the number of cells does not match the puzzle
+     */
+    long[] fromCanonical(long[] cells) {
+        if (width < 0) return cells.clone();
+        if (cells.length != width * height) return null;
+        long[] result = new long[cells.length];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                result[x + y * width] = cells[canonicalIndex(x, y)];
+        return result;
+    }
+}
@@ -0,0 +1,121 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.cache;
+
+import java.util.Arrays;
+import uk.ac.lancs.nonogram.Puzzle;
+
+/**
+ * Identifies a puzzle by the content of its clues, regardless of
+ * orientation. Puzzles that are rotations, reflections or transposes of
+ * each other have the same key, as do puzzles that differ only in
+ * meta-data or tiles.
+ *
+ * @author simpsons
+ */
+public final class PuzzleKey {
+    /**
+     * The length of a key in bytes
+     */
+    static final int LENGTH = 32;
+
+    private final byte[] digest;
+
+    PuzzleKey(byte[] digest) {
+        assert digest.length == LENGTH;
+        this.digest = digest;
+    }
+
+    /**
+     * Get the key of a puzzle.
+     *
+     * @param puzzle the puzzle whose key is sought
+     *
+     * @return the puzzle's key
+     */
+    public static PuzzleKey of(Puzzle puzzle) {
+        return CanonicalForm.of(puzzle).key;
+    }
+
+    /**
+     * Get the bytes of this key.
+     *
+     * @return a copy of the key's bytes
+     */
+    byte[] bytes() {
+        return digest.clone();
+    }
+
+    /**
+     * Get the hash code for this object.
+     *
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(digest);
+    }
+
+    /**
+     * Determine whether another object is an identical key.
+     *
+     * @param obj the other object
+     *
+     * @return {@code true} if the other object is a key with the same
+     * content
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof PuzzleKey)) return false;
+        PuzzleKey other = (PuzzleKey) obj;
+        return Arrays.equals(digest, other.digest);
+    }
+
+    /**
+     * Get a string representation of this key.
+     *
+     * @return the key's bytes in hexadecimal
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(LENGTH * 2);
+        for (byte b : digest)
+            result.append(Character.forDigit((b >> 4) & 0xf, 16))
+                .append(Character.forDigit(b & 0xf, 16));
+        return result.toString();
+    }
+}
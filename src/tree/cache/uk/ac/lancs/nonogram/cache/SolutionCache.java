@@ -0,0 +1,324 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import uk.ac.lancs.nonogram.Puzzle;
+
+/**
+ * Stores puzzle solutions persistently, keyed by the content of the
+ * puzzles' clues. Solutions are held in canonical orientation, so a
+ * puzzle that is a rotation, reflection or transpose of one already
+ * solved will find the solution, re-oriented to match it. A hit does
+ * not require any solving.
+ *
+ * <p>
+ * The store is a file to which records are only ever appended. When it
+ * is opened, an index of record positions is built in memory, and the
+ * file is memory-mapped for reading. Recently used solutions are also
+ * kept decoded in memory, up to a fixed number, with the least recently
+ * used being evicted first. An incomplete record at the end of the
+ * file, left by a crash, is discarded when the file is next opened.
+ *
+ * <p>
+ * The file is laid out as an 8-byte magic number, followed by records.
+ * Each record consists of a 32-byte key, a 4-byte cell count, and an
+ * 8-byte colour set per cell, all big-endian.
+ *
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author simpsons
+ */
+public final class SolutionCache implements Closeable {
+    private static final long MAGIC = 0x4e474341434845_01L;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int RECORD_OVERHEAD = PuzzleKey.LENGTH + 4;
+
+    private final FileChannel channel;
+
+    /**
+     * Maps each stored key to the position of its record
+     */
+    private final Map<PuzzleKey, Long> index = new HashMap<>();
+
+    private final Map<PuzzleKey, long[]> recent;
+
+    private MappedByteBuffer mapping;
+
+    private long size;
+
+    private long hits, misses;
+
+    private SolutionCache(FileChannel channel, int capacity) {
+        this.channel = channel;
+        this.recent = new LinkedHashMap<PuzzleKey, long[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean
+                removeEldestEntry(Map.Entry<PuzzleKey, long[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Open a solution store, creating it if it does not exist. An
+     * existing empty file is initialized as a store.
+     *
+     * @param path the location of the store
+     *
+     * @param capacity the maximum number of solutions to keep decoded
+     * in memory
+     *
+     * @return the opened store
+     *
+     * @throws IOException if the file could not be opened, or is not a
+     * solution store
+     *
+     * @throws IllegalArgumentException if the capacity is negative
+     */
+    public static SolutionCache open(Path path, int capacity)
+        throws IOException {
+        if (capacity < 0)
+            throw new IllegalArgumentException("-ve capacity: " + capacity);
+        FileChannel channel =
+            FileChannel.open(path, StandardOpenOption.CREATE,
+                             StandardOpenOption.READ,
+                             StandardOpenOption.WRITE);
+        try {
+            SolutionCache result = new SolutionCache(channel, capacity);
+            result.load();
+            return result;
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private void load() throws IOException {
+        size = channel.size();
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC).flip();
+            while (header.hasRemaining())
+                channel.write(header, HEADER_SIZE - header.remaining());
+            size = HEADER_SIZE;
+            return;
+        }
+        if (size < HEADER_SIZE)
+            throw new IOException("not a solution store");
+        remap();
+        if (mapping.getLong(0) != MAGIC)
+            throw new IOException("not a solution store");
+
+        /* Index the complete records. */
+        long pos = HEADER_SIZE;
+        byte[] key = new byte[PuzzleKey.LENGTH];
+        while (pos + RECORD_OVERHEAD <= size) {
+            int count = mapping.getInt((int) pos + PuzzleKey.LENGTH);
+            long end = pos + RECORD_OVERHEAD + count * 8L;
+            if (count < 0 || end > size) break;
+            ByteBuffer view = mapping.duplicate();
+            view.position((int) pos);
+            view.get(key);
+            index.putIfAbsent(new PuzzleKey(key.clone()), pos);
+            pos = end;
+        }
+
+        /* Discard a partial record. */
+        if (pos < size) {
+            channel.truncate(pos);
+            size = pos;
+            remap();
+        }
+    }
+
+    private void remap() throws IOException {
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("solution store too large: " + size);
+        mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    private long[] read(long pos) throws IOException {
+        /* The record might have been appended since we last mapped the
+         * file. */
+        if (mapping == null || pos + RECORD_OVERHEAD > mapping.capacity())
+            remap();
+        int count = mapping.getInt((int) pos + PuzzleKey.LENGTH);
+        if (pos + RECORD_OVERHEAD + count * 8L > mapping.capacity()) remap();
+        long[] result = new long[count];
+        int base = (int) pos + RECORD_OVERHEAD;
+        for (int i = 0; i < count; i++)
+            result[i] = mapping.getLong(base + i * 8);
+        return result;
+    }
+
+    private synchronized long[] lookup(PuzzleKey key) throws IOException {
+        long[] result = recent.get(key);
+        if (result == null) {
+            Long pos = index.get(key);
+            if (pos == null) {
+                misses++;
+                return null;
+            }
+            result = read(pos);
+            recent.put(key, result);
+        }
+        hits++;
+        return result;
+    }
+
+    /**
+     * Get the stored solution of a puzzle.
+     *
+     * @param puzzle the puzzle whose solution is sought
+     *
+     * @return the solution's cell states, in the puzzle's own
+     * orientation; or {@code null} if no solution is stored
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public long[] get(Puzzle puzzle) throws IOException {
+        CanonicalForm form = CanonicalForm.of(puzzle);
+        long[] cells = lookup(form.key);
+        if (cells == null) return null;
+        return form.fromCanonical(cells);
+    }
+
+    /**
+     * Store the solution of a puzzle. Nothing is stored if a solution
+     * is already held for the puzzle or any of its orientations.
+     *
+     * @param puzzle the puzzle that has been solved
+     *
+     * @param solution the cell states of the solution, in the puzzle's
+     * own orientation
+     *
+     * @throws IOException if an I/O error occurs
+     *
+     * @throws IllegalArgumentException if the number of cells does not
+     * match the puzzle
+     */
+    public void put(Puzzle puzzle, long[] solution) throws IOException {
+        CanonicalForm form = CanonicalForm.of(puzzle);
+        long[] cells = form.toCanonical(solution);
+        store(form.key, cells);
+    }
+
+    private synchronized void store(PuzzleKey key, long[] cells)
+        throws IOException {
+        if (index.containsKey(key)) return;
+        final int len = RECORD_OVERHEAD + cells.length * 8;
+        if (size + len > Integer.MAX_VALUE)
+            throw new IOException("solution store full");
+        ByteBuffer rec = ByteBuffer.allocate(len);
+        rec.put(key.bytes()).putInt(cells.length);
+        rec.asLongBuffer().put(cells);
+        rec.clear();
+        final long pos = size;
+        while (rec.hasRemaining())
+            channel.write(rec, pos + rec.position());
+        size += len;
+        index.put(key, pos);
+        recent.put(key, cells);
+    }
+
+    /**
+     * Get the number of solutions stored.
+     *
+     * @return the number of solutions stored
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Get the number of successful look-ups.
+     *
+     * @return the number of look-ups that found a solution
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of unsuccessful look-ups.
+     *
+     * @return the number of look-ups that found no solution
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Ensure that all stored solutions have reached the disk.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void flush() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Flush and close the store.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            channel.force(false);
+        } finally {
+            channel.close();
+            mapping = null;
+            index.clear();
+            recent.clear();
+        }
+    }
+}
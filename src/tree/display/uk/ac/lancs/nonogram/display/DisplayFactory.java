@@ -47,4 +47,17 @@ public interface DisplayFactory {
      * @return a new display
      */
     Display newDisplay();
+
+    /**
+     * Determine whether displays from this factory ignore all updates.
+     * If so, a user need not create displays, nor report changes to
+     * them.
+     * 
+     * @return {@code true} if displays ignore all updates
+     * 
+     * @default This implementation returns {@code false}.
+     */
+    default boolean isHeadless() {
+        return false;
+    }
 }
@@ -88,19 +88,21 @@ public final class FastLineAlgorithm implements LineAlgorithm {
         final Block[] blocks = clue.toArray(new Block[clueLength]);
         min[0] = 0;
 
-        int colors = 2;
-        System.err.println();
-        for (int color = 0; color < colors; color++) {
-            for (CellIterator iter = cells.iterator(); iter.more();
-                 iter.next()) {
-                final int clen = iter.width();
-                if (clen > colors) colors = clen;
-                if (iter.has(color))
-                    System.err.print(color);
-                else
-                    System.err.print('-');
-            }
+        if (false) {
+            int colors = 2;
             System.err.println();
+            for (int color = 0; color < colors; color++) {
+                for (CellIterator iter = cells.iterator(); iter.more();
+                     iter.next()) {
+                    final int clen = iter.width();
+                    if (clen > colors) colors = clen;
+                    if (iter.has(color))
+                        System.err.print(color);
+                    else
+                        System.err.print('-');
+                }
+                System.err.println();
+            }
         }
 
         /* This indicates the current block (with its color), and a
@@ -123,8 +125,8 @@ public final class FastLineAlgorithm implements LineAlgorithm {
         outer: for (;;) {
             assert block < clueLength;
 
-            System.err.println();
-            {
+            if (false) {
+                System.err.println();
                 int done = 0;
                 for (int i = 0; i <= block; i++) {
                     for (; done < min[i]; done++)
@@ -136,10 +138,10 @@ public final class FastLineAlgorithm implements LineAlgorithm {
                 while (done++ < lineLength)
                     System.err.print('?');
                 System.err.println();
+                System.err.printf("Block: %d (%d of C%d) at %d%n", block,
+                                  length, color, min[block]);
+                System.err.printf("Slide %d; Check %d%n", slide, check);
             }
-            System.err.printf("Block: %d (%d of C%d) at %d%n", block, length,
-                              color, min[block]);
-            System.err.printf("Slide %d; Check %d%n", slide, check);
             assert color == blocks[block].color;
             assert length == blocks[block].length;
             assert slide > 0 || check > 0;
@@ -165,8 +167,10 @@ public final class FastLineAlgorithm implements LineAlgorithm {
                          * Find a previous block of a compatible color,
                          * and make it slide far enough to cover this
                          * cell. */
-                        System.err.printf("  Exposed non-blank at %d%n",
-                                          done + min[block]);
+                        if (false) {
+                            System.err.printf("  Exposed non-blank at %d%n",
+                                              done + min[block]);
+                        }
                         final int newEnd = min[block] + done;
                         while (--block > 0 &&
                             cells.lacks(newEnd, blocks[block].color))
@@ -206,14 +210,18 @@ public final class FastLineAlgorithm implements LineAlgorithm {
                     /* The cell covered by this block can't be of the
                      * block's color. We must ask it to skip over enough
                      * cells to avoid it. */
-                    System.err.printf("  Not possible at %d%n",
-                                      slide + min[block] - 1);
+                    if (false) {
+                        System.err.printf("  Not possible at %d%n",
+                                          slide + min[block] - 1);
+                    }
                     continue outer;
                 }
             }
             /* This block is okay. All cells under it are compatible
              * with its color. */
-            System.err.println("  Okay");
+            if (false) {
+                System.err.println("  Okay");
+            }
 
             /* Position the next block. */
             final int nextBlock = block + 1;
@@ -253,6 +261,9 @@ public final class FastLineAlgorithm implements LineAlgorithm {
                 /* Being of the same color, the next block must have a
                  * gap before it. */
                 final int gap = min[block - 1] + length;
+
+                /* Fail if there's no room for the gap. */
+                if (gap >= lineLength) return true;
                 final long gapState = cells.get(gap);
                 min[block] = gap + 1;
 
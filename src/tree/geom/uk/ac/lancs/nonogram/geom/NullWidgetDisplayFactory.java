@@ -66,6 +66,16 @@ public final class NullWidgetDisplayFactory
         return NullDisplay.INSTANCE;
     }
 
+    /**
+     * This implementation returns {@code true}.
+     * 
+     * @resume {@inheritDoc}
+     */
+    @Override
+    public boolean isHeadless() {
+        return true;
+    }
+
     /**
      * This implementation does nothing.
      * 
@@ -94,7 +94,7 @@ public class LineChallenge {
     public LineChallenge(int colors, List<Block> clue, CellSequence cells,
                          Cache cache) {
         this.colors = colors;
-        this.cells = cells.readOnly();
+        this.cells = cells;
         this.clue = Collections.unmodifiableList(clue);
         this.cache = cache;
     }
@@ -38,11 +38,10 @@ package uk.ac.lancs.nonogram.geom.rect;
 import java.io.Console;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.HashMap;
-import java.util.Map;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import uk.ac.lancs.nonogram.Palette;
 import uk.ac.lancs.nonogram.Tile;
 import uk.ac.lancs.nonogram.display.Display;
@@ -54,6 +53,13 @@ import uk.ac.lancs.nonogram.geom.WidgetDisplay;
  * inherited {@link Display} interface, it updates the state, then
  * informs the widget to reflect that change.
  * 
+ * <p>
+ * Transactions record their changes in primitive arrays. On closing,
+ * they are merged into a single set of pending changes, keeping only
+ * the latest value of each line and cell. The pending changes are
+ * applied on the event-dispatch thread no more than once per frame, so
+ * a busy solver does not flood the event queue.
+ * 
  * @resume A rectangular Nonogram display
  * 
  * @author simpsons
@@ -67,11 +73,115 @@ final class RectangularDisplay<C> implements WidgetDisplay<C> {
 
     private final C widget;
 
+    /**
+     * The minimum time between updates of the widget, in nanoseconds
+     */
+    private static final long FRAME_NANOS = 1000000000L / 60;
+
+    /**
+     * Holds changes that have been committed by transactions, but not
+     * yet applied to the state. Only the latest value for each line or
+     * cell is kept.
+     */
+    private static final class Changes {
+        Palette palette;
+
+        final int[] levels;
+
+        final BitSet levelsChanged = new BitSet();
+
+        final BitSet activities = new BitSet();
+
+        final BitSet activitiesChanged = new BitSet();
+
+        final int[] cells;
+
+        final BitSet cellsChanged = new BitSet();
+
+        Changes(int lines, int cells) {
+            this.levels = new int[lines];
+            this.cells = new int[cells];
+        }
+
+        boolean isEmpty() {
+            return palette == null && levelsChanged.isEmpty()
+                && activitiesChanged.isEmpty() && cellsChanged.isEmpty();
+        }
+
+        void clear() {
+            palette = null;
+            levelsChanged.clear();
+            activitiesChanged.clear();
+            cellsChanged.clear();
+        }
+    }
+
+    /**
+     * Changes from closed transactions waiting for the event-dispatch
+     * thread, guarded by this display
+     */
+    private Changes pending;
+
+    /**
+     * Changes being applied by the event-dispatch thread, swapped with
+     * {@link #pending} when drained
+     */
+    private Changes draining;
+
+    /**
+     * Set while a drain of {@link #pending} has been arranged
+     */
+    private boolean scheduled;
+
+    /**
+     * The time of the last drain, according to {@link System#nanoTime()}
+     */
+    private long lastDrain;
+
+    /**
+     * Delays a drain that would otherwise come too soon after the last
+     */
+    private final Timer delay;
+
     public RectangularDisplay(DisplayState state, Updatable updatable,
                               C widget) {
         this.state = state;
         this.updatable = updatable;
         this.widget = widget;
+        this.pending =
+            new Changes(state.levels.length, state.cellColours.length);
+        this.draining =
+            new Changes(state.levels.length, state.cellColours.length);
+        this.lastDrain = System.nanoTime() - FRAME_NANOS;
+        this.delay = new Timer(0, e -> drain());
+        this.delay.setRepeats(false);
+    }
+
+    /**
+     * An empty list of changes
+     */
+    private static final int[] NO_CHANGES = new int[0];
+
+    /**
+     * Append an index and a value to a list of changes.
+     * 
+     * @param changes the list of index-value pairs
+     * 
+     * @param length the number of elements in use
+     * 
+     * @param index the index of the line or cell
+     * 
+     * @param value the new value
+     * 
+     * @return the list, or a larger copy of it
+     */
+    private static int[] append(int[] changes, int length, int index,
+                                int value) {
+        if (length + 2 > changes.length)
+            changes = Arrays.copyOf(changes, Math.max(16, length * 2));
+        changes[length] = index;
+        changes[length + 1] = value;
+        return changes;
     }
 
     @Override
@@ -79,35 +189,35 @@ final class RectangularDisplay<C> implements WidgetDisplay<C> {
         return new Transaction() {
             private Palette palette;
 
-            private Map<Integer, Integer> newLineLevels = new HashMap<>();
-
-            private BitSet newLineActivityStates = new BitSet();
+            /* Each holds pairs of a line or cell index and its new
+             * value, in the order set. */
+            private int[] levels = NO_CHANGES, activities = NO_CHANGES,
+                cells = NO_CHANGES;
 
-            private BitSet newLineActivity = new BitSet();
-
-            private Map<Integer, Integer> newCellStates = new HashMap<>();
+            private int levelCount, activityCount, cellCount;
 
             @Override
             public void setLineLevel(int index, int state) {
-                newLineLevels.put(index, state);
+                levels = append(levels, levelCount, index, state);
+                levelCount += 2;
             }
 
             @Override
             public void setLineActivity(int index, boolean active) {
-                newLineActivityStates.set(index, active);
-                newLineActivity.set(index);
+                activities =
+                    append(activities, activityCount, index, active ? 1 : 0);
+                activityCount += 2;
             }
 
             @Override
             public void setCell(int index, int color) {
-                newCellStates.put(index, color);
+                cells = append(cells, cellCount, index, color);
+                cellCount += 2;
             }
 
             @Override
             public void reset() {
-                newLineLevels.clear();
-                newLineActivity.clear();
-                newCellStates.clear();
+                levelCount = activityCount = cellCount = 0;
                 palette = null;
             }
 
@@ -118,29 +228,75 @@ final class RectangularDisplay<C> implements WidgetDisplay<C> {
 
             @Override
             public void close() {
-                /* Create a runnable based on the maps to set the new
-                 * states, and tell the GUI which parts to redraw. Get
-                 * the GUI to run it on the EDT. */
-                SwingUtilities.invokeLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        commit(palette, newLineLevels, newLineActivityStates,
-                               newLineActivity, newCellStates);
-                    }
-                });
+                merge(palette, levels, levelCount, activities,
+                      activityCount, cells, cellCount);
+                reset();
             }
         };
     }
 
-    private void commit(Palette palette, Map<Integer, Integer> newLineLevels,
-                        BitSet newLineActivityStates, BitSet newLineActivity,
-                        Map<Integer, Integer> newCellStates) {
+    /**
+     * Merge the changes of a transaction with those waiting to be
+     * applied, and arrange for them to be applied.
+     */
+    private synchronized void merge(Palette palette, int[] levels,
+                                    int levelCount, int[] activities,
+                                    int activityCount, int[] cells,
+                                    int cellCount) {
+        final Changes into = pending;
+        if (palette != null) into.palette = palette;
+        for (int i = 0; i < levelCount; i += 2) {
+            into.levels[levels[i]] = levels[i + 1];
+            into.levelsChanged.set(levels[i]);
+        }
+        for (int i = 0; i < activityCount; i += 2) {
+            into.activities.set(activities[i], activities[i + 1] != 0);
+            into.activitiesChanged.set(activities[i]);
+        }
+        for (int i = 0; i < cellCount; i += 2) {
+            final int index = cells[i];
+            if (index < 0 || index >= into.cells.length) continue;
+            into.cells[index] = cells[i + 1];
+            into.cellsChanged.set(index);
+        }
+        if (scheduled || into.isEmpty()) return;
+
+        /* Apply the changes on the event-dispatch thread, but no more
+         * than once per frame. */
+        scheduled = true;
+        final long wait = lastDrain + FRAME_NANOS - System.nanoTime();
+        if (wait <= 0) {
+            SwingUtilities.invokeLater(this::drain);
+        } else {
+            delay.setInitialDelay((int) ((wait + 999999) / 1000000));
+            delay.restart();
+        }
+    }
+
+    /**
+     * Apply all waiting changes. This must be called on the
+     * event-dispatch thread.
+     */
+    private void drain() {
+        final Changes changes;
+        synchronized (this) {
+            changes = pending;
+            pending = draining;
+            draining = changes;
+            scheduled = false;
+            lastDrain = System.nanoTime();
+        }
+        commit(changes);
+        changes.clear();
+    }
+
+    private void commit(Changes changes) {
         /* Update changed level indicators's states, and inform the
          * widget. */
-        for (Map.Entry<Integer, Integer> entry : newLineLevels.entrySet()) {
-            int index = entry.getKey();
-            int level = entry.getValue();
-            state.levels[index] = level;
+        final BitSet levels = changes.levelsChanged;
+        for (int index = levels.nextSetBit(0); index >= 0;
+             index = levels.nextSetBit(index + 1)) {
+            state.levels[index] = changes.levels[index];
             if (index < state.height)
                 updatable.updateRowLevel(index);
             else
@@ -149,9 +305,10 @@ final class RectangularDisplay<C> implements WidgetDisplay<C> {
 
         /* Update changed activity indicators' states, and inform the
          * widget. */
-        for (int index = newLineActivity.nextSetBit(0); index >= 0;
-             index = newLineActivity.nextSetBit(index + 1)) {
-            boolean activity = newLineActivityStates.get(index);
+        final BitSet activities = changes.activitiesChanged;
+        for (int index = activities.nextSetBit(0); index >= 0;
+             index = activities.nextSetBit(index + 1)) {
+            boolean activity = changes.activities.get(index);
             state.activities.set(index, activity);
             if (index < state.height)
                 updatable.updateRowActivity(index);
@@ -161,15 +318,14 @@ final class RectangularDisplay<C> implements WidgetDisplay<C> {
 
         /* Update changed cells' states, but don't update the widget
          * yet. */
-        for (Map.Entry<Integer, Integer> entry : newCellStates.entrySet()) {
-            int index = entry.getKey();
-            int color = entry.getValue();
-            if (index >= 0 && index < state.cellColours.length)
-                state.cellColours[index] = color;
-        }
+        final BitSet cells = changes.cellsChanged;
+        for (int index = cells.nextSetBit(0); index >= 0;
+             index = cells.nextSetBit(index + 1))
+            state.cellColours[index] = changes.cells[index];
 
         /* Update the palette if changed, and then mark for update cells
          * with colours changed in the palette. */
+        final Palette palette = changes.palette;
         if (palette != null) {
             /* Change the palette, keeping track of the old one for a
              * moment. */
@@ -193,16 +349,13 @@ final class RectangularDisplay<C> implements WidgetDisplay<C> {
 
             /* Find cells whose colours have changed in the palette. */
             for (int i = 0; i < state.cellColours.length; i++)
-                if (changed.get(state.cellColours[i])) {
-                    /* We can use any colour value here, as we don't use
-                     * it from here on. */
-                    newCellStates.put(i, 0);
-                }
+                if (changed.get(state.cellColours[i])) cells.set(i);
         }
 
         /* Now update all changed cells, plus cells whose colours have
          * been changed in the palette, */
-        for (int index : newCellStates.keySet()) {
+        for (int index = cells.nextSetBit(0); index >= 0;
+             index = cells.nextSetBit(index + 1)) {
             int x = index % state.width;
             int y = index / state.width;
             updatable.updateCell(x, y);
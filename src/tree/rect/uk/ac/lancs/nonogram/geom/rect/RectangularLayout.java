@@ -116,8 +116,8 @@ public class RectangularLayout implements DisplayableLayout {
 
         @Override
         public Cell get(int index) {
-            if (index < 0 || index >= height)
-                throw new NoSuchElementException("[0, " + height + ") excludes "
+            if (index < 0 || index >= width)
+                throw new NoSuchElementException("[0, " + width + ") excludes "
                     + index);
             return cells[base + index];
         }
@@ -146,8 +146,8 @@ public class RectangularLayout implements DisplayableLayout {
 
         @Override
         public Cell get(int index) {
-            if (index < 0 || index >= width)
-                throw new NoSuchElementException("[0, " + width + ") excludes "
+            if (index < 0 || index >= height)
+                throw new NoSuchElementException("[0, " + height + ") excludes "
                     + index);
             return cells[base + index * width];
         }
@@ -254,7 +254,7 @@ public class RectangularLayout implements DisplayableLayout {
         int[] colIndex = new int[width];
         List<Line> myLines = new ArrayList<>(width + height);
         indexBank(rowIndex, rowClues, this.cells, myLines, width, height,
-                  colorMap, RowSlice::new);
+                  colorMap, (c, w, h, i) -> new RowSlice(c, w, h, i * w));
         indexBank(colIndex, colClues, this.cells, myLines, width, height,
                   colorMap, ColSlice::new);
         this.lines = myLines.toArray(n -> new Line[n]);
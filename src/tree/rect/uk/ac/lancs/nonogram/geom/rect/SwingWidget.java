@@ -43,11 +43,21 @@ import java.awt.Rectangle;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
+import uk.ac.lancs.nonogram.Palette;
+import uk.ac.lancs.nonogram.Shape;
 import uk.ac.lancs.nonogram.Tile;
 
 /**
+ * Cells are drawn from images of each tile, rendered once for the
+ * current palette and scale. When cells are one pixel each, they are
+ * instead drawn from a single image holding a pixel per cell, which is
+ * updated in place as cells change. Only cells within the clip and the
+ * visible area are drawn.
+ * 
  * @resume A Swing component that displays a two-dimensional Nonogram
  * state, automatically adjusting to fit the available space
  * 
@@ -139,6 +149,13 @@ final class SwingWidget extends JPanel implements Updatable {
 
     @Override
     public void updateCell(int x, int y) {
+        /* Keep the overview up to date, even if not visible. */
+        if (overviewPixels != null && x >= 0 && x < state.width && y >= 0
+            && y < state.height) {
+            final int index = x + y * state.width;
+            overviewPixels[index] = getCellRGB(state.cellColours[index]);
+        }
+
         if (!isVisible()) return;
         if (false) {
             System.err.printf("Updating cell (%d,%d)%n...", x, y);
@@ -219,6 +236,13 @@ final class SwingWidget extends JPanel implements Updatable {
         g.getClipBounds(clip);
         g.clearRect(clip.x, clip.y, clip.width, clip.height);
 
+        /* Don't draw what can't be seen, e.g., outside a scroll pane's
+         * viewport. */
+        Rectangle visible = getVisibleRect();
+        visible.translate(-offset.x, -offset.y);
+        clip = clip.intersection(visible);
+        if (clip.isEmpty()) return;
+
         final int step = scale + margin;
 
         /* What are the minimum (inclusive) and maximum (exclusive)
@@ -238,75 +262,180 @@ final class SwingWidget extends JPanel implements Updatable {
                               miny, maxx, maxy);
         }
 
+        /* The indicated cells lie within these bounds. */
+        final int mincx = Math.max(minx, 1);
+        final int mincy = Math.max(miny, 1);
+        final int maxcx = Math.min(maxx, state.width + 1);
+        final int maxcy = Math.min(maxy, state.height + 1);
+
+        /* Repaint the row indicators. */
+        for (int y = mincy; y < maxcy; y++) {
+            if (minx == 0) {
+                /* This is a row activity indicator. */
+                plotLight(g, 0, y * step,
+                          state.activities.get(y - 1) ? ACTIVITY_SHADING :
+                              INACTIVITY_SHADING);
+            }
+            if (maxx == state.width + 2) {
+                /* This is a row level indicator. */
+                plotLight(g, (state.width + 1) * step, y * step,
+                          ALGORITHM_SHADING[getLevel(y - 1)]);
+            }
+        }
+
+        /* Repaint the column indicators. */
+        for (int x = mincx; x < maxcx; x++) {
+            if (miny == 0) {
+                /* This is a column activity indicator. */
+                plotLight(g, x * step, 0,
+                          state.activities.get(x - 1 + state.height) ?
+                              ACTIVITY_SHADING : INACTIVITY_SHADING);
+            }
+            if (maxy == state.height + 2) {
+                /* This is a column level indicator. */
+                plotLight(g, x * step, (state.height + 1) * step,
+                          ALGORITHM_SHADING[getLevel(x - 1 + state.height)]);
+            }
+        }
+        if (mincx >= maxcx || mincy >= maxcy) return;
+
+        /* At one pixel per cell, copy the visible part of the
+         * overview. */
+        if (step == 1) {
+            final BufferedImage image = getOverview();
+            g.drawImage(image, mincx, mincy, maxcx, maxcy, mincx - 1,
+                        mincy - 1, maxcx - 1, maxcy - 1, null);
+            return;
+        }
+        overview = null;
+        overviewPixels = null;
+
         /* Repaint the indicated cells according to their current state
          * and the palette. */
-        for (int x = minx; x < maxx; x++) {
-            for (int y = miny; y < maxy; y++) {
-                if (x == 0) {
-                    if (y > 0 && y <= state.height) {
-                        /* This is a row activity indicator. */
-                        plotLight(g, x * step, y * step,
-                                  state.activities.get(y - 1) ?
-                                      ACTIVITY_SHADING : INACTIVITY_SHADING);
-                    }
-                } else if (x == state.width + 1) {
-                    if (y > 0 && y <= state.height) {
-                        /* This is a row level indicator. */
-                        int level = state.levels[y - 1];
-                        if (level < 0) {
-                            level = 0;
-                        } else {
-                            if (level > state.algos) level = state.algos;
-                        }
-                        plotLight(g, x * step, y * step,
-                                  ALGORITHM_SHADING[level]);
-                    }
-                } else if (y == 0) {
-                    if (x > 0 && x <= state.width) {
-                        /* This is a column activity indicator. */
-                        plotLight(g, x * step, y * step,
-                                  state.activities.get(x - 1 + state.height) ?
-                                      ACTIVITY_SHADING : INACTIVITY_SHADING);
-                    }
-                } else if (y == state.height + 1) {
-                    if (x > 0 && x <= state.width) {
-                        /* This is a column level indicator. */
-                        int level = state.levels[x - 1 + state.height];
-                        if (level < 0) {
-                            level = 0;
-                        } else {
-                            if (level > state.algos) level = state.algos;
-                        }
-                        plotLight(g, x * step, y * step,
-                                  ALGORITHM_SHADING[level]);
-                    }
-                } else {
-                    /* This must be a regular cell. */
-                    assert x >= 1;
-                    assert x <= state.width;
-                    assert y >= 1;
-                    assert y <= state.height;
-                    final int cellx = x - 1;
-                    final int celly = y - 1;
-                    final int cellIndex = cellx + celly * state.width;
-                    Tile tile = getCellTile(state.cellColours[cellIndex]);
-                    switch (tile.shape) {
-                    case BLANK:
-                        plotBox(g, x * step, y * step, scale, tile.background);
-                        break;
-
-                    case DOT:
-                        plotBox(g, x * step, y * step, scale, tile.background);
-                        plotDot(g, x * step, y * step, scale, tile.foreground);
-                        break;
-
-                    case SOLID:
-                        plotBox(g, x * step, y * step, scale, tile.foreground);
-                        break;
-                    }
-                }
+        for (int y = mincy; y < maxcy; y++) {
+            final int base = (y - 1) * state.width - 1;
+            for (int x = mincx; x < maxcx; x++)
+                g.drawImage(getTileImage(state.cellColours[base + x]),
+                            x * step, y * step, null);
+        }
+    }
+
+    /**
+     * Get a line's level, limited to the range of the shading.
+     * 
+     * @param index the line index
+     * 
+     * @return the line's level
+     */
+    private int getLevel(int index) {
+        final int level = state.levels[index];
+        if (level < 0) return 0;
+        if (level > state.algos) return state.algos;
+        return level;
+    }
+
+    /**
+     * Holds the rendered tile for each colour code, indexed by code,
+     * followed by the tile for unknown codes. Elements are rendered
+     * when first needed.
+     */
+    private BufferedImage[] tileImages;
+
+    /**
+     * The palette the tile images were rendered from
+     */
+    private Palette tilePalette;
+
+    /**
+     * The scale the tile images were rendered at
+     */
+    private int tileScale;
+
+    private BufferedImage getTileImage(int code) {
+        if (tileImages == null || tilePalette != state.palette
+            || tileScale != scale) {
+            tilePalette = state.palette;
+            tileScale = scale;
+            tileImages = new BufferedImage[tilePalette.colors() + 1];
+        }
+        final int slot =
+            code < 0 || code >= tileImages.length - 1 ? tileImages.length - 1 :
+                code;
+        BufferedImage image = tileImages[slot];
+        if (image == null) {
+            image = new BufferedImage(scale, scale, BufferedImage.TYPE_INT_RGB);
+            Graphics ig = image.createGraphics();
+            try {
+                plotTile(ig, 0, 0, getCellTile(code));
+            } finally {
+                ig.dispose();
             }
+            tileImages[slot] = image;
         }
+        return image;
+    }
+
+    private void plotTile(Graphics g, int x, int y, Tile tile) {
+        switch (tile.shape) {
+        case BLANK:
+            plotBox(g, x, y, scale, tile.background);
+            break;
+
+        case DOT:
+            plotBox(g, x, y, scale, tile.background);
+            plotDot(g, x, y, scale, tile.foreground);
+            break;
+
+        case SOLID:
+            plotBox(g, x, y, scale, tile.foreground);
+            break;
+        }
+    }
+
+    /**
+     * Holds one pixel per cell, for drawing at the smallest scale; or
+     * {@code null} if not in use
+     */
+    private BufferedImage overview;
+
+    /**
+     * Holds the pixels of {@link #overview}, row by row
+     */
+    private int[] overviewPixels;
+
+    /**
+     * The palette the overview's pixels were computed from
+     */
+    private Palette overviewPalette;
+
+    private BufferedImage getOverview() {
+        if (overview == null) {
+            overview = new BufferedImage(state.width, state.height,
+                                         BufferedImage.TYPE_INT_RGB);
+            overviewPixels = ((DataBufferInt) overview.getRaster()
+                .getDataBuffer()).getData();
+            overviewPalette = null;
+        }
+        if (overviewPalette != state.palette) {
+            overviewPalette = state.palette;
+            for (int i = 0; i < overviewPixels.length; i++)
+                overviewPixels[i] = getCellRGB(state.cellColours[i]);
+        }
+        return overview;
+    }
+
+    /**
+     * Get the colour of a cell drawn as a single pixel. There is no room
+     * for a dot.
+     * 
+     * @param code the cell's colour code
+     * 
+     * @return the cell's pixel in RGB form
+     */
+    private int getCellRGB(int code) {
+        final Tile tile = getCellTile(code);
+        return (tile.shape == Shape.SOLID ? tile.foreground : tile.background)
+            .getRGB();
     }
 
     private static final Color ACTIVITY = new Color(0.9f, 0.6f, 0.2f);
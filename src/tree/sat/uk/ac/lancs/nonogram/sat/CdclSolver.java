@@ -0,0 +1,784 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.sat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decides the satisfiability of a formula in conjunctive normal form by
+ * conflict-driven clause learning. Each clause is watched by two of its
+ * literals, so only clauses watching a falsified literal are visited
+ * during propagation. On conflict, a clause is learned from the first
+ * unique implication point, minimized, and used to backjump. Branching
+ * variables are chosen by decaying activity, with their last polarity
+ * reused. Search restarts on a Luby schedule, and learned clauses with
+ * many distinct decision levels are periodically forgotten.
+ *
+ * <p>
+ * Variables are numbered from 1, and literals are expressed as in the
+ * DIMACS format, as a variable number, negated for the negative
+ * literal. Clauses may be added between calls to {@link #solve()}, so
+ * that, for example, solutions can be enumerated by blocking each one
+ * found.
+ *
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author simpsons
+ */
+public final class CdclSolver {
+    /**
+     * Describes the outcome of a search.
+     */
+    public enum Outcome {
+        /**
+         * A model satisfying all clauses has been found.
+         */
+        SATISFIABLE,
+
+        /**
+         * No model satisfies all clauses.
+         */
+        UNSATISFIABLE,
+
+        /**
+         * The search was abandoned before an outcome was reached.
+         */
+        UNKNOWN;
+    }
+
+    private static final class Clause {
+        final int[] lits;
+
+        final boolean learnt;
+
+        int lbd;
+
+        double activity;
+
+        boolean deleted;
+
+        Clause(int[] lits, boolean learnt) {
+            this.lits = lits;
+            this.learnt = learnt;
+        }
+    }
+
+    private static final class ClauseList {
+        Clause[] data = new Clause[4];
+
+        int size;
+
+        void add(Clause c) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = c;
+        }
+    }
+
+    private static final byte UNDEF = 0, TRUE = 1, FALSE = -1;
+
+    private static final int RESTART_UNIT = 100;
+
+    private static final double VAR_DECAY = 0.95;
+
+    private static final double CLAUSE_DECAY = 0.999;
+
+    private int vars;
+
+    /* Indexed by literal, where variable v is 2v (positive) and 2v+1
+     * (negative), v counting from 0. A clause is in the lists of the
+     * negations of its first two literals. */
+    private ClauseList[] watches = new ClauseList[0];
+
+    /* Indexed by variable */
+    private byte[] assigns = new byte[0];
+
+    private int[] level = new int[0];
+
+    private Clause[] reason = new Clause[0];
+
+    private boolean[] polarity = new boolean[0];
+
+    private boolean[] seen = new boolean[0];
+
+    private double[] activity = new double[0];
+
+    private boolean[] model = new boolean[0];
+
+    private final VarHeap order = new VarHeap();
+
+    private int[] trail = new int[0];
+
+    private int trailSize;
+
+    private int qhead;
+
+    private int[] trailLim = new int[16];
+
+    private int decisionLevels;
+
+    private final List<Clause> clauses = new ArrayList<>();
+
+    private final List<Clause> learnts = new ArrayList<>();
+
+    private double varInc = 1.0;
+
+    private double clauseInc = 1.0;
+
+    private double maxLearnts;
+
+    private boolean ok = true;
+
+    private long conflicts, decisions, propagations, restarts;
+
+    /**
+     * Create a solver with no variables or clauses.
+     */
+    public CdclSolver() {}
+
+    /**
+     * Create a new variable.
+     *
+     * @return the number of the new variable, which is one more than
+     * the previous
+     */
+    public int newVariable() {
+        final int v = vars++;
+        if (v == assigns.length) {
+            final int cap = Math.max(16, v * 2);
+            watches = Arrays.copyOf(watches, cap * 2);
+            assigns = Arrays.copyOf(assigns, cap);
+            level = Arrays.copyOf(level, cap);
+            reason = Arrays.copyOf(reason, cap);
+            polarity = Arrays.copyOf(polarity, cap);
+            seen = Arrays.copyOf(seen, cap);
+            activity = Arrays.copyOf(activity, cap);
+            trail = Arrays.copyOf(trail, cap);
+        }
+        watches[2 * v] = new ClauseList();
+        watches[2 * v + 1] = new ClauseList();
+        order.insert(v);
+        return v + 1;
+    }
+
+    /**
+     * Get the number of variables.
+     *
+     * @return the number of variables created
+     */
+    public int variables() {
+        return vars;
+    }
+
+    /**
+     * Get the number of original clauses retained. Clauses satisfied
+     * when added, and unit clauses, are not counted.
+     *
+     * @return the number of original clauses
+     */
+    public int clauses() {
+        return clauses.size();
+    }
+
+    private int toLit(int dimacs) {
+        final int v = Math.abs(dimacs) - 1;
+        if (dimacs == 0 || v >= vars)
+            throw new IllegalArgumentException("no variable " + dimacs);
+        return dimacs > 0 ? 2 * v : 2 * v + 1;
+    }
+
+    private byte truth(int lit) {
+        final byte val = assigns[lit >> 1];
+        return (lit & 1) == 0 ? val : (byte) -val;
+    }
+
+    /**
+     * Add a clause. Any partial assignment from a previous search is
+     * discarded first.
+     *
+     * @param literals the literals of the clause, at least one of
+     * which must be true
+     *
+     * @return {@code false} if the formula is now known to be
+     * unsatisfiable
+     *
+     * @throws IllegalArgumentException if a literal is zero, or refers
+     * to a variable not created
+     */
+    public boolean addClause(int... literals) {
+        int[] lits = new int[literals.length];
+        for (int i = 0; i < lits.length; i++)
+            lits[i] = toLit(literals[i]);
+        if (!ok) return false;
+        cancelUntil(0);
+
+        /* Sort, so that duplicates and complements are adjacent. Drop
+         * false and duplicate literals, and satisfied clauses. */
+        Arrays.sort(lits);
+        int len = 0;
+        for (int i = 0; i < lits.length; i++) {
+            final int p = lits[i];
+            final byte val = truth(p);
+            if (val == TRUE) return true;
+            if (len > 0 && lits[len - 1] == (p ^ 1)) return true;
+            if (val == FALSE || (len > 0 && lits[len - 1] == p)) continue;
+            lits[len++] = p;
+        }
+
+        switch (len) {
+        case 0:
+            return ok = false;
+
+        case 1:
+            enqueue(lits[0], null);
+            return ok = propagate() == null;
+
+        default:
+            Clause c = new Clause(Arrays.copyOf(lits, len), false);
+            clauses.add(c);
+            attach(c);
+            return true;
+        }
+    }
+
+    private void attach(Clause c) {
+        watches[c.lits[0] ^ 1].add(c);
+        watches[c.lits[1] ^ 1].add(c);
+    }
+
+    private void enqueue(int lit, Clause from) {
+        final int v = lit >> 1;
+        assert assigns[v] == UNDEF;
+        assigns[v] = (lit & 1) == 0 ? TRUE : FALSE;
+        level[v] = decisionLevels;
+        reason[v] = from;
+        trail[trailSize++] = lit;
+    }
+
+    private void newDecisionLevel() {
+        if (decisionLevels == trailLim.length)
+            trailLim = Arrays.copyOf(trailLim, decisionLevels * 2);
+        trailLim[decisionLevels++] = trailSize;
+    }
+
+    private void cancelUntil(int target) {
+        if (decisionLevels <= target) return;
+        final int stop = trailLim[target];
+        for (int i = trailSize - 1; i >= stop; i--) {
+            final int lit = trail[i];
+            final int v = lit >> 1;
+            polarity[v] = (lit & 1) == 0;
+            assigns[v] = UNDEF;
+            reason[v] = null;
+            if (!order.contains(v)) order.insert(v);
+        }
+        trailSize = stop;
+        qhead = stop;
+        decisionLevels = target;
+    }
+
+    /**
+     * Propagate all enqueued assignments.
+     *
+     * @return a clause all of whose literals are false; or
+     * {@code null} if there is no conflict
+     */
+    private Clause propagate() {
+        Clause confl = null;
+        while (qhead < trailSize) {
+            final int p = trail[qhead++];
+            final int falseLit = p ^ 1;
+            final ClauseList ws = watches[p];
+            final Clause[] data = ws.data;
+            final int size = ws.size;
+            propagations++;
+            int i = 0, j = 0;
+            next: while (i < size) {
+                final Clause c = data[i++];
+                if (c.deleted) continue;
+                final int[] lits = c.lits;
+
+                /* Make sure the false literal is second. */
+                if (lits[0] == falseLit) {
+                    lits[0] = lits[1];
+                    lits[1] = falseLit;
+                }
+
+                /* Keep watching if the other watch is true. */
+                final int first = lits[0];
+                if (truth(first) == TRUE) {
+                    data[j++] = c;
+                    continue;
+                }
+
+                /* Look for a new literal to watch. */
+                for (int k = 2; k < lits.length; k++) {
+                    if (truth(lits[k]) != FALSE) {
+                        lits[1] = lits[k];
+                        lits[k] = falseLit;
+                        watches[lits[1] ^ 1].add(c);
+                        continue next;
+                    }
+                }
+
+                /* The clause is unit or conflicting. */
+                data[j++] = c;
+                if (truth(first) == FALSE) {
+                    confl = c;
+                    qhead = trailSize;
+                    while (i < size)
+                        data[j++] = data[i++];
+                } else {
+                    enqueue(first, c);
+                }
+            }
+            ws.size = j;
+            if (confl != null) break;
+        }
+        return confl;
+    }
+
+    private void bumpVar(int v) {
+        if ((activity[v] += varInc) > 1e100) {
+            for (int i = 0; i < vars; i++)
+                activity[i] *= 1e-100;
+            varInc *= 1e-100;
+        }
+        if (order.contains(v)) order.increased(v);
+    }
+
+    private void bumpClause(Clause c) {
+        if ((c.activity += clauseInc) > 1e20) {
+            for (Clause l : learnts)
+                l.activity *= 1e-20;
+            clauseInc *= 1e-20;
+        }
+    }
+
+    private int[] learnt = new int[16];
+
+    private int learntSize;
+
+    private int[] toClear = new int[16];
+
+    private int toClearSize;
+
+    private void addLearnt(int lit) {
+        if (learntSize == learnt.length)
+            learnt = Arrays.copyOf(learnt, learntSize * 2);
+        learnt[learntSize++] = lit;
+    }
+
+    private void markSeen(int v) {
+        seen[v] = true;
+        if (toClearSize == toClear.length)
+            toClear = Arrays.copyOf(toClear, toClearSize * 2);
+        toClear[toClearSize++] = v;
+    }
+
+    /**
+     * Derive a clause from a conflict, leaving it in {@link #learnt},
+     * with the asserting literal first and a literal of the backjump
+     * level second.
+     *
+     * @param confl the conflicting clause
+     *
+     * @return the level to backjump to
+     */
+    private int analyze(Clause confl) {
+        learntSize = 0;
+        toClearSize = 0;
+        addLearnt(-1);
+        int pathCount = 0;
+        int p = -1;
+        int index = trailSize - 1;
+        do {
+            if (confl.learnt) bumpClause(confl);
+            final int[] lits = confl.lits;
+            for (int k = p < 0 ? 0 : 1; k < lits.length; k++) {
+                final int q = lits[k];
+                final int v = q >> 1;
+                if (seen[v] || level[v] == 0) continue;
+                bumpVar(v);
+                markSeen(v);
+                if (level[v] >= decisionLevels)
+                    pathCount++;
+                else
+                    addLearnt(q);
+            }
+
+            /* Find the next literal on the trail to expand. */
+            while (!seen[trail[index] >> 1])
+                index--;
+            p = trail[index--];
+            confl = reason[p >> 1];
+            seen[p >> 1] = false;
+            pathCount--;
+        } while (pathCount > 0);
+        learnt[0] = p ^ 1;
+
+        /* Remove literals implied by others in the clause. */
+        int len = 1;
+        for (int i = 1; i < learntSize; i++) {
+            final Clause r = reason[learnt[i] >> 1];
+            if (r == null || !redundant(r)) learnt[len++] = learnt[i];
+        }
+        learntSize = len;
+        for (int i = 0; i < toClearSize; i++)
+            seen[toClear[i]] = false;
+
+        /* Put a literal of the highest remaining level second. */
+        if (learntSize == 1) return 0;
+        int max = 1;
+        for (int i = 2; i < learntSize; i++)
+            if (level[learnt[i] >> 1] > level[learnt[max] >> 1]) max = i;
+        final int tmp = learnt[1];
+        learnt[1] = learnt[max];
+        learnt[max] = tmp;
+        return level[learnt[1] >> 1];
+    }
+
+    private boolean redundant(Clause r) {
+        final int[] lits = r.lits;
+        for (int k = 1; k < lits.length; k++) {
+            final int v = lits[k] >> 1;
+            if (!seen[v] && level[v] > 0) return false;
+        }
+        return true;
+    }
+
+    private int computeLbd(int[] lits) {
+        int count = 0;
+        final int[] levels = new int[lits.length];
+        outer: for (int lit : lits) {
+            final int lv = level[lit >> 1];
+            for (int i = 0; i < count; i++)
+                if (levels[i] == lv) continue outer;
+            levels[count++] = lv;
+        }
+        return count;
+    }
+
+    private boolean locked(Clause c) {
+        final int v = c.lits[0] >> 1;
+        return reason[v] == c && truth(c.lits[0]) == TRUE;
+    }
+
+    /**
+     * Forget about half of the learned clauses, keeping those with few
+     * distinct decision levels, and those most recently useful.
+     */
+    private void reduceLearnts() {
+        learnts.sort(Comparator.<Clause>comparingInt(c -> -c.lbd)
+            .thenComparingDouble(c -> c.activity));
+        final int limit = learnts.size() / 2;
+        int j = 0;
+        for (int i = 0; i < learnts.size(); i++) {
+            final Clause c = learnts.get(i);
+            if (i < limit && c.lbd > 2 && c.lits.length > 2 && !locked(c))
+                c.deleted = true;
+            else
+                learnts.set(j++, c);
+        }
+        learnts.subList(j, learnts.size()).clear();
+
+        /* Purge deleted clauses from the watch lists. */
+        for (int lit = 0; lit < 2 * vars; lit++) {
+            final ClauseList ws = watches[lit];
+            int k = 0;
+            for (int i = 0; i < ws.size; i++)
+                if (!ws.data[i].deleted) ws.data[k++] = ws.data[i];
+            Arrays.fill(ws.data, k, ws.size, null);
+            ws.size = k;
+        }
+    }
+
+    private static long luby(long x) {
+        long size = 1, seq = 0;
+        while (size < x + 1) {
+            seq++;
+            size = 2 * size + 1;
+        }
+        while (size - 1 != x) {
+            size = (size - 1) >> 1;
+            seq--;
+            x = x % size;
+        }
+        return 1L << seq;
+    }
+
+    /**
+     * Search for a model without giving up.
+     *
+     * @return {@link Outcome#SATISFIABLE} or
+     * {@link Outcome#UNSATISFIABLE}
+     */
+    public Outcome solve() {
+        return solve(() -> false);
+    }
+
+    /**
+     * Search for a model, until one is found, the formula is shown to
+     * be unsatisfiable, or the caller asks to stop. The request to stop
+     * is polled after every few conflicts.
+     *
+     * @param stop yields {@code true} if the search should be abandoned
+     *
+     * @return the outcome of the search
+     */
+    public Outcome solve(BooleanSupplier stop) {
+        if (!ok) return Outcome.UNSATISFIABLE;
+        cancelUntil(0);
+        if (maxLearnts == 0) maxLearnts = Math.max(clauses.size() / 3, 2000);
+        try {
+            for (long run = 0;; run++) {
+                final Outcome result =
+                    search(luby(run) * RESTART_UNIT, stop);
+                if (result != null) return result;
+                if (stop.getAsBoolean()) return Outcome.UNKNOWN;
+                restarts++;
+            }
+        } finally {
+            cancelUntil(0);
+        }
+    }
+
+    /**
+     * Search until an outcome is reached, or a number of conflicts
+     * have occurred.
+     *
+     * @param conflictLimit the number of conflicts allowed
+     *
+     * @param stop yields {@code true} if the search should be abandoned
+     *
+     * @return the outcome; or {@code null} if the search should be
+     * restarted
+     */
+    private Outcome search(long conflictLimit, BooleanSupplier stop) {
+        long conflictCount = 0;
+        for (;;) {
+            final Clause confl = propagate();
+            if (confl != null) {
+                conflicts++;
+                conflictCount++;
+                if (decisionLevels == 0) {
+                    ok = false;
+                    return Outcome.UNSATISFIABLE;
+                }
+                final int backjump = analyze(confl);
+                cancelUntil(backjump);
+                if (learntSize == 1) {
+                    enqueue(learnt[0], null);
+                } else {
+                    final Clause c =
+                        new Clause(Arrays.copyOf(learnt, learntSize), true);
+                    c.lbd = computeLbd(c.lits);
+                    learnts.add(c);
+                    attach(c);
+                    bumpClause(c);
+                    enqueue(c.lits[0], c);
+                }
+                varInc /= VAR_DECAY;
+                clauseInc /= CLAUSE_DECAY;
+                if ((conflicts & 1023) == 0 && stop.getAsBoolean())
+                    return Outcome.UNKNOWN;
+                continue;
+            }
+
+            if (conflictCount >= conflictLimit) {
+                cancelUntil(0);
+                return null;
+            }
+
+            if (learnts.size() - trailSize >= maxLearnts) {
+                reduceLearnts();
+                maxLearnts *= 1.1;
+            }
+
+            /* Pick an unassigned variable of greatest activity. */
+            int next = -1;
+            while (!order.isEmpty()) {
+                final int v = order.removeMax();
+                if (assigns[v] == UNDEF) {
+                    next = v;
+                    break;
+                }
+            }
+            if (next < 0) {
+                /* All variables are assigned without conflict. */
+                if (model.length < vars) model = new boolean[vars];
+                for (int v = 0; v < vars; v++)
+                    model[v] = assigns[v] == TRUE;
+                return Outcome.SATISFIABLE;
+            }
+            decisions++;
+            newDecisionLevel();
+            enqueue(polarity[next] ? 2 * next : 2 * next + 1, null);
+        }
+    }
+
+    /**
+     * Get the value of a variable in the last model found.
+     *
+     * @param variable the variable number
+     *
+     * @return the variable's value
+     *
+     * @throws IllegalArgumentException if the variable does not exist
+     */
+    public boolean value(int variable) {
+        if (variable < 1 || variable > vars)
+            throw new IllegalArgumentException("no variable " + variable);
+        return variable <= model.length && model[variable - 1];
+    }
+
+    /**
+     * Get the number of conflicts encountered.
+     *
+     * @return the number of conflicts so far
+     */
+    public long conflicts() {
+        return conflicts;
+    }
+
+    /**
+     * Get the number of decisions made.
+     *
+     * @return the number of decisions so far
+     */
+    public long decisions() {
+        return decisions;
+    }
+
+    /**
+     * Get the number of assignments propagated.
+     *
+     * @return the number of propagations so far
+     */
+    public long propagations() {
+        return propagations;
+    }
+
+    /**
+     * Get the number of restarts.
+     *
+     * @return the number of restarts so far
+     */
+    public long restarts() {
+        return restarts;
+    }
+
+    /**
+     * Orders unassigned variables by activity, as a binary max-heap.
+     */
+    private final class VarHeap {
+        private int[] heap = new int[16];
+
+        private int[] indices = new int[0];
+
+        private int size;
+
+        boolean contains(int v) {
+            return v < indices.length && indices[v] >= 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void insert(int v) {
+            if (v >= indices.length) {
+                final int old = indices.length;
+                indices = Arrays.copyOf(indices, Math.max(v + 1, old * 2));
+                Arrays.fill(indices, old, indices.length, -1);
+            }
+            if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+            heap[size] = v;
+            indices[v] = size;
+            up(size++);
+        }
+
+        void increased(int v) {
+            up(indices[v]);
+        }
+
+        int removeMax() {
+            final int top = heap[0];
+            final int last = heap[--size];
+            indices[top] = -1;
+            if (size > 0) {
+                heap[0] = last;
+                indices[last] = 0;
+                down(0);
+            }
+            return top;
+        }
+
+        private void up(int i) {
+            final int v = heap[i];
+            while (i > 0) {
+                final int parent = (i - 1) >> 1;
+                if (activity[heap[parent]] >= activity[v]) break;
+                heap[i] = heap[parent];
+                indices[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = v;
+            indices[v] = i;
+        }
+
+        private void down(int i) {
+            final int v = heap[i];
+            for (;;) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size
+                    && activity[heap[child + 1]] > activity[heap[child]])
+                    child++;
+                if (activity[heap[child]] <= activity[v]) break;
+                heap[i] = heap[child];
+                indices[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = v;
+            indices[v] = i;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.sat;
+
+import java.util.Arrays;
+import java.util.List;
+import uk.ac.lancs.nonogram.clue.Block;
+import uk.ac.lancs.nonogram.clue.Colors;
+import uk.ac.lancs.nonogram.layout.Cell;
+import uk.ac.lancs.nonogram.layout.Layout;
+import uk.ac.lancs.nonogram.layout.Line;
+
+/**
+ * Encodes a puzzle layout as clauses of a {@link CdclSolver}.
+ *
+ * <p>
+ * Each cell has one variable per colour, exactly one of which is true.
+ * Each line's clue is expressed as a deterministic automaton reading
+ * the line's cells in order. Its states are the gaps before, between
+ * and after blocks, and each position within each block. A variable
+ * represents the automaton being in a given state after reading a
+ * given number of cells, but only for states that can be reached from
+ * the start in that many cells, and that can still reach acceptance in
+ * the remaining cells. Clauses propagate state forwards through cell
+ * colours, and back from each state to the colour that enters it and
+ * the states that precede it, so that the solver can deduce as much as
+ * a line solver from a partial line.
+ *
+ * @author simpsons
+ */
+final class LayoutEncoder {
+    private final CdclSolver solver;
+
+    private final int colors;
+
+    /**
+     * The variable of each cell and colour, indexed by cell index times
+     * colour count plus colour
+     */
+    private final int[] cellVars;
+
+    private final int cellCount;
+
+    private int[] clause = new int[8];
+
+    private int clauseSize;
+
+    /**
+     * Encode a layout.
+     *
+     * @param layout the layout to encode
+     *
+     * @param solver the solver to add variables and clauses to
+     */
+    LayoutEncoder(Layout layout, CdclSolver solver) {
+        this.solver = solver;
+        this.colors = layout.colors();
+        this.cellCount = layout.cells().size();
+        this.cellVars = new int[cellCount * colors];
+
+        /* Each cell has exactly one colour. */
+        for (Cell cell : layout.cells()) {
+            final int base = cell.index() * colors;
+            for (int c = 0; c < colors; c++)
+                cellVars[base + c] = solver.newVariable();
+            solver.addClause(Arrays.copyOfRange(cellVars, base,
+                                                base + colors));
+            for (int c1 = 0; c1 < colors; c1++)
+                for (int c2 = c1 + 1; c2 < colors; c2++)
+                    solver.addClause(-cellVars[base + c1],
+                                     -cellVars[base + c2]);
+        }
+
+        for (Line line : layout.lines())
+            encode(line);
+    }
+
+    private int cellVar(Cell cell, int color) {
+        return cellVars[cell.index() * colors + color];
+    }
+
+    private void begin() {
+        clauseSize = 0;
+    }
+
+    private void add(int lit) {
+        if (clauseSize == clause.length)
+            clause = Arrays.copyOf(clause, clauseSize * 2);
+        clause[clauseSize++] = lit;
+    }
+
+    private void end() {
+        solver.addClause(Arrays.copyOf(clause, clauseSize));
+    }
+
+    private void encode(Line line) {
+        final List<Cell> cells = line.cells();
+        final List<Block> clue = line.clue();
+        final int len = cells.size();
+        final int blocks = clue.size();
+
+        /* States 0 to blocks are the gaps, numbered by how many blocks
+         * precede them. The remaining states are positions within
+         * blocks, the first of each block at start[k]. */
+        final int[] start = new int[blocks + 1];
+        start[0] = blocks + 1;
+        for (int k = 0; k < blocks; k++)
+            start[k + 1] = start[k] + clue.get(k).length;
+        final int states = start[blocks];
+
+        /* Work out the transitions, and the colour that leads into each
+         * state. */
+        final int[] trans = new int[states * colors];
+        Arrays.fill(trans, -1);
+        final int[] entry = new int[states];
+        for (int k = 0; k <= blocks; k++) {
+            trans[k * colors] = k;
+            if (k < blocks) trans[k * colors + clue.get(k).color] = start[k];
+        }
+        for (int k = 0; k < blocks; k++) {
+            final Block block = clue.get(k);
+            for (int j = 0; j < block.length; j++) {
+                final int q = start[k] + j;
+                entry[q] = block.color;
+                if (j + 1 < block.length) {
+                    trans[q * colors + block.color] = q + 1;
+                    continue;
+                }
+
+                /* The block is complete. It can be followed by a gap,
+                 * or immediately by a block of another colour. */
+                trans[q * colors] = k + 1;
+                if (k + 1 < blocks && clue.get(k + 1).color != block.color)
+                    trans[q * colors + clue.get(k + 1).color] = start[k + 1];
+            }
+        }
+
+        /* Find the states that can be reached after each number of
+         * cells, and those that can still lead to acceptance. */
+        final boolean[][] live = new boolean[len + 1][states];
+        live[0][0] = true;
+        for (int i = 0; i < len; i++)
+            for (int q = 0; q < states; q++) {
+                if (!live[i][q]) continue;
+                for (int c = 0; c < colors; c++) {
+                    final int t = trans[q * colors + c];
+                    if (t >= 0) live[i + 1][t] = true;
+                }
+            }
+        final boolean[] accept = new boolean[states];
+        accept[blocks] = true;
+        if (blocks > 0) accept[states - 1] = true;
+        boolean[] later = accept;
+        for (int i = len; i >= 0; i--) {
+            final boolean[] now = new boolean[states];
+            for (int q = 0; q < states; q++) {
+                if (i == len) {
+                    now[q] = accept[q];
+                } else {
+                    for (int c = 0; c < colors && !now[q]; c++) {
+                        final int t = trans[q * colors + c];
+                        now[q] = t >= 0 && later[t];
+                    }
+                }
+                live[i][q] &= now[q];
+            }
+            later = now;
+        }
+        if (!live[0][0]) {
+            /* The clue can't fit in the line. */
+            solver.addClause();
+            return;
+        }
+
+        /* Create state variables, except at the start and end, where
+         * all live states are known to hold or be acceptable. */
+        final int[][] vars = new int[len + 1][];
+        for (int i = 1; i < len; i++) {
+            vars[i] = new int[states];
+            begin();
+            for (int q = 0; q < states; q++)
+                if (live[i][q]) add(vars[i][q] = solver.newVariable());
+            end();
+        }
+
+        for (int i = 0; i < len; i++) {
+            final Cell cell = cells.get(i);
+            for (int q = 0; q < states; q++) {
+                if (!live[i][q]) continue;
+
+                /* Each colour leads to the next state, or is ruled
+                 * out. */
+                for (int c = 0; c < colors; c++) {
+                    final int t = trans[q * colors + c];
+                    final boolean onward = t >= 0 && live[i + 1][t];
+                    if (onward && i + 1 == len) continue;
+                    begin();
+                    if (i > 0) add(-vars[i][q]);
+                    add(-cellVar(cell, c));
+                    if (onward) add(vars[i + 1][t]);
+                    end();
+                }
+            }
+
+            /* Each state after this cell implies the colour that
+             * enters it, and one of the states that lead to it. */
+            if (i + 1 == len) continue;
+            for (int t = 0; t < states; t++) {
+                if (!live[i + 1][t]) continue;
+                solver.addClause(-vars[i + 1][t],
+                                 cellVar(cell, t <= blocks ? 0 : entry[t]));
+                if (i == 0) continue;
+                begin();
+                add(-vars[i + 1][t]);
+                for (int q = 0; q < states; q++) {
+                    if (!live[i][q]) continue;
+                    for (int c = 0; c < colors; c++)
+                        if (trans[q * colors + c] == t) {
+                            add(vars[i][q]);
+                            break;
+                        }
+                }
+                end();
+            }
+        }
+    }
+
+    /**
+     * Get the cell states of the solver's last model.
+     *
+     * @return the colour set of each cell, indexed by cell number
+     */
+    long[] decode() {
+        final long[] result = new long[cellCount];
+        for (int i = 0; i < cellCount; i++)
+            for (int c = 0; c < colors; c++)
+                if (solver.value(cellVars[i * colors + c])) {
+                    result[i] = Colors.of(c);
+                    break;
+                }
+        return result;
+    }
+
+    /**
+     * Rule out a solution, so that the solver will find another.
+     *
+     * @param cells the cell states of the solution, as returned by
+     * {@link #decode()}
+     *
+     * @return {@code false} if no other solution can exist
+     */
+    boolean block(long[] cells) {
+        final int[] lits = new int[cellCount];
+        for (int i = 0; i < cellCount; i++)
+            lits[i] = -cellVars[i * colors + Colors.color(cells[i])];
+        return solver.addClause(lits);
+    }
+}
@@ -0,0 +1,159 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.sat;
+
+import java.util.ArrayList;
+import java.util.List;
+import uk.ac.lancs.nonogram.layout.Layout;
+import uk.ac.lancs.nonogram.solver.SolveBudget;
+
+/**
+ * Solves puzzles by encoding them as propositional formulae, and
+ * deciding them with a {@link CdclSolver}. This is an alternative to
+ * {@link uk.ac.lancs.nonogram.solver.Grid}, which may do better on
+ * puzzles that need much guessing, as clauses learned from one guess
+ * are applied to all others. Solutions are enumerated by ruling out
+ * each one found, and searching again.
+ *
+ * <p>
+ * Solving runs entirely on the calling thread.
+ *
+ * @author simpsons
+ */
+public final class SatEngine {
+    private final CdclSolver solver = new CdclSolver();
+
+    private final LayoutEncoder encoder;
+
+    private final List<long[]> solutions = new ArrayList<>();
+
+    private boolean exhausted;
+
+    private boolean limitReached;
+
+    private boolean budgetExceeded;
+
+    /**
+     * Encode a puzzle layout.
+     *
+     * @param layout the layout to be solved
+     */
+    public SatEngine(Layout layout) {
+        this.encoder = new LayoutEncoder(layout, solver);
+    }
+
+    /**
+     * Search for solutions.
+     *
+     * @param solutionLimit the maximum number of solutions to find, or
+     * zero for no limit
+     *
+     * @param budget the limits on the search, of which only the
+     * deadline and any other limit already exceeded are heeded
+     *
+     * @return the solutions found, in the order they were found, each
+     * an array of colour sets indexed by cell number
+     *
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public List<long[]> solve(int solutionLimit, SolveBudget budget) {
+        if (solutionLimit < 0)
+            throw new IllegalArgumentException("-ve solution limit: "
+                + solutionLimit);
+        while (!exhausted) {
+            if (solutionLimit > 0 && solutions.size() >= solutionLimit) {
+                limitReached = true;
+                break;
+            }
+            switch (solver.solve(() -> budget.isExceeded()
+                || Thread.currentThread().isInterrupted())) {
+            case SATISFIABLE:
+                long[] cells = encoder.decode();
+                solutions.add(cells);
+                if (!encoder.block(cells)) exhausted = true;
+                break;
+
+            case UNSATISFIABLE:
+                exhausted = true;
+                break;
+
+            case UNKNOWN:
+                budgetExceeded = true;
+                return getSolutions();
+            }
+        }
+        return getSolutions();
+    }
+
+    /**
+     * Get the solutions found so far.
+     *
+     * @return a copy of the list of solutions in the order they were
+     * found
+     */
+    public List<long[]> getSolutions() {
+        return new ArrayList<>(solutions);
+    }
+
+    /**
+     * Determine whether the search stopped because the solution limit
+     * was reached.
+     *
+     * @return {@code true} if the solution limit was reached
+     */
+    public boolean isLimitReached() {
+        return limitReached;
+    }
+
+    /**
+     * Determine whether the search was abandoned because the budget
+     * was exceeded, or the calling thread was interrupted.
+     *
+     * @return {@code true} if the search was abandoned
+     */
+    public boolean isBudgetExceeded() {
+        return budgetExceeded;
+    }
+
+    /**
+     * Get the solver used by this engine, to examine its statistics.
+     *
+     * @return the underlying solver
+     */
+    public CdclSolver getSolver() {
+        return solver;
+    }
+}
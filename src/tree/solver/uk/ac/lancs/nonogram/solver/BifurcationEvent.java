@@ -0,0 +1,78 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Records a guess for JDK Flight Recorder. The duration covers the
+ * cloning of the grid to explore the alternative colours, and the
+ * application of the guess to the original.
+ *
+ * @author simpsons
+ */
+@Name("uk.ac.lancs.nonogram.Bifurcation")
+@Label("Bifurcation")
+@Category({ "Nonogram", "Solver" })
+@Description("A grid split by guessing the colour of a cell")
+final class BifurcationEvent extends jdk.jfr.Event {
+    /**
+     * The type of this event, which can be consulted before the event
+     * is created, so that nothing is allocated if it is disabled
+     */
+    static final EventType TYPE =
+        EventType.getEventType(BifurcationEvent.class);
+
+    @Label("Grid")
+    @Description("The identity of the grid making the guess")
+    int grid;
+
+    @Label("Cell")
+    @Description("The index of the cell guessed at")
+    int cell;
+
+    @Label("Remaining Colours")
+    @Description("The number of colours possible at the cell")
+    int remainingColours;
+
+    @Label("Score")
+    @Description("The grid's priority, lower being more urgent")
+    double score;
+}
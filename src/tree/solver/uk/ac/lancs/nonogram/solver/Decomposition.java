@@ -0,0 +1,254 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Collects the solutions of independent parts of a stalled grid. The
+ * undetermined cells of a grid can fall into groups such that no line
+ * has undetermined cells from more than one group. Each group, or
+ * part, is then searched by its own tree of grids, and every
+ * combination of one solution from each part is a solution of the
+ * grid. If any part has no solution, the grid has none.
+ *
+ * <p>
+ * If only a limited number of solutions is wanted, a part is stopped
+ * once it holds that many, and all parts are stopped once every part
+ * has a solution and the combinations number at least the limit.
+ * Grids searching a stopped part should give up.
+ *
+ * <p>
+ * Instances are not thread-safe, and are guarded by the grid that
+ * created them.
+ *
+ * @author simpsons
+ */
+final class Decomposition {
+    private final int[][] parts;
+
+    private final List<List<long[]>> solutions;
+
+    /**
+     * The number of grids still searching each part
+     */
+    private final int[] live;
+
+    private int pending;
+
+    /**
+     * The number of solutions wanted, or 0 if there is no limit
+     */
+    private final int limit;
+
+    /**
+     * Marks each part whose search is no longer needed. The array is
+     * replaced rather than modified, so it can be read without the
+     * guarding lock.
+     */
+    private volatile boolean[] stopped;
+
+    /**
+     * Prepare to collect solutions of parts.
+     *
+     * @param parts the indices of the cells of each part
+     *
+     * @param limit the number of solutions of the whole grid wanted;
+     * or 0 if there is no limit
+     */
+    Decomposition(List<int[]> parts, int limit) {
+        this.parts = parts.toArray(new int[parts.size()][]);
+        this.solutions = new ArrayList<>(this.parts.length);
+        for (int i = 0; i < this.parts.length; i++)
+            this.solutions.add(new ArrayList<>());
+        this.live = new int[this.parts.length];
+        this.pending = this.parts.length;
+        this.limit = limit;
+        this.stopped = new boolean[this.parts.length];
+    }
+
+    /**
+     * Get the number of parts.
+     *
+     * @return the number of parts
+     */
+    int size() {
+        return parts.length;
+    }
+
+    /**
+     * Get the cells of a part.
+     *
+     * @param part the part index
+     *
+     * @return the indices of the part's cells
+     */
+    int[] cells(int part) {
+        return parts[part];
+    }
+
+    /**
+     * Account for a new grid searching a part.
+     *
+     * @param part the part index
+     */
+    void opened(int part) {
+        live[part]++;
+    }
+
+    /**
+     * Account for a grid that has stopped searching a part.
+     *
+     * @param part the part index
+     *
+     * @return {@code true} if the part has no more grids searching it
+     */
+    boolean closed(int part) {
+        assert live[part] > 0;
+        if (--live[part] > 0) return false;
+        pending--;
+        return true;
+    }
+
+    /**
+     * Record a solution of a part. Nothing is recorded if the part has
+     * been stopped.
+     *
+     * @param part the part index
+     *
+     * @param cells the cell states of the grid that solved the part
+     *
+     * @return {@code true} if more solutions of the part are wanted
+     */
+    boolean record(int part, long[] cells) {
+        if (stopped[part]) return false;
+        final int[] indices = parts[part];
+        final long[] solution = new long[indices.length];
+        for (int i = 0; i < indices.length; i++)
+            solution[i] = cells[indices[i]];
+        solutions.get(part).add(solution);
+        if (limit == 0) return true;
+
+        /* Stop every part if the combinations are already enough. */
+        long product = 1;
+        for (List<long[]> found : solutions) {
+            product *= found.size();
+            if (product == 0 || product >= limit) break;
+        }
+        if (product >= limit) {
+            boolean[] all = new boolean[parts.length];
+            Arrays.fill(all, true);
+            stopped = all;
+            return false;
+        }
+
+        /* Stop this part if it alone has enough. */
+        if (solutions.get(part).size() < limit) return true;
+        boolean[] next = stopped.clone();
+        next[part] = true;
+        stopped = next;
+        return false;
+    }
+
+    /**
+     * Determine whether no more solutions of a part are wanted. No
+     * lock is needed.
+     *
+     * @param part the part index
+     *
+     * @return {@code true} if the part's search should be abandoned
+     */
+    boolean isStopped(int part) {
+        return stopped[part];
+    }
+
+    /**
+     * Determine whether every part has finished being searched.
+     *
+     * @return {@code true} if no more solutions are expected
+     */
+    boolean isComplete() {
+        return pending == 0;
+    }
+
+    /**
+     * Determine whether the search of a finished part found nothing.
+     *
+     * @param part the part index
+     *
+     * @return {@code true} if the part is finished, and has no
+     * solution
+     */
+    boolean isFailed(int part) {
+        return live[part] == 0 && solutions.get(part).isEmpty();
+    }
+
+    /**
+     * Combine the solutions of all parts.
+     *
+     * @param base the cell states of the stalled grid, which are
+     * assumed where no part applies
+     *
+     * @param action invoked with the cell states of each combination,
+     * in a fresh array, and returning {@code false} to stop
+     */
+    void combine(long[] base, Predicate<? super long[]> action) {
+        for (List<long[]> part : solutions)
+            if (part.isEmpty()) return;
+
+        /* Step through the combinations like an odometer. */
+        final int[] choice = new int[parts.length];
+        for (;;) {
+            final long[] result = base.clone();
+            for (int p = 0; p < parts.length; p++) {
+                final int[] indices = parts[p];
+                final long[] solution = solutions.get(p).get(choice[p]);
+                for (int i = 0; i < indices.length; i++)
+                    result[indices[i]] = solution[i];
+            }
+            if (!action.test(result)) return;
+
+            int p = 0;
+            while (p < parts.length
+                && ++choice[p] == solutions.get(p).size())
+                choice[p++] = 0;
+            if (p == parts.length) return;
+        }
+    }
+}
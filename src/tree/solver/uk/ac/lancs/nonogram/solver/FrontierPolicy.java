@@ -0,0 +1,192 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+/**
+ * Bounds the frontier of a search, i.e., the grids that exist at once,
+ * by switching a {@link GridManager} from best-first to depth-first
+ * selection. Best-first selection prefers the grid with the best score
+ * wherever it lies in the search tree, so siblings left behind by
+ * guesses accumulate without limit. When the frontier reaches a cap on
+ * the number of grids or their estimated memory, the manager instead
+ * prefers the most recently created grids, finishing the current
+ * subtree before opening new ones. Best-first selection resumes once
+ * the frontier has shrunk to three quarters of the cap.
+ *
+ * <p>
+ * Unlike the grid limit of a {@link SolveBudget}, reaching the cap
+ * does not stop the search.
+ *
+ * @author simpsons
+ */
+public final class FrontierPolicy {
+    private final int maxGrids;
+
+    private final long maxBytes;
+
+    private FrontierPolicy(Builder builder) {
+        this.maxGrids = builder.grids;
+        this.maxBytes = builder.bytes;
+    }
+
+    /**
+     * Prepare to create a policy.
+     *
+     * @return a configuration with no caps
+     *
+     * @constructor
+     */
+    public static Builder start() {
+        return new Builder();
+    }
+
+    /**
+     * Create a policy with no caps, so selection is always best-first.
+     *
+     * @return a new unbounded policy
+     */
+    public static FrontierPolicy unbounded() {
+        return start().create();
+    }
+
+    /**
+     * @resume A mutable configuration for a frontier policy
+     *
+     * @author simpsons
+     */
+    public static final class Builder {
+        private Builder() {}
+
+        private int grids = Integer.MAX_VALUE;
+
+        private long bytes = Long.MAX_VALUE;
+
+        /**
+         * Set the number of grids at which to switch to depth-first
+         * selection.
+         *
+         * @param amount the grid cap
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the amount is not
+         * positive
+         */
+        public Builder grids(int amount) {
+            if (amount < 1)
+                throw new IllegalArgumentException("non-positive grids: "
+                    + amount);
+            this.grids = amount;
+            return this;
+        }
+
+        /**
+         * Set the estimated memory held by grids at which to switch to
+         * depth-first selection.
+         *
+         * @param amount the memory cap in bytes
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the amount is not
+         * positive
+         */
+        public Builder bytes(long amount) {
+            if (amount < 1)
+                throw new IllegalArgumentException("non-positive bytes: "
+                    + amount);
+            this.bytes = amount;
+            return this;
+        }
+
+        /**
+         * Create a policy from this configuration.
+         *
+         * @return the new policy
+         */
+        public FrontierPolicy create() {
+            return new FrontierPolicy(this);
+        }
+    }
+
+    /**
+     * Determine whether a frontier has reached a cap.
+     *
+     * @param grids the number of grids in the frontier
+     *
+     * @param bytes the estimated memory held by the frontier
+     *
+     * @return {@code true} if selection should become depth-first
+     */
+    boolean isFull(int grids, long bytes) {
+        return grids >= maxGrids || bytes >= maxBytes;
+    }
+
+    /**
+     * Determine whether a frontier has shrunk enough to resume
+     * best-first selection.
+     *
+     * @param grids the number of grids in the frontier
+     *
+     * @param bytes the estimated memory held by the frontier
+     *
+     * @return {@code true} if selection should become best-first
+     */
+    boolean hasRoom(int grids, long bytes) {
+        return grids <= maxGrids - maxGrids / 4
+            && bytes <= maxBytes - maxBytes / 4;
+    }
+
+    /**
+     * Get the grid cap.
+     *
+     * @return the number of grids at which selection becomes
+     * depth-first
+     */
+    public int getMaxGrids() {
+        return maxGrids;
+    }
+
+    /**
+     * Get the memory cap.
+     *
+     * @return the estimated bytes at which selection becomes
+     * depth-first
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -35,11 +35,17 @@
 
 package uk.ac.lancs.nonogram.solver;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.stream.Collectors;
 import uk.ac.lancs.nonogram.clue.ArrayCellSequence;
 import uk.ac.lancs.nonogram.clue.Colors;
 import uk.ac.lancs.nonogram.display.Display;
@@ -87,12 +93,123 @@ public final class Grid {
 
     private final Layout layout;
 
+    /**
+     * This is shared with all clones, and limits the work done on the
+     * puzzle as a whole.
+     */
+    private final SolveBudget budget;
+
+    /**
+     * This is shared with all clones, and records line states found to
+     * be inconsistent in any of them.
+     */
+    private final NogoodStore nogoods;
+
+    /**
+     * For each line, this holds all the lines with the same clue and
+     * length, including itself. Lines in the same group share an array.
+     * It is shared with all clones.
+     */
+    private final int[][] twins;
+
+    /**
+     * The maximum number of inconsistent states recorded for each line
+     */
+    private static final int NOGOODS_PER_LINE = 8;
+
+    /**
+     * If this grid is a probe, this is the grid that created it, and to
+     * which it reports; otherwise {@code null}
+     */
+    private final Grid prober;
+
+    /**
+     * If this grid is a probe, this identifies the probed cell among
+     * the prober's candidates.
+     */
+    private final int probeIndex;
+
+    /**
+     * This holds the outcomes of probes while they are running.
+     */
+    private ProbeRound round;
+
+    /**
+     * This is set when probing has failed to narrow the current state,
+     * so the next stall should be resolved by guessing.
+     */
+    private boolean probed;
+
+    /**
+     * The maximum number of cells probed before guessing
+     */
+    private static final int PROBE_CELLS = 3;
+
+    /**
+     * If this grid searches one part of a stalled grid, this is the
+     * stalled grid, to which solutions of the part are reported;
+     * otherwise {@code null}
+     */
+    private final Grid owner;
+
+    /**
+     * If this grid searches one part of a stalled grid, this identifies
+     * the part among the owner's parts.
+     */
+    private final int partIndex;
+
+    /**
+     * If this grid searches one part of a stalled grid, this holds the
+     * cells of the part, and guesses are only made within it;
+     * otherwise {@code null}. {@link #cellsRemaining} only counts cells
+     * within the region.
+     */
+    private final BitSet region;
+
+    /**
+     * This holds the solutions of independent parts while they are
+     * being searched. It is modified only under this grid's lock, but
+     * may be read without it to see if a part has been stopped.
+     */
+    private volatile Decomposition split;
+
+    /**
+     * This is set when this grid has been retained or discarded, so it
+     * is only released from the budget once.
+     */
+    private boolean released;
+
+    /**
+     * This identifies the grid to the budget's {@link SessionRecorder},
+     * if it has one, and is otherwise -1.
+     */
+    private final int recordId;
+
+    /**
+     * This is the number of grids created from this one. It identifies
+     * each of them to the budget's {@link SessionRecorder}.
+     */
+    private int children;
+
     /**
      * We keep a 1-dimensional array for cell states. This is sufficient
      * to give each cell an identity, and the layout only refers to
-     * cells by such identities.
+     * cells by such identities. It is {@code null} while the grid is
+     * parked.
+     */
+    private long[] cells;
+
+    /**
+     * This holds the cell states in the form of {@link PackedCells}
+     * while the grid is parked, and is otherwise {@code null}.
      */
-    private final long[] cells;
+    private byte[] parked;
+
+    /**
+     * This is the number of bytes held for cell states, as counted by
+     * {@link #estimateBytes()}.
+     */
+    private volatile long cellBytes;
 
     /**
      * We keep a 1-dimensional array for line descriptions. Again, the
@@ -129,6 +246,13 @@ public final class Grid {
      */
     private final int[] levels;
 
+    /**
+     * Holds the lines that are ready to be solved, i.e., those with a
+     * non-zero level, no activity and no locks, in order of
+     * preference.
+     */
+    private final LineQueue queue;
+
     /**
      * This is the number of guesses made to produce this grid. It is
      * used by {@link #getScore()}.
@@ -163,7 +287,38 @@ public final class Grid {
     private final Display display;
 
     /**
-     * Get the display associated with this grid.
+     * This is set if the display factory's displays ignore all updates.
+     * No display is then created, and cells are not repainted when the
+     * grid is cloned.
+     */
+    private final boolean headless;
+
+    private static final Display.Transaction IDLE =
+        new Display.Transaction() {
+            @Override
+            public void close() {}
+
+            @Override
+            public void reset() {}
+
+            @Override
+            public void setCell(int index, int color) {}
+
+            @Override
+            public void setLineActivity(int index, boolean active) {}
+
+            @Override
+            public void setLineLevel(int index, int state) {}
+        };
+
+    /**
+     * Stands in for the display of a headless grid
+     */
+    private static final Display HEADLESS = () -> IDLE;
+
+    /**
+     * Get the display associated with this grid. A headless grid has a
+     * display that ignores all updates.
      * 
      * @return the grid's associated display
      */
@@ -183,13 +338,45 @@ public final class Grid {
      * @param layout the source layout
      * 
      * @param heur the heuristic for weighting lines for selection
+     * 
+     * @param displays the factory for creating displays of this grid
+     * and its clones
      */
     public Grid(int algos, GridSink<Grid> sink, Layout layout,
                 LineHeuristic heur, DisplayFactory displays) {
+        this(algos, sink, layout, heur, displays, SolveBudget.unlimited());
+    }
+
+    /**
+     * Create a grid from a puzzle layout, with limits on the work done
+     * to solve it.
+     * 
+     * @param algos the number of line-solving algorithms that will be
+     * applied to lines from this grid
+     * 
+     * @param sink the destination for submitting this grid when it has
+     * jobs available
+     * 
+     * @param layout the source layout
+     * 
+     * @param heur the heuristic for weighting lines for selection
+     * 
+     * @param displays the factory for creating displays of this grid
+     * and its clones
+     * 
+     * @param budget the limits on work done on this grid and its
+     * clones
+     */
+    public Grid(int algos, GridSink<Grid> sink, Layout layout,
+                LineHeuristic heur, DisplayFactory displays,
+                SolveBudget budget) {
         this.guessed = 0;
         this.sink = sink;
+        this.budget = budget;
+        this.budget.gridOpened();
         this.displays = displays;
-        this.display = this.displays.newDisplay();
+        this.headless = displays.isHeadless();
+        this.display = headless ? HEADLESS : this.displays.newDisplay();
         this.algos = algos;
         this.layout = layout;
         this.colors = layout.colors();
@@ -200,12 +387,25 @@ public final class Grid {
         this.lines = new Line[lineCount];
         this.weights = new int[lineCount];
         this.locks = new int[lineCount];
+        for (int i = 0; i < lineCount; i++)
+            caches[i] = new SimpleCache();
+        this.nogoods = new NogoodStore(lineCount, NOGOODS_PER_LINE);
+        this.prober = null;
+        this.probeIndex = -1;
+        this.owner = null;
+        this.partIndex = -1;
+        this.region = null;
+        final SessionRecorder recorder = budget.getRecorder();
+        this.recordId = recorder == null ? -1 :
+            recorder.rootCreated(colors, cellCount, lineCount, algos,
+                                 sink.getSolutionLimit());
 
         /* Set all cells to 'completely unknown'. We don't need to
          * update the display, as 'unknown' is the default state. */
         cells = new long[cellCount];
         for (int i = 0; i < cells.length; i++)
             cells[i] = Colors.all(colors);
+        cellBytes = 8L * cellCount;
 
         /* Set weights and algorithm levels. Update the display to show
          * the levels. */
@@ -219,6 +419,47 @@ public final class Grid {
                 xact.setLineLevel(i, levels[i]);
             }
         }
+        queue = new LineQueue(levels);
+        for (int i = 0; i < lineCount; i++)
+            requeue(i);
+
+        /* Group lines that will always have the same solutions when
+         * their cells are in the same states. */
+        Map<List<?>, List<Integer>> groups = new HashMap<>();
+        for (int i = 0; i < lineCount; i++) {
+            if (lines[i].clue() == null) continue;
+            groups.computeIfAbsent(Arrays.asList(lines[i].clue(),
+                                                 lines[i].cells().size()),
+                                   k -> new ArrayList<>())
+                .add(i);
+        }
+        twins = new int[lineCount][];
+        Arrays.fill(twins, NO_TWINS);
+        for (List<Integer> group : groups.values()) {
+            if (group.size() < 2) continue;
+            int[] members =
+                group.stream().mapToInt(Integer::intValue).toArray();
+            for (int member : members)
+                twins[member] = members;
+        }
+    }
+
+    private static final int[] NO_TWINS = new int[0];
+
+    /**
+     * Tell the budget's recorder, if any, about a grid created from
+     * another. The source's lock must be held, unless no other thread
+     * can be working on it.
+     * 
+     * @param source the grid from which a new grid is being created
+     * 
+     * @return the identity of the new grid; or -1 if there is no
+     * recorder
+     */
+    private static int recordChild(Grid source) {
+        final SessionRecorder recorder = source.budget.getRecorder();
+        if (recorder == null) return -1;
+        return recorder.gridCreated(source.recordId, source.children++);
     }
 
     /**
@@ -228,10 +469,19 @@ public final class Grid {
      * 
      * @param bestCell the cell to make a guess at
      * 
-     * @param eliminatedColour the colour to eliminate at the best cell
+     * @param guess the colours to be left at the best cell, a subset of
+     * its current state
+     * 
+     * @param prober the grid to report to if the new grid is a probe;
+     * or {@code null} if it is an ordinary clone
+     * 
+     * @param probeIndex the index of the best cell among the prober's
+     * candidates
      */
-    private Grid(Grid source, Cell bestCell, int eliminatedColour) {
+    private Grid(Grid source, Cell bestCell, long guess, Grid prober,
+                 int probeIndex) {
         assert Thread.holdsLock(source);
+        assert (guess & ~source.cells[bestCell.index()]) == 0;
 
         /* These items can be shared, or do not need a deep copy. */
         this.colors = source.colors;
@@ -245,6 +495,26 @@ public final class Grid {
         this.lines = source.lines;
         this.layout = source.layout;
         this.displays = source.displays;
+        this.budget = source.budget;
+        this.budget.gridOpened();
+        if (budget.getMetrics() != null) budget.getMetrics().gridCloned();
+        this.recordId = recordChild(source);
+        this.nogoods = source.nogoods;
+        this.twins = source.twins;
+        this.prober = prober;
+        this.probeIndex = probeIndex;
+
+        /* A probe only reports to its prober, so it does not count as
+         * searching its source's part. */
+        this.region = source.region;
+        if (prober == null && source.owner != null) {
+            this.owner = source.owner;
+            this.partIndex = source.partIndex;
+            owner.partOpened(partIndex);
+        } else {
+            this.owner = null;
+            this.partIndex = -1;
+        }
 
         /* No need to copy lock state. The source's locks should all be
          * zero. */
@@ -260,45 +530,187 @@ public final class Grid {
             caches[i] = source.caches[i].clone();
 
         /* We must make a new display for ourselves. */
-        this.display = this.displays.newDisplay();
+        this.headless = source.headless;
+        this.display = headless ? HEADLESS : this.displays.newDisplay();
 
         /* We must copy each of the weights so we can modify them
          * independently of the source grid. */
         this.weights = Arrays.copyOf(source.weights, source.weights.length);
+        this.queue = new LineQueue(levels);
 
-        /* Cells must be copied, and colour eliminated from the best
-         * cell as the antithesis of the specified guess. */
+        /* Cells must be copied, and the guess applied to the best
+         * cell. */
         this.cells = Arrays.copyOf(source.cells, source.cells.length);
-        cells[bestCell.index()] &= ~eliminatedColour;
-        deduced++;
-        guessed++;
+        this.cellBytes = 8L * cells.length;
+        final int eliminated =
+            Long.bitCount(cells[bestCell.index()]) - Long.bitCount(guess);
+        cells[bestCell.index()] = guess;
+        if (Colors.oneLeft(guess)) cellsRemaining--;
+        deduced += eliminated;
+        guessed += eliminated;
         assert nextLine == -1;
 
         /* Update the display and the intersecting lines. */
+        try (Display.Transaction xact = display.open()) {
+            if (!headless) {
+                for (int i = 0; i < cells.length; i++)
+                    if (Colors.oneLeft(cells[i]))
+                        xact.setCell(i, Long.numberOfTrailingZeros(cells[i]));
+            }
+
+            /* Affect all lines intersecting this cell, making them
+             * moderately more favourable. */
+            bestCell.intersects().stream()
+                .forEach(line -> touchLine(line, 1, xact));
+        }
+
+        /* While we're at it, choose one of these lines as the next one
+         * worth working on. */
+        nextLine = queue.peek();
+
+        /* Note, we don't submit ourselves to the sink, as we are not
+         * yet constructed. We assume that the caller will do that. */
+    }
+
+    /**
+     * Create a grid to search one part of a stalled grid. Only the
+     * part's cells are counted as remaining, and no lines have new
+     * information, so the grid stalls at once, and guesses within the
+     * part.
+     * 
+     * @param source the stalled grid, which will own the new grid
+     * 
+     * @param part the index of the part among the source's parts
+     * 
+     * @param partCells the indices of the part's cells
+     */
+    private Grid(Grid source, int part, int[] partCells) {
+        assert Thread.holdsLock(source);
+
+        /* These items can be shared, or do not need a deep copy. */
+        this.colors = source.colors;
+        this.lineCount = source.lineCount;
+        this.cellCount = source.cellCount;
+        this.algos = source.algos;
+        this.sink = source.sink;
+        this.guessed = source.guessed;
+        this.deduced = source.deduced;
+        this.lines = source.lines;
+        this.layout = source.layout;
+        this.displays = source.displays;
+        this.budget = source.budget;
+        this.budget.gridOpened();
+        this.recordId = recordChild(source);
+        this.nogoods = source.nogoods;
+        this.twins = source.twins;
+        this.prober = null;
+        this.probeIndex = -1;
+        this.owner = source;
+        this.partIndex = part;
+        this.region = new BitSet(cellCount);
+        for (int i : partCells)
+            region.set(i);
+        this.cellsRemaining = partCells.length;
+        source.split.opened(part);
+
+        this.locks = new int[lineCount];
+        this.levels = new int[lineCount];
+        this.caches = new Cache[source.caches.length];
+        for (int i = 0; i < caches.length; i++)
+            caches[i] = source.caches[i].clone();
+        this.headless = source.headless;
+        this.display = headless ? HEADLESS : this.displays.newDisplay();
+        this.weights = Arrays.copyOf(source.weights, source.weights.length);
+        this.queue = new LineQueue(levels);
+        this.cells = Arrays.copyOf(source.cells, source.cells.length);
+        this.cellBytes = 8L * cells.length;
+
+        if (headless) return;
         try (Display.Transaction xact = display.open()) {
             for (int i = 0; i < cells.length; i++)
                 if (Colors.oneLeft(cells[i]))
                     xact.setCell(i, Long.numberOfTrailingZeros(cells[i]));
+        }
+    }
 
-            /* Affect all lines intersecting this cell. */
-            nextLine = bestCell.intersects().stream().mapToObj(line -> {
-                /* Make these lines moderately more favourable. */
-                weights[line]++;
-
-                /* Indicate that there is potentially work to be done by
-                 * all algorithms on these lines. */
-                levels[line] = algos;
-                xact.setLineLevel(line, levels[line]);
-
-                /* While we're at it, choose one of these lines as the
-                 * next one worth working on. Map each line to its line
-                 * and weight, and choose the maximum. */
-                return new int[] { line, weights[line] };
-            }).max((a, b) -> a[1] - b[1]).map(arr -> arr[0]).orElse(-1);
+    /**
+     * Create a complete grid from a combination of solutions of the
+     * parts of a stalled grid. Only immutable parts of the source are
+     * used, so its lock need not be held.
+     * 
+     * @param source the stalled grid
+     * 
+     * @param solved the determined state of every cell
+     */
+    private Grid(Grid source, long[] solved) {
+        this.colors = source.colors;
+        this.lineCount = source.lineCount;
+        this.cellCount = source.cellCount;
+        this.algos = source.algos;
+        this.sink = source.sink;
+        this.lines = source.lines;
+        this.layout = source.layout;
+        this.displays = source.displays;
+        this.budget = source.budget;
+        this.budget.gridOpened();
+        this.recordId = recordChild(source);
+        this.nogoods = source.nogoods;
+        this.twins = source.twins;
+        this.prober = null;
+        this.probeIndex = -1;
+        this.owner = null;
+        this.partIndex = -1;
+        this.region = null;
+        this.cellsRemaining = 0;
+
+        /* There is nothing left to solve, so the line state is only
+         * kept for form's sake. */
+        this.locks = new int[lineCount];
+        this.levels = new int[lineCount];
+        this.weights = new int[lineCount];
+        this.caches = new Cache[lineCount];
+        for (int i = 0; i < lineCount; i++)
+            caches[i] = new SimpleCache();
+        this.queue = new LineQueue(levels);
+        this.headless = source.headless;
+        this.display = headless ? HEADLESS : this.displays.newDisplay();
+        this.cells = solved;
+        this.cellBytes = 8L * cells.length;
+
+        if (headless) return;
+        try (Display.Transaction xact = display.open()) {
+            for (int i = 0; i < cells.length; i++)
+                xact.setCell(i, Long.numberOfTrailingZeros(cells[i]));
         }
+    }
 
-        /* Note, we don't submit ourselves to the sink, as we are not
-         * yet constructed. We assume that the caller will do that. */
+    /**
+     * Record new information on a line, so that all algorithms are
+     * applied to it again, and adjust its weight.
+     * 
+     * @param line the line number
+     * 
+     * @param gain the amount to add to the line's weight
+     * 
+     * @param xact the display transaction to show the new level
+     */
+    private void touchLine(int line, int gain, Display.Transaction xact) {
+        weights[line] += gain;
+        levels[line] = algos;
+        xact.setLineLevel(line, levels[line]);
+        requeue(line);
+    }
+
+    /**
+     * Add a line to the queue of ready lines, or move it within the
+     * queue, if it is not active or locked.
+     * 
+     * @param line the line number
+     */
+    private void requeue(int line) {
+        if (lineActivity.get(line) || locks[line] > 0) return;
+        if (queue.offer(line) && budget.getMetrics() != null)
+            budget.getMetrics().queueDepth(queue.size());
     }
 
     /**
@@ -311,7 +723,40 @@ public final class Grid {
     private void submit() {
         assert Thread.holdsLock(this);
 
-        sink.submit(this, getScore());
+        final double score = getScore();
+        if (GridEvent.TYPE.isEnabled())
+            GridEvent.emit(System.identityHashCode(this), "submit", score,
+                           cellsRemaining);
+        sink.submit(this, score);
+    }
+
+    private void withdraw() {
+        assert Thread.holdsLock(this);
+
+        if (GridEvent.TYPE.isEnabled())
+            GridEvent.emit(System.identityHashCode(this), "withdraw",
+                           getScore(), cellsRemaining);
+        sink.withdraw(this);
+    }
+
+    private void retain() {
+        assert Thread.holdsLock(this);
+
+        release(true);
+        if (GridEvent.TYPE.isEnabled())
+            GridEvent.emit(System.identityHashCode(this), "retain",
+                           getScore(), cellsRemaining);
+        sink.retain(this);
+    }
+
+    private void discard() {
+        assert Thread.holdsLock(this);
+
+        release(false);
+        if (GridEvent.TYPE.isEnabled())
+            GridEvent.emit(System.identityHashCode(this), "discard",
+                           getScore(), cellsRemaining);
+        sink.discard(this);
     }
 
     /**
@@ -328,46 +773,26 @@ public final class Grid {
         /* Do nothing if we're already primed. */
         if (nextLine >= 0) return;
 
-        /* Do nothing if we have aborted. */
-        if (aborted) {
-            sink.discard(this);
+        /* Do nothing if we have aborted, or if a grid whose part we
+         * are searching has. */
+        if (isAbandoned()) {
+            report(null);
+            discard();
             return;
         }
 
-        /* Pick the line which has the highest score of all unlocked
-         * lines. */
-        nextLine = -1;
-        boolean active = false;
-        {
-            int bestScore = Integer.MIN_VALUE;
-            int bestAlgo = 0;
-            for (int line = 0; line < lineCount; line++) {
-                /* Ignore lines already being processed. */
-                if (lineActivity.get(line)) {
-                    active = true;
-                    continue;
-                }
-
-                /* Ignore locked lines. */
-                if (locks[line] > 0) continue;
-
-                /* Ignore lines with no new information on them. */
-                if (levels[line] == 0) continue;
-
-                /* Ignore lines with more complex algorithms to be
-                 * applied next. */
-                if (levels[line] < bestAlgo) continue;
-
-                /* Ignore lines with no better score than our nextLine
-                 * so far. */
-                if (weights[line] <= bestScore) continue;
-
-                bestScore = weights[line];
-                bestAlgo = weights[line];
-                nextLine = line;
-            }
+        /* Offer no more work if the budget has been spent. The sink
+         * will find out from the budget, and deal with us. */
+        if (budget.isExceeded()) {
+            withdraw();
+            return;
         }
 
+        /* Pick the unlocked line with the simplest algorithm pending,
+         * and the longest wait among those. */
+        nextLine = queue.peek();
+        final boolean active = !lineActivity.isEmpty();
+
         /* If we've found a line, we're done. */
         if (nextLine >= 0) {
             assert nextLine < lineCount;
@@ -375,34 +800,56 @@ public final class Grid {
             return;
         }
 
-        /* We haven't found a line. Are we complete? */
-        if (cellsRemaining == 0) {
-            /* We are complete. */
-            sink.retain(this);
+        /* We haven't found a line. If other lines are still being
+         * solved, wait for them to report back before judging our
+         * completeness. */
+        if (active) {
+            withdraw();
             return;
         }
 
-        if (active) {
-            sink.withdraw(this);
+        /* A probe makes no guesses, and has no use for completion. Tell
+         * the prober what we found. */
+        if (prober != null) {
+            report(cells.clone());
+            discard();
+            return;
+        }
+
+        /* Are we complete? */
+        if (cellsRemaining == 0) {
+            /* We are complete. If we were only searching a part, the
+             * solution is only a piece of our owner's. */
+            if (owner != null) {
+                owner.partSolved(partIndex, cells);
+                discard();
+                return;
+            }
+            retain();
             return;
         }
 
+        /* If the undetermined cells fall into groups that share no
+         * line, search each group separately, rather than letting a
+         * guess in one multiply the search of the others. */
+        if (startParts()) return;
+
+        /* Before guessing, try out the best guesses on scratch copies
+         * of the grid, in case some of them can be ruled out. */
+        if (!probed && startProbes()) return;
+        probed = false;
+
         /* We need to take a guess. Select a cell and a guess to make at
          * it. */
         /* TODO: Abstract this to a plug-in. */
         Cell bestCell = null;
         int bestScore = Integer.MIN_VALUE;
         for (Cell cell : layout.cells()) {
-            int options = Long.bitCount(cells[cell.index()]);
-
-            /* We don't make guesses at cells which are known. */
-            if (options == 1) continue;
-
-            /* Work out how good this cell is for guessing. */
-            int sum =
-                cell.intersects().stream().map(line -> weights[line]).sum();
-            sum *= 1 + colors - options;
+            /* We don't make guesses at cells which are known, or
+             * outside our part. */
+            if (!isOpen(cell)) continue;
 
+            int sum = guessScore(cell);
             if (sum > bestScore) {
                 bestScore = sum;
                 bestCell = cell;
@@ -413,6 +860,16 @@ public final class Grid {
          * complete. */
         assert bestCell != null;
 
+        /* Don't guess if we can't afford another grid. */
+        if (!budget.claimBifurcation()) {
+            withdraw();
+            return;
+        }
+        if (budget.getMetrics() != null) budget.getMetrics().guessed();
+        final BifurcationEvent event =
+            BifurcationEvent.TYPE.isEnabled() ? new BifurcationEvent() : null;
+        if (event != null) event.begin();
+
         /* Pick any remaining colour at the best cell to be ourk
          * guess. */
         final long cellState = cells[bestCell.index()];
@@ -423,32 +880,398 @@ public final class Grid {
         {
             /* Clone this grid, telling it to make the opposite guess,
              * and start it. */
-            Grid other = new Grid(this, bestCell, selectedColour);
-            other.determineNextLine();
+            Grid other =
+                new Grid(this, bestCell,
+                         cellState & ~Colors.of(selectedColour), null, -1);
+            if (budget.getRecorder() != null)
+                budget.getRecorder().guessed(recordId, bestCell.index(),
+                                             selectedColour, other.recordId);
+            synchronized (other) {
+                /* Another branch might already have shown that the
+                 * clone's guess leads nowhere. */
+                if (other.violatesNogood(bestCell.intersects()))
+                    other.prune();
+
+                /* The clone is already primed with a line, so it won't
+                 * submit itself. */
+                if (other.nextLine >= 0)
+                    other.submit();
+                else
+                    other.determineNextLine();
+            }
         }
 
         /* Apply our own guess, updating the display, and selecting one
          * of the lines affected. */
         try (Display.Transaction xact = display.open()) {
             cells[bestCell.index()] = Colors.of(selectedColour);
+            cellsRemaining--;
             deduced += remainingColours - 1;
             guessed += remainingColours - 1;
             xact.setCell(bestCell.index(), selectedColour);
 
-            nextLine = bestCell.intersects().stream().mapToObj(line -> {
-                weights[line] += remainingColours - 1;
-                levels[line] = algos;
-                xact.setLineLevel(line, levels[line]);
+            bestCell.intersects().stream()
+                .forEach(line -> touchLine(line, remainingColours - 1, xact));
+        }
+        nextLine = queue.peek();
+        if (event != null && event.shouldCommit()) {
+            event.grid = System.identityHashCode(this);
+            event.cell = bestCell.index();
+            event.remainingColours = remainingColours;
+            event.score = getScore();
+            event.commit();
+        }
 
-                return new int[] { line, weights[line] };
-            }).max((a, b) -> a[1] - b[1]).map(arr -> arr[0])
-                .orElse(Integer.MIN_VALUE);
+        /* Give up now if another branch has shown our guess to lead
+         * nowhere. */
+        if (violatesNogood(bestCell.intersects())) {
+            prune();
+            determineNextLine();
+            return;
         }
 
         /* We are ready for activity. */
         submit();
     }
 
+    /**
+     * Work out how good a cell is for guessing at.
+     * 
+     * @param cell the cell to be assessed
+     * 
+     * @return the cell's score, higher being better
+     */
+    private int guessScore(Cell cell) {
+        int options = Long.bitCount(cells[cell.index()]);
+        int sum = cell.intersects().stream().map(line -> weights[line]).sum();
+        return sum * (1 + colors - options);
+    }
+
+    /**
+     * Determine whether a cell is worth guessing at, i.e., it is not
+     * yet determined, and is within the part this grid is searching.
+     * 
+     * @param cell the cell to be assessed
+     * 
+     * @return {@code true} if the cell is open to guessing
+     */
+    private boolean isOpen(Cell cell) {
+        return !Colors.oneLeft(cells[cell.index()])
+            && (region == null || region.get(cell.index()));
+    }
+
+    /**
+     * Divide the open cells into parts, such that no line has
+     * undetermined cells in more than one part.
+     * 
+     * @return the indices of the cells of each part, in ascending
+     * order
+     */
+    private List<int[]> findParts() {
+        assert Thread.holdsLock(this);
+
+        final BitSet open = new BitSet(cellCount);
+        for (Cell cell : layout.cells())
+            if (isOpen(cell)) open.set(cell.index());
+
+        /* Flood each part from its lowest cell, visiting each line no
+         * more than once. */
+        final List<int[]> result = new ArrayList<>();
+        final BitSet visited = new BitSet(lineCount);
+        final int[] stack = new int[cellCount];
+        int start;
+        while ((start = open.nextSetBit(0)) >= 0) {
+            final BitSet part = new BitSet(cellCount);
+            int depth = 0;
+            open.clear(start);
+            stack[depth++] = start;
+            while (depth > 0) {
+                final int index = stack[--depth];
+                part.set(index);
+                final BitSet crossing = layout.cells().get(index).intersects();
+                for (int line = crossing.nextSetBit(0); line >= 0;
+                     line = crossing.nextSetBit(line + 1)) {
+                    if (visited.get(line)) continue;
+                    visited.set(line);
+                    for (Cell cell : lines[line].cells()) {
+                        if (!open.get(cell.index())) continue;
+                        open.clear(cell.index());
+                        stack[depth++] = cell.index();
+                    }
+                }
+            }
+            result.add(part.stream().toArray());
+        }
+        return result;
+    }
+
+    /**
+     * Split the open cells into independent parts, and start a grid to
+     * search each part. This grid is withdrawn until every part has
+     * been searched, and then the solutions of the parts are combined.
+     * 
+     * @return {@code true} if the parts have been started;
+     * {@code false} if there is only one part, or grids for the parts
+     * could not be afforded
+     */
+    private boolean startParts() {
+        assert Thread.holdsLock(this);
+        assert split == null;
+
+        final List<int[]> parts = findParts();
+        if (parts.size() < 2) return false;
+        if (!budget.canOpenGrids(parts.size())) return false;
+        if (budget.getMetrics() != null) budget.getMetrics().gridDecomposed();
+
+        /* Create all the parts before any can report. */
+        split = new Decomposition(parts, sink.getSolutionLimit());
+        final List<Grid> started = new ArrayList<>(parts.size());
+        for (int i = 0; i < parts.size(); i++)
+            started.add(new Grid(this, i, parts.get(i)));
+
+        withdraw();
+        for (Grid part : started) {
+            synchronized (part) {
+                part.determineNextLine();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Account for a new grid searching one of this grid's parts.
+     * 
+     * @param part the index of the part
+     */
+    private synchronized void partOpened(int part) {
+        split.opened(part);
+    }
+
+    /**
+     * Record a solution of one of this grid's parts. Once the part has
+     * enough solutions, grids still searching it are abandoned.
+     * 
+     * @param part the index of the part
+     * 
+     * @param solved the cell states of the grid that solved the part
+     * 
+     * @return {@code true} if more solutions of the part are wanted
+     */
+    private synchronized boolean partSolved(int part, long[] solved) {
+        return split.record(part, solved);
+    }
+
+    /**
+     * Determine whether one of this grid's parts needs no more
+     * searching. No lock is needed.
+     * 
+     * @param part the index of the part
+     * 
+     * @return {@code true} if the part has been stopped
+     */
+    private boolean isPartStopped(int part) {
+        final Decomposition current = split;
+        return current != null && current.isStopped(part);
+    }
+
+    /**
+     * Account for a grid that has stopped searching one of this grid's
+     * parts. When no part is being searched, each combination of the
+     * parts' solutions is offered as a solution of this grid, which is
+     * then discarded.
+     * 
+     * <p>
+     * This must be called without holding this grid's lock, as offering
+     * solutions may cause the sink to abort grids.
+     * 
+     * @param part the index of the part
+     */
+    private void partClosed(int part) {
+        final Decomposition done;
+        final long[] base;
+        synchronized (this) {
+            if (!split.closed(part)) return;
+
+            /* If a part has no solution, neither have we, so the other
+             * parts can give up. */
+            if (split.isFailed(part)) abort();
+            if (!split.isComplete()) return;
+            done = split;
+            split = null;
+            base = cells;
+        }
+
+        if (!isAbandoned()) done.combine(base, this::offerSolution);
+
+        synchronized (this) {
+            discard();
+        }
+    }
+
+    /**
+     * Offer a combination of solutions of this grid's parts as a
+     * solution of this grid.
+     * 
+     * @param solved the determined state of every cell
+     * 
+     * @return {@code true} if more solutions are wanted
+     */
+    private boolean offerSolution(long[] solved) {
+        if (isAbandoned()) return false;
+
+        /* If we are only a part ourselves, the solution is only a piece
+         * of our owner's. */
+        if (owner != null) return owner.partSolved(partIndex, solved);
+
+        /* The complete grid retains itself. */
+        final Grid complete = new Grid(this, solved);
+        synchronized (complete) {
+            complete.determineNextLine();
+        }
+        return !aborted;
+    }
+
+    /**
+     * Determine whether this grid has been aborted, or is searching a
+     * part of a grid that has, or a part with enough solutions. No
+     * lock is needed.
+     * 
+     * @return {@code true} if this grid's search is pointless
+     */
+    private boolean isAbandoned() {
+        return aborted || owner != null
+            && (owner.isPartStopped(partIndex) || owner.isAbandoned());
+    }
+
+    /**
+     * Start probing the best cells to guess at. One probe is created
+     * for each remaining colour of each cell, and all are submitted to
+     * the sink, so they can be worked on in parallel. This grid is
+     * withdrawn until they have all reported.
+     * 
+     * @return {@code true} if probing has started; {@code false} if no
+     * probes could be afforded
+     */
+    private boolean startProbes() {
+        assert Thread.holdsLock(this);
+        assert round == null;
+
+        final List<Cell> candidates = layout.cells().stream()
+            .filter(this::isOpen)
+            .sorted(Comparator.comparingInt(this::guessScore).reversed())
+            .limit(PROBE_CELLS).collect(Collectors.toList());
+        final int probes = candidates.stream()
+            .mapToInt(cell -> Long.bitCount(cells[cell.index()])).sum();
+        if (!budget.canOpenGrids(probes)) return false;
+
+        /* Create all the probes before any can report. */
+        round = new ProbeRound(candidates.size(), probes);
+        final List<Grid> started = new ArrayList<>(probes);
+        final List<Cell> startedCells = new ArrayList<>(probes);
+        for (int i = 0; i < candidates.size(); i++) {
+            final Cell cell = candidates.get(i);
+            final long state = cells[cell.index()];
+            for (int color = 0; color < colors; color++) {
+                if (Colors.lacks(state, color)) continue;
+                started.add(new Grid(this, cell, Colors.of(color), this, i));
+                startedCells.add(cell);
+            }
+        }
+
+        withdraw();
+        for (int i = 0; i < started.size(); i++) {
+            final Grid probe = started.get(i);
+            synchronized (probe) {
+                if (probe.violatesNogood(startedCells.get(i).intersects()))
+                    probe.prune();
+                if (probe.nextLine >= 0)
+                    probe.submit();
+                else
+                    probe.determineNextLine();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tell the prober the outcome of this probe, if this grid is a
+     * probe that has not yet reported.
+     * 
+     * @param result the cell states deduced; or {@code null} if the
+     * probe was inconsistent
+     */
+    private void report(long[] result) {
+        assert Thread.holdsLock(this);
+
+        if (prober == null || released) return;
+        prober.probeFinished(probeIndex, result);
+    }
+
+    /**
+     * Record the outcome of a probe. When all probes have reported,
+     * cell states ruled out by them are eliminated.
+     * 
+     * @param candidate the index of the probed cell
+     * 
+     * @param result the cell states deduced by the probe; or
+     * {@code null} if the probe was inconsistent
+     */
+    private synchronized void probeFinished(int candidate, long[] result) {
+        if (round == null) return;
+        round.record(candidate, result);
+        if (!round.isComplete()) return;
+        final ProbeRound done = round;
+        round = null;
+
+        if (!aborted) {
+            final long[] narrowed = done.narrow(cells);
+            if (narrowed == null)
+                prune();
+            else if (!narrow(narrowed)) probed = true;
+        }
+        determineNextLine();
+    }
+
+    /**
+     * Eliminate colours from cells, updating the display and the
+     * intersecting lines.
+     * 
+     * @param narrowed the new cell states, each a subset of the current
+     * one
+     * 
+     * @return {@code true} if any colour was eliminated
+     */
+    private boolean narrow(long[] narrowed) {
+        assert Thread.holdsLock(this);
+
+        final BitSet touched = new BitSet();
+        try (Display.Transaction xact = display.open()) {
+            for (Cell cell : layout.cells()) {
+                final int i = cell.index();
+                final long removed = cells[i] & ~narrowed[i];
+                if (removed == 0) continue;
+                assert narrowed[i] != 0;
+
+                deduced += Long.bitCount(removed);
+                cells[i] = narrowed[i];
+                if (Colors.oneLeft(cells[i])) {
+                    cellsRemaining--;
+                    xact.setCell(i, Long.numberOfTrailingZeros(cells[i]));
+                }
+
+                /* Intersecting lines have new information for all
+                 * algorithms. */
+                cell.intersects().stream().forEach(line -> {
+                    touched.set(line);
+                    touchLine(line, 1, xact);
+                });
+            }
+        }
+        if (touched.isEmpty()) return false;
+        if (violatesNogood(touched)) prune();
+        return true;
+    }
+
     private static final LineJob INVALID_JOB = new LineJob() {
         @Override
         public LineChallenge getLine() {
@@ -489,26 +1312,31 @@ public final class Grid {
      * invalid if there are no more lines to solve
      */
     public synchronized LineJob getJob() {
+        unpark();
         if (nextLine < 0) {
-            /* All cells and lines are complete. Tell the caller that
-             * there is no more work to do. */
-            if (cellsRemaining == 0) return INVALID_JOB;
-
-            /* Have we aborted (due to inconsistency, for example)?
-             * Again, there is nothing for the caller to do. */
-            if (aborted) return INVALID_JOB;
-
-            /* Something odd has happened. */
-            throw new IllegalStateException();
+            /* All cells and lines are complete, or we have aborted (due
+             * to inconsistency, for example), or another thread claimed
+             * the last available line after this grid was selected.
+             * Either way, there is nothing for the caller to do. */
+            return INVALID_JOB;
         }
 
+        /* Don't issue the job if the budget has been spent. */
+        if (!budget.claimLineJob()) return INVALID_JOB;
+
         /* Claim this line. */
         final int lineNumber = nextLine;
         nextLine = -1;
 
+        /* Allocate nothing for the event if it is disabled. */
+        final LineJobEvent event =
+            LineJobEvent.TYPE.isEnabled() ? new LineJobEvent() : null;
+        if (event != null) event.begin();
+
         final BitSet lockedLines = new BitSet();
         final int algo = levels[lineNumber] - 1;
         final Line lineGeom = lines[lineNumber];
+        final SolverMetrics metrics = budget.getMetrics();
         final long[] workingState = new long[lineGeom.cells().size()];
         int wsi = 0;
         for (Cell cell : lineGeom.cells()) {
@@ -524,10 +1352,23 @@ public final class Grid {
         }
         assert wsi == workingState.length;
 
+        /* Keep the original state if other lines might share the
+         * result. */
+        final long[] initialState =
+            twins[lineNumber].length > 1 ? workingState.clone() : null;
+
         /* Deselect the current line as lock-worthy, then lock the
          * rest. */
         lockedLines.clear(lineNumber);
-        lockedLines.stream().forEach(i -> locks[i]++);
+        lockedLines.stream().forEach(i -> {
+            if (locks[i]++ == 0) queue.remove(i);
+        });
+        if (metrics != null) {
+            metrics.lineJobIssued(algo);
+            metrics.linesLocked(lockedLines.cardinality());
+        }
+        final SessionRecorder recorder = budget.getRecorder();
+        if (recorder != null) recorder.jobIssued(recordId, lineNumber, algo);
 
         final LineChallenge line =
             new LineChallenge(colors, lineGeom.clue(),
@@ -535,8 +1376,11 @@ public final class Grid {
                               caches[lineNumber]);
 
         lineActivity.set(lineNumber);
-        try (Display.Transaction xact = display.open()) {
-            xact.setLineActivity(lineNumber, true);
+        queue.remove(lineNumber);
+        if (!headless) {
+            try (Display.Transaction xact = display.open()) {
+                xact.setLineActivity(lineNumber, true);
+            }
         }
 
         determineNextLine();
@@ -546,7 +1390,8 @@ public final class Grid {
 
             @Override
             public void close() {
-                completeJob(lineNumber, result, workingState, lockedLines);
+                completeJob(lineNumber, algo, result, initialState,
+                            workingState, lockedLines, event);
             }
 
             @Override
@@ -572,12 +1417,21 @@ public final class Grid {
     }
 
     private synchronized void
-        completeJob(final int lineNumber, final LineSolver.Result result,
-                    final long[] workingState, final BitSet lockedLines) {
-        final Line lineGeom = lines[lineNumber];
+        completeJob(final int lineNumber, final int algo,
+                    final LineSolver.Result result,
+                    final long[] initialState, final long[] workingState,
+                    final BitSet lockedLines, final LineJobEvent event) {
+        final int deducedBefore = deduced;
+        int cellsChanged = 0;
+
+        final SessionRecorder recorder = budget.getRecorder();
+        if (recorder != null)
+            recorder.jobCompleted(recordId, lineNumber, result, workingState);
 
         /* Clear locks and records of activity. */
-        lockedLines.stream().forEach(i -> locks[i]--);
+        lockedLines.stream().forEach(i -> {
+            if (--locks[i] == 0) requeue(i);
+        });
 
         try (Display.Transaction xact = display.open()) {
             lineActivity.clear(lineNumber);
@@ -587,78 +1441,188 @@ public final class Grid {
              * until new information is obtained. */
             levels[lineNumber]--;
             xact.setLineLevel(lineNumber, levels[lineNumber]);
+            requeue(lineNumber);
 
             switch (result) {
             case ABORTED:
                 break;
 
             case INCONSISTENT:
+                /* Remember the line's state, so that other branches
+                 * reaching it (or a narrower one) can give up early.
+                 * Intersecting lines have been locked, so the state is
+                 * the one the solver saw. */
+                nogoods.learn(lineNumber, lineStates(lineNumber));
                 abort();
                 break;
 
             case EXHAUSTED:
-                /* Compare the current cell states with new ones. */
-                int wsi = 0;
-                for (Cell cell : lineGeom.cells()) {
-                    final int cwsi = wsi++;
-                    for (int color = 0; color < colors; color++) {
-                        /* Detect whether the colour has been
-                         * eliminated. */
-                        if (Colors.has(workingState[cwsi], color)) {
-                            if (Colors.lacks(cells[cell.index()], color)) {
-                                /* The line solver has added a colour
-                                 * that had already been eliminated.
-                                 * TODO: Build an informative
-                                 * message. */
-                                throw new IllegalStateException();
-                            }
-                            continue;
-                        }
-                        if (Colors.lacks(cells[cell.index()], color)) {
-                            /* The colour has not been eliminated. */
-                            continue;
-                        }
-
-                        /* We've detected the elimination of a colour.
-                         * Record it as cleared. */
-                        deduced++;
-                        cells[cell.index()] &= Colors.of(color);
-                        if (cells[cell.index()] == 0) {
-                            /* All colours have been eliminated from
-                             * this cell. There can be no solution.
-                             * TODO: Build an informative message. */
-                            throw new IllegalStateException();
-                        }
-
-                        if (Colors.oneLeft(cells[cell.index()])) {
-                            /* Indicate that a cell has been fully
-                             * determined. */
-                            cellsRemaining--;
-                            xact.setCell(cell.index(), Long
-                                .numberOfTrailingZeros(cells[cell.index()]));
-                        }
-
-                        /* Make this line less favourable for
-                         * solving. */
-                        weights[lineNumber]--;
-
-                        /* Make intersecting lines more favourable, and
-                         * suitable for submission to all algorithms. */
-                        cell.intersects().stream()
-                            .filter(otherLine -> otherLine != lineNumber)
-                            .forEach(otherLine -> {
-                                weights[otherLine]++;
-                                levels[otherLine] = algos;
-                                xact.setLineLevel(otherLine, levels[otherLine]);
-                            });
-                    }
+                final BitSet touched = new BitSet();
+
+                /* Counting the changed cells is only needed for the
+                 * event. */
+                if (event != null) {
+                    int wsi = 0;
+                    for (Cell cell : lines[lineNumber].cells())
+                        if (workingState[wsi++] != cells[cell.index()])
+                            cellsChanged++;
                 }
+
+                /* A solver that found nothing revisited the line in
+                 * vain. */
+                if (!applyLine(lineNumber, workingState, touched, xact)
+                    && budget.getMetrics() != null)
+                    budget.getMetrics().lineJobIdle();
+
+                /* Lines identical to this one before solving can take
+                 * the same result. */
+                if (initialState != null)
+                    shareLine(lineNumber, algo, initialState, workingState,
+                              touched, xact);
+
+                /* Have any of the lines we've changed reached a state
+                 * found to be inconsistent elsewhere? */
+                if (!aborted && violatesNogood(touched)) prune();
             }
         }
 
+        final SolverMetrics metrics = budget.getMetrics();
+        if (metrics != null)
+            metrics.lineJobCompleted(result, deduced - deducedBefore);
+
+        if (event != null && event.shouldCommit()) {
+            event.line = lineNumber;
+            event.algorithm = algo;
+            event.length = workingState.length;
+            event.cellsChanged = cellsChanged;
+            event.result = result.name();
+            event.commit();
+        }
+
         determineNextLine();
     }
 
+    /**
+     * Apply a line solver's findings to a line's cells, updating the
+     * display, and making intersecting lines more favourable.
+     * 
+     * @param lineNumber the line that was solved
+     * 
+     * @param workingState the new states of the line's cells, each a
+     * subset of the current one
+     * 
+     * @param touched the set to add intersecting lines to
+     * 
+     * @param xact the display transaction
+     * 
+     * @return {@code true} if any colour was eliminated
+     */
+    private boolean applyLine(final int lineNumber, final long[] workingState,
+                              final BitSet touched,
+                              final Display.Transaction xact) {
+        assert Thread.holdsLock(this);
+
+        boolean changed = false;
+        /* Compare the current cell states with new ones. */
+        int wsi = 0;
+        for (Cell cell : lines[lineNumber].cells()) {
+            final int cwsi = wsi++;
+            for (int color = 0; color < colors; color++) {
+                /* Detect whether the colour has been
+                 * eliminated. */
+                if (Colors.has(workingState[cwsi], color)) {
+                    if (Colors.lacks(cells[cell.index()], color)) {
+                        /* The line solver has added a colour
+                         * that had already been eliminated.
+                         * TODO: Build an informative
+                         * message. */
+                        throw new IllegalStateException();
+                    }
+                    continue;
+                }
+                if (Colors.lacks(cells[cell.index()], color)) {
+                    /* The colour has not been eliminated. */
+                    continue;
+                }
+
+                /* We've detected the elimination of a colour.
+                 * Record it as cleared. */
+                deduced++;
+                changed = true;
+                cells[cell.index()] &= ~Colors.of(color);
+                if (cells[cell.index()] == 0) {
+                    /* All colours have been eliminated from
+                     * this cell. There can be no solution.
+                     * TODO: Build an informative message. */
+                    throw new IllegalStateException();
+                }
+
+                if (Colors.oneLeft(cells[cell.index()])) {
+                    /* Indicate that a cell has been fully
+                     * determined. */
+                    cellsRemaining--;
+                    xact.setCell(cell.index(), Long
+                        .numberOfTrailingZeros(cells[cell.index()]));
+                }
+
+                /* Make this line less favourable for
+                 * solving. */
+                weights[lineNumber]--;
+
+                /* Make intersecting lines more favourable, and
+                 * suitable for submission to all algorithms. */
+                cell.intersects().stream()
+                    .filter(otherLine -> otherLine != lineNumber)
+                    .forEach(otherLine -> {
+                        touched.set(otherLine);
+                        touchLine(otherLine, 1, xact);
+                    });
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Apply a line solver's findings to the line's twins that are in the
+     * same state as the line was, and are waiting for the same
+     * algorithm. Such a twin is treated as if the algorithm had been
+     * applied to it, so it is not solved again.
+     * 
+     * @param lineNumber the line that was solved
+     * 
+     * @param algo the index of the algorithm applied
+     * 
+     * @param initialState the states of the line's cells before solving
+     * 
+     * @param workingState the states of the line's cells after solving
+     * 
+     * @param touched the set to add lines intersecting changed twins to
+     * 
+     * @param xact the display transaction
+     */
+    private void shareLine(int lineNumber, int algo, long[] initialState,
+                           long[] workingState, BitSet touched,
+                           Display.Transaction xact) {
+        assert Thread.holdsLock(this);
+
+        /* The line primed for the next job must keep its level. */
+        twins: for (int twin : twins[lineNumber]) {
+            if (twin == lineNumber || twin == nextLine
+                || levels[twin] != algo + 1 || lineActivity.get(twin)
+                || locks[twin] > 0) continue;
+            int i = 0;
+            for (Cell cell : lines[twin].cells())
+                if (cells[cell.index()] != initialState[i++]) continue twins;
+
+            applyLine(twin, workingState, touched, xact);
+            levels[twin]--;
+            xact.setLineLevel(twin, levels[twin]);
+            requeue(twin);
+            if (budget.getMetrics() != null)
+                budget.getMetrics().lineResultShared();
+        }
+    }
+
     /**
      * Determine whether the grid has been completed. This should only
      * be tested after {@link #getJob()} has returned {@code null},
@@ -671,6 +1635,174 @@ public final class Grid {
         return nextLine < 0 && cellsRemaining == 0 && !aborted;
     }
 
+    private long[] lineStates(int lineNumber) {
+        assert Thread.holdsLock(this);
+
+        final List<Cell> lineCells = lines[lineNumber].cells();
+        final long[] result = new long[lineCells.size()];
+        int i = 0;
+        for (Cell cell : lineCells)
+            result[i++] = cells[cell.index()];
+        return result;
+    }
+
+    /**
+     * Determine whether any of a set of lines is in a state known to be
+     * inconsistent.
+     * 
+     * @param lineSet the set of line numbers to check
+     * 
+     * @return {@code true} if any line matches a recorded nogood
+     */
+    private boolean violatesNogood(BitSet lineSet) {
+        assert Thread.holdsLock(this);
+
+        return lineSet.stream().anyMatch(line -> nogoods
+            .matches(line, lines[line].cells(), cells));
+    }
+
+    /**
+     * Abandon this grid without waiting for a line solver to find it
+     * inconsistent. The caller should then call
+     * {@link #determineNextLine()} to have the grid discarded.
+     */
+    private void prune() {
+        assert Thread.holdsLock(this);
+
+        abort();
+        nextLine = -1;
+    }
+
+    /**
+     * A rough allowance for the fixed parts of a grid, its display and
+     * its sets, in bytes
+     */
+    private static final long GRID_OVERHEAD = 512;
+
+    /**
+     * A rough allowance for an empty line-solver cache, in bytes
+     */
+    private static final long CACHE_OVERHEAD = 96;
+
+    /**
+     * Estimate the memory held by this grid. The arrays of cell and
+     * line state are counted, with an allowance for each line's cache,
+     * but not what line solvers have put in the caches. A parked grid
+     * is counted with its packed cell states. No lock is needed.
+     * 
+     * @return the estimated number of bytes
+     */
+    long estimateBytes() {
+        return GRID_OVERHEAD + cellBytes
+            + (5 * 4L + 4 + CACHE_OVERHEAD) * lineCount;
+    }
+
+    /**
+     * Pack the cell states of this grid while it waits to be selected.
+     * Nothing happens unless the grid is idle, i.e., it has no line
+     * jobs or probes outstanding. The states are unpacked when a job is
+     * next requested.
+     * 
+     * @return the number of bytes saved, which is zero if the grid was
+     * not parked
+     */
+    synchronized long park() {
+        if (cells == null || released || aborted || round != null
+            || split != null || !lineActivity.isEmpty()) return 0;
+        final byte[] packed = PackedCells.pack(cells, colors);
+        final long saved = 8L * cells.length - packed.length;
+        if (saved <= 0) return 0;
+        parked = packed;
+        cells = null;
+        cellBytes = packed.length;
+        return saved;
+    }
+
+    private void unpark() {
+        assert Thread.holdsLock(this);
+
+        if (cells != null) return;
+        cells = PackedCells.unpack(parked);
+        parked = null;
+        cellBytes = 8L * cells.length;
+    }
+
+    /**
+     * Get the cell states in packed form, for checkpointing. A parked
+     * grid yields its states without unpacking them.
+     * 
+     * @return the cell states encoded by {@link PackedCells}
+     */
+    public synchronized byte[] snapshot() {
+        if (cells == null) return parked.clone();
+        return PackedCells.pack(cells, colors);
+    }
+
+    /**
+     * Determine whether this grid is a probe. A probe's cells include
+     * a guess that has not been tested, so they are not a sound
+     * partial solution.
+     * 
+     * @return {@code true} if this grid is a probe
+     */
+    boolean isProbe() {
+        return prober != null;
+    }
+
+    /**
+     * Get the identity of this grid in the budget's
+     * {@link SessionRecorder}.
+     * 
+     * @return the grid's identity; or -1 if the budget has no recorder
+     */
+    int getRecordId() {
+        return recordId;
+    }
+
+    /**
+     * Release this grid from its budget, and from its owner if it is
+     * searching a part.
+     * 
+     * @param retained {@code true} if the grid is about to be retained;
+     * {@code false} if it is about to be discarded
+     */
+    private void release(boolean retained) {
+        assert Thread.holdsLock(this);
+
+        if (released) return;
+        released = true;
+        budget.gridClosed();
+        final SolverMetrics metrics = budget.getMetrics();
+        if (metrics != null) {
+            if (retained)
+                metrics.gridRetained();
+            else
+                metrics.gridDiscarded();
+        }
+        if (owner != null) owner.partClosed(partIndex);
+    }
+
+    /**
+     * Get the budget limiting work on this grid and its clones.
+     * 
+     * @return the grid's budget
+     */
+    public SolveBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Get a copy of the cell states. Each element is a colour set, as
+     * manipulated by {@link Colors}, indexed by cell number as defined
+     * by the grid's {@link Layout}.
+     * 
+     * @return a copy of the current cell states
+     */
+    public synchronized long[] getCellStates() {
+        if (cells == null) return PackedCells.unpack(parked);
+        return Arrays.copyOf(cells, cells.length);
+    }
+
     /**
      * Register a line solver with this grid. If any line solver submits
      * {@link Result#INCONSISTENT} through
@@ -686,7 +1818,7 @@ public final class Grid {
         solvers.add(solver);
     }
 
-    private boolean aborted;
+    private volatile boolean aborted;
 
     /**
      * Abort all registered line solvers.
@@ -0,0 +1,615 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import uk.ac.lancs.nonogram.clue.Colors;
+
+/**
+ * Manages grids without a display, selecting those with the lowest
+ * reported scores first, and collecting solutions. A limit may be
+ * placed on the number of solutions sought, so that a search can stop
+ * as soon as, say, a second solution is found, which is enough to show
+ * that a puzzle is not unique.
+ *
+ * <p>
+ * The initial grid should be started before any {@link LineWorker}s
+ * are run against this manager, as {@link #selectGrid()} returns
+ * {@code null} as soon as no grids are known.
+ *
+ * <p>
+ * A {@link SolveBudget} may be supplied, which should be the same
+ * budget as given to the initial grid. When any of its limits is
+ * exceeded, the search halts, and the most determined of the
+ * outstanding grids is kept as a partial solution.
+ *
+ * <p>
+ * A {@link FrontierPolicy} may also be supplied, to bound the number
+ * of grids in existence, and their estimated memory. While the
+ * frontier is full, the most recently created grids are selected
+ * first, rather than those with the best scores, and grids waiting
+ * further back are parked, i.e., their cell states are packed until
+ * they are selected again.
+ *
+ * @author simpsons
+ */
+public final class GridManager implements GridSink<Grid>, GridSource<Grid> {
+    private final int solutionLimit;
+
+    private final SolveBudget budget;
+
+    private final FrontierPolicy frontier;
+
+    /**
+     * Create a manager that seeks all solutions.
+     */
+    public GridManager() {
+        this(0);
+    }
+
+    /**
+     * Create a manager that stops after a given number of solutions.
+     *
+     * @param solutionLimit the number of solutions after which all
+     * other grids are aborted; or zero to seek all solutions
+     *
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public GridManager(int solutionLimit) {
+        this(solutionLimit, SolveBudget.unlimited());
+    }
+
+    /**
+     * Create a manager that stops after a given number of solutions, or
+     * when a budget is exceeded.
+     *
+     * @param solutionLimit the number of solutions after which all
+     * other grids are aborted; or zero to seek all solutions
+     *
+     * @param budget the budget shared with the grids to be managed
+     *
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public GridManager(int solutionLimit, SolveBudget budget) {
+        this(solutionLimit, budget, FrontierPolicy.unbounded());
+    }
+
+    /**
+     * Create a manager that stops after a given number of solutions, or
+     * when a budget is exceeded, and that bounds its frontier.
+     *
+     * @param solutionLimit the number of solutions after which all
+     * other grids are aborted; or zero to seek all solutions
+     *
+     * @param budget the budget shared with the grids to be managed
+     *
+     * @param frontier the policy for bounding the grids in existence
+     *
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public GridManager(int solutionLimit, SolveBudget budget,
+                       FrontierPolicy frontier) {
+        if (solutionLimit < 0)
+            throw new IllegalArgumentException("-ve solution limit: "
+                + solutionLimit);
+        this.solutionLimit = solutionLimit;
+        this.budget = budget;
+        this.frontier = frontier;
+    }
+
+    private static final class Entry {
+        final Grid grid;
+
+        final long seq;
+
+        long bytes;
+
+        double score;
+
+        Entry(Grid grid, long seq) {
+            this.grid = grid;
+            this.seq = seq;
+            this.bytes = grid.estimateBytes();
+        }
+    }
+
+    /**
+     * Grids with lower scores are preferred. Among grids of equal
+     * score, the most recently created is preferred, which keeps the
+     * search roughly depth-first.
+     */
+    private static final Comparator<Entry> ORDER =
+        Comparator.<Entry>comparingDouble(e -> e.score)
+            .thenComparing(Comparator.<Entry>comparingLong(e -> e.seq)
+                .reversed());
+
+    /**
+     * Holds all grids that have been submitted or withdrawn, and not
+     * yet retained or discarded.
+     */
+    private final Map<Grid, Entry> live = new HashMap<>();
+
+    /**
+     * The most recently created grids are preferred when the frontier
+     * is full.
+     */
+    private static final Comparator<Entry> DEPTH_ORDER =
+        Comparator.<Entry>comparingLong(e -> e.seq).reversed();
+
+    /**
+     * Orders grids with available jobs by preference for selection.
+     */
+    private final NavigableSet<Entry> ready = new TreeSet<>(ORDER);
+
+    /**
+     * Holds the same grids as {@link #ready}, newest first.
+     */
+    private final NavigableSet<Entry> newest = new TreeSet<>(DEPTH_ORDER);
+
+    /**
+     * Holds the grids of {@link #ready} that have not been asked to
+     * park, newest first
+     */
+    private final NavigableSet<Entry> inflated = new TreeSet<>(DEPTH_ORDER);
+
+    /**
+     * The number of grids next in line for selection that are not
+     * parked while the frontier is full
+     */
+    private static final int KEEP_INFLATED = 8;
+
+    /**
+     * The total estimated memory of the grids in {@link #live}
+     */
+    private long liveBytes;
+
+    /**
+     * Set while the frontier is full, so the newest grids are selected
+     * first
+     */
+    private boolean depthFirst;
+
+    private final List<long[]> solutions = new ArrayList<>();
+
+    private long nextSeq = 0;
+
+    /**
+     * Set when grids are no longer being issued, either because enough
+     * solutions have been found, or the budget is exceeded
+     */
+    private boolean stopped;
+
+    /**
+     * Set when the stop has been completed, so the partial solution is
+     * available
+     */
+    private boolean halted;
+
+    private boolean limitReached;
+
+    private long[] partial;
+
+    private Entry entry(Grid grid) {
+        Entry e = live.get(grid);
+        if (e == null) {
+            e = new Entry(grid, nextSeq++);
+            live.put(grid, e);
+            liveBytes += e.bytes;
+            updatePolicy();
+        }
+        return e;
+    }
+
+    private Entry forget(Grid grid) {
+        Entry e = live.remove(grid);
+        if (e != null) {
+            liveBytes -= e.bytes;
+            unready(e);
+            updatePolicy();
+        }
+        return e;
+    }
+
+    private void unready(Entry e) {
+        ready.remove(e);
+        newest.remove(e);
+        inflated.remove(e);
+    }
+
+    /**
+     * Re-estimate a grid's memory, as it changes when the grid is
+     * parked or unparked.
+     */
+    private void refresh(Entry e) {
+        final long bytes = e.grid.estimateBytes();
+        liveBytes += bytes - e.bytes;
+        e.bytes = bytes;
+        updatePolicy();
+    }
+
+    /**
+     * Choose grids to be parked. While the frontier is full, all ready
+     * grids except the few to be selected next are chosen.
+     * 
+     * @return the chosen grids, which are no longer considered inflated
+     */
+    private List<Entry> chooseParking() {
+        assert Thread.holdsLock(this);
+
+        if (!depthFirst || inflated.size() <= KEEP_INFLATED)
+            return Collections.emptyList();
+        List<Entry> result = new ArrayList<>();
+        Iterator<Entry> iter = inflated.iterator();
+        for (int i = 0; i < KEEP_INFLATED; i++)
+            iter.next();
+        while (iter.hasNext()) {
+            result.add(iter.next());
+            iter.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Park grids, and account for the memory saved.
+     * 
+     * <p>
+     * This must be called without holding our own lock, as each grid
+     * may be trying to report to us while holding its own.
+     */
+    private void park(List<Entry> entries) {
+        for (Entry e : entries) {
+            if (e.grid.park() == 0) continue;
+            synchronized (this) {
+                if (live.get(e.grid) == e) refresh(e);
+            }
+        }
+    }
+
+    private void updatePolicy() {
+        if (depthFirst)
+            depthFirst = !frontier.hasRoom(live.size(), liveBytes);
+        else
+            depthFirst = frontier.isFull(live.size(), liveBytes);
+    }
+
+    /**
+     * Select a grid with available work. If no grid currently has work,
+     * but some grids are still being worked on, this call blocks until
+     * one of them submits itself, or all have been retained or
+     * discarded.
+     *
+     * @return a grid with a line ready to solve, or {@code null} if the
+     * search is over
+     */
+    @Override
+    public Grid selectGrid() {
+        Grid selected = null;
+        List<Entry> parking = null;
+        synchronized (this) {
+            try {
+                for (;;) {
+                    if (stopped || live.isEmpty()) return null;
+                    if (budget.isExceeded()) break;
+                    if (!ready.isEmpty()) {
+                        selected = (depthFirst ? newest : ready).first().grid;
+                        parking = chooseParking();
+                        break;
+                    }
+                    waitForDeadline();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        if (selected == null) {
+            halt(false);
+            return null;
+        }
+        park(parking);
+        return selected;
+    }
+
+    /**
+     * Wait to be notified, but no later than the budget's deadline.
+     */
+    private void waitForDeadline() throws InterruptedException {
+        assert Thread.holdsLock(this);
+
+        long rem = budget.remainingNanos();
+        if (rem == Long.MAX_VALUE) {
+            wait();
+        } else if (rem > 0) {
+            long millis = rem / 1000000;
+            wait(millis, (int) (rem - millis * 1000000));
+        }
+    }
+
+    /**
+     * Stop issuing grids, and take the outstanding ones out of
+     * circulation. If the budget is the cause, the most determined
+     * grid's cell states are kept as a partial solution.
+     *
+     * <p>
+     * This must be called without holding our own lock, as each grid
+     * may be trying to report to us while holding its own.
+     *
+     * @param enough {@code true} if the solution limit has been
+     * reached; {@code false} if the budget has been exceeded
+     */
+    private void halt(boolean enough) {
+        final Collection<Grid> victims;
+        synchronized (this) {
+            if (stopped) return;
+            stopped = true;
+            limitReached = enough;
+            victims = new ArrayList<>(live.keySet());
+            live.clear();
+            ready.clear();
+            newest.clear();
+            inflated.clear();
+            liveBytes = 0;
+        }
+
+        long[] best = null;
+        int bestKnown = -1;
+        for (Grid victim : victims) {
+            victim.abort();
+            if (enough) continue;
+
+            /* A probe's cells depend on an untested guess. */
+            if (victim.isProbe()) continue;
+
+            /* Aborting leaves the cells as they were, so we can still
+             * see how far the grid got. */
+            long[] cells = victim.getCellStates();
+            int known = 0;
+            for (long cell : cells)
+                if (Colors.oneLeft(cell)) known++;
+            if (known > bestKnown) {
+                best = cells;
+                bestKnown = known;
+            }
+        }
+
+        synchronized (this) {
+            partial = best;
+            halted = true;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void submit(Grid grid, double score) {
+        synchronized (this) {
+            if (!stopped) {
+                Entry e = entry(grid);
+                ready.remove(e);
+                e.score = score;
+                ready.add(e);
+                newest.add(e);
+                inflated.add(e);
+                refresh(e);
+                notifyAll();
+                return;
+            }
+        }
+
+        /* The search has been stopped, so a grid created since then has
+         * no purpose. */
+        grid.abort();
+    }
+
+    @Override
+    public void withdraw(Grid grid) {
+        synchronized (this) {
+            if (stopped) return;
+            unready(entry(grid));
+            if (!budget.isExceeded()) return;
+        }
+
+        /* The grid has probably withdrawn because the budget is
+         * exceeded, and there might be no worker left to notice. */
+        halt(false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The grid's cell states are recorded as a solution. If this brings
+     * the number of solutions up to the limit, all other outstanding
+     * grids are aborted, along with their registered line solvers. The
+     * grid need not have been submitted, as one assembled from the
+     * solutions of independent parts is complete from the start.
+     */
+    @Override
+    public void retain(Grid grid) {
+        synchronized (this) {
+            forget(grid);
+            if (stopped) return;
+            solutions.add(grid.getCellStates());
+            notifyAll();
+            if (solutionLimit == 0 || solutions.size() < solutionLimit)
+                return;
+        }
+
+        /* We have enough solutions. */
+        halt(true);
+    }
+
+    @Override
+    public int getSolutionLimit() {
+        return solutionLimit;
+    }
+
+    @Override
+    public synchronized void discard(Grid grid) {
+        Entry e = forget(grid);
+        if (e == null) return;
+        notifyAll();
+    }
+
+    /**
+     * Wait until the search is over, either because all grids have
+     * been solved or found inconsistent, because the solution limit has
+     * been reached, or because the budget has been exceeded. If the
+     * budget has a deadline, the search is halted by this call when it
+     * passes, even if all workers are busy.
+     *
+     * @throws InterruptedException if the calling thread is interrupted
+     * while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        synchronized (this) {
+            for (;;) {
+                if (stopped ? halted : live.isEmpty()) return;
+                if (!stopped && budget.isExceeded()) break;
+                waitForDeadline();
+            }
+        }
+
+        halt(false);
+        synchronized (this) {
+            while (!halted)
+                wait();
+        }
+    }
+
+    /**
+     * Get the solutions found so far. Each solution is an array of
+     * colour sets, one per cell, as returned by
+     * {@link Grid#getCellStates()}.
+     *
+     * @return a copy of the list of solutions in the order they were
+     * found
+     */
+    public synchronized List<long[]> getSolutions() {
+        return new ArrayList<>(solutions);
+    }
+
+    /**
+     * Determine whether the search was cut short by the solution limit.
+     * If so, there may be further solutions that were not sought.
+     *
+     * @return {@code true} if the solution limit was reached;
+     * {@code false} otherwise
+     */
+    public synchronized boolean isLimitReached() {
+        return limitReached;
+    }
+
+    /**
+     * Determine whether the search was cut short by the budget.
+     *
+     * @return {@code true} if the budget was exceeded before the search
+     * completed; {@code false} otherwise
+     */
+    public synchronized boolean isBudgetExceeded() {
+        return stopped && !limitReached;
+    }
+
+    /**
+     * Get the cell states of the most determined grid outstanding when
+     * the budget was exceeded. Cells that were not determined by then
+     * hold more than one colour.
+     *
+     * @return a copy of the partial solution; or {@code null} if the
+     * budget was not exceeded, or no grids were outstanding
+     */
+    public synchronized long[] getPartialSolution() {
+        return partial == null ? null : partial.clone();
+    }
+
+    /**
+     * Get the number of grids in the frontier, i.e., those submitted or
+     * withdrawn, and not yet retained or discarded.
+     *
+     * @return the number of grids in existence
+     */
+    public synchronized int getFrontierSize() {
+        return live.size();
+    }
+
+    /**
+     * Get an estimate of the memory held by the grids in the frontier.
+     * Contents of line-solver caches are not counted.
+     *
+     * @return the estimated number of bytes
+     */
+    public synchronized long getFrontierBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Determine whether the frontier is full, so that grids are being
+     * selected depth-first.
+     *
+     * @return {@code true} if the newest grids are selected first
+     */
+    public synchronized boolean isDepthFirst() {
+        return depthFirst;
+    }
+
+    /**
+     * Get the policy bounding the frontier.
+     *
+     * @return the frontier policy
+     */
+    public FrontierPolicy getFrontierPolicy() {
+        return frontier;
+    }
+
+    /**
+     * Get the budget governing this search, from which statistics can
+     * be obtained.
+     *
+     * @return the budget
+     */
+    public SolveBudget getBudget() {
+        return budget;
+    }
+}
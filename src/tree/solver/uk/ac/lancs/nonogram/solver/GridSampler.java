@@ -0,0 +1,114 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import uk.ac.lancs.nonogram.clue.Colors;
+import uk.ac.lancs.nonogram.display.Display;
+
+/**
+ * Copies the cell states of a grid to a display at intervals, rather
+ * than as each deduction is made. This suits a grid created with a
+ * headless display factory, which does not report its changes, but
+ * whose progress is still to be watched. Each sample only updates the
+ * cells that have changed since the previous one.
+ *
+ * @author simpsons
+ */
+public final class GridSampler implements Runnable {
+    private final Grid grid;
+
+    private final Display display;
+
+    /**
+     * The cell states last shown, or {@code null} before the first
+     * sample
+     */
+    private long[] shown;
+
+    /**
+     * Prepare to sample a grid.
+     *
+     * @param grid the grid to be sampled
+     *
+     * @param display the display to show the samples on
+     */
+    public GridSampler(Grid grid, Display display) {
+        this.grid = grid;
+        this.display = display;
+    }
+
+    /**
+     * Take a sample of the grid's cell states, and show those that have
+     * changed.
+     */
+    @Override
+    public synchronized void run() {
+        final long[] cells = grid.getCellStates();
+        try (Display.Transaction xact = display.open()) {
+            for (int i = 0; i < cells.length; i++) {
+                if (shown != null && shown[i] == cells[i]) continue;
+                xact.setCell(i, Colors.oneLeft(cells[i]) ?
+                    Long.numberOfTrailingZeros(cells[i]) : -1);
+            }
+        }
+        shown = cells;
+    }
+
+    /**
+     * Sample the grid repeatedly at a fixed rate.
+     *
+     * @param executor the executor to take samples
+     *
+     * @param period the time between samples
+     *
+     * @return the scheduled sampling, which should be cancelled when
+     * the grid is no longer of interest
+     *
+     * @throws IllegalArgumentException if the period is not positive
+     */
+    public ScheduledFuture<?> schedule(ScheduledExecutorService executor,
+                                       Duration period) {
+        if (period.isNegative() || period.isZero())
+            throw new IllegalArgumentException("non-positive period: "
+                + period);
+        return executor.scheduleAtFixedRate(this, 0, period.toNanos(),
+                                            TimeUnit.NANOSECONDS);
+    }
+}
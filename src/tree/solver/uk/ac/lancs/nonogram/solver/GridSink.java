@@ -76,4 +76,15 @@ public interface GridSink<K> {
      * @param grid the grid to be discarded
      */
     void discard(K grid);
+
+    /**
+     * Get the number of solutions after which this sink stops the
+     * search. Grids may use this to avoid collecting solutions that
+     * would never be used.
+     * 
+     * @return the solution limit; or 0 if there is none
+     */
+    default int getSolutionLimit() {
+        return 0;
+    }
 }
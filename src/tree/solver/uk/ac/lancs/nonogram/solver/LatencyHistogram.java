@@ -0,0 +1,219 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets of doubling width. Bucket 0 holds zero
+ * durations, and bucket <var>b</var> &gt; 0 holds durations from
+ * 2<sup><var>b</var>&minus;1</sup> to 2<sup><var>b</var></sup>&minus;1
+ * nanoseconds inclusive. Recording takes no lock, so a histogram may be
+ * updated by many threads on every line job.
+ *
+ * @author simpsons
+ */
+public final class LatencyHistogram {
+    /**
+     * The number of buckets, enough to hold any non-negative
+     * {@code long}
+     */
+    public static final int BUCKETS = Long.SIZE;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Create an empty histogram.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Get the bucket that a duration falls into.
+     * 
+     * @param nanos the duration in nanoseconds
+     * 
+     * @return the bucket index
+     */
+    static int bucket(long nanos) {
+        return Long.SIZE - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Record a duration.
+     * 
+     * @param nanos the duration in nanoseconds, with negative values
+     * being treated as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets[bucket(nanos)].increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Get the durations recorded so far. Durations recorded during this
+     * call might be partially included.
+     * 
+     * @return the durations recorded so far
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = buckets[i].sum();
+        return new Snapshot(counts, total.sum(), max.get());
+    }
+
+    /**
+     * @resume An immutable view of a histogram's durations at some
+     * time
+     *
+     * @author simpsons
+     */
+    public static final class Snapshot {
+        private final long[] buckets;
+
+        private final long count;
+
+        private final long totalNanos;
+
+        private final long maxNanos;
+
+        Snapshot(long[] buckets, long totalNanos, long maxNanos) {
+            this.buckets = buckets;
+            long count = 0;
+            for (long c : buckets)
+                count += c;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * Get the number of durations in each bucket.
+         * 
+         * @return a fresh array of {@link LatencyHistogram#BUCKETS}
+         * counts
+         */
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        /**
+         * Get the number of durations recorded.
+         * 
+         * @return the number of durations
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the sum of all durations recorded.
+         * 
+         * @return the total duration in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * Get the longest duration recorded.
+         * 
+         * @return the longest duration in nanoseconds; or zero if none
+         * has been recorded
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * Get an upper bound on the median duration.
+         * 
+         * @return the median duration in nanoseconds, rounded up to
+         * its bucket's limit
+         */
+        public long getMedianNanos() {
+            return percentileNanos(0.5);
+        }
+
+        /**
+         * Get an upper bound on the 99th-percentile duration.
+         * 
+         * @return the 99th-percentile duration in nanoseconds, rounded
+         * up to its bucket's limit
+         */
+        public long getP99Nanos() {
+            return percentileNanos(0.99);
+        }
+
+        /**
+         * Get an upper bound on the duration that a given proportion
+         * of durations do not exceed.
+         * 
+         * @param fraction the proportion, from 0 to 1
+         * 
+         * @return the highest duration in the bucket containing the
+         * proportion, limited by the longest duration recorded; or zero
+         * if none has been recorded
+         * 
+         * @throws IllegalArgumentException if the proportion is out of
+         * range
+         */
+        public long percentileNanos(double fraction) {
+            if (!(fraction >= 0.0 && fraction <= 1.0))
+                throw new IllegalArgumentException("bad fraction: "
+                    + fraction);
+            if (count == 0) return 0;
+            final long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += buckets[b];
+                if (seen >= rank)
+                    return b == 0 ? 0 : Math.min(maxNanos, (1L << b) - 1);
+            }
+            return maxNanos;
+        }
+    }
+}
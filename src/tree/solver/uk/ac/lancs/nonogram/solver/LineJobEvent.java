@@ -0,0 +1,83 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Records a line job for JDK Flight Recorder, from its issue by
+ * {@link Grid#getJob()} until its completion. The duration therefore
+ * covers the line solver's work, and the application of its results.
+ * Every such event has the same stack, so none is recorded.
+ *
+ * @author simpsons
+ */
+@Name("uk.ac.lancs.nonogram.LineJob")
+@Label("Line Job")
+@Category({ "Nonogram", "Solver" })
+@Description("A line submitted to a line solver")
+@StackTrace(false)
+final class LineJobEvent extends jdk.jfr.Event {
+    /**
+     * The type of this event, which can be consulted before the event
+     * is created, so that nothing is allocated if it is disabled
+     */
+    static final EventType TYPE = EventType.getEventType(LineJobEvent.class);
+
+    @Label("Line")
+    @Description("The number of the line within the grid")
+    int line;
+
+    @Label("Algorithm")
+    @Description("The index of the line-solving algorithm applied")
+    int algorithm;
+
+    @Label("Length")
+    @Description("The number of cells in the line")
+    int length;
+
+    @Label("Cells Changed")
+    @Description("The number of cells with colours eliminated")
+    int cellsChanged;
+
+    @Label("Result")
+    String result;
+}
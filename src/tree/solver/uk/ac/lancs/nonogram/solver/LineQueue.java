@@ -0,0 +1,186 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.util.Arrays;
+
+/**
+ * Holds the lines of a grid that are ready to be solved, in order of
+ * preference. A line is ready if it has new information for at least
+ * one algorithm, it is not being solved, and no intersecting line is
+ * being solved. A line with a simpler algorithm pending, i.e., a higher
+ * level, is preferred, and then the line that has waited longest. The
+ * levels are held by the grid, which must re-offer a line whenever its
+ * level changes.
+ *
+ * <p>
+ * The queue is a binary heap indexed by line number, so each line
+ * appears at most once. A line offered again while still queued keeps
+ * its place among lines of the same level.
+ *
+ * @author simpsons
+ */
+final class LineQueue {
+    private final int[] levels;
+
+    /**
+     * The order in which each queued line was added
+     */
+    private final long[] arrival;
+
+    private long nextArrival;
+
+    /**
+     * The line at each position of the heap
+     */
+    private final int[] heap;
+
+    /**
+     * The position of each line in the heap, or -1 if it is absent
+     */
+    private final int[] position;
+
+    private int size;
+
+    /**
+     * Create an empty queue.
+     *
+     * @param levels the pending algorithm level of each line, zero if
+     * no algorithm is pending
+     */
+    LineQueue(int[] levels) {
+        this.levels = levels;
+        this.arrival = new long[levels.length];
+        this.heap = new int[levels.length];
+        this.position = new int[levels.length];
+        Arrays.fill(position, -1);
+    }
+
+    private boolean before(int a, int b) {
+        if (levels[a] != levels[b]) return levels[a] > levels[b];
+        return arrival[a] < arrival[b];
+    }
+
+    private void place(int pos, int line) {
+        heap[pos] = line;
+        position[line] = pos;
+    }
+
+    private void siftUp(int pos) {
+        final int line = heap[pos];
+        while (pos > 0) {
+            final int parent = (pos - 1) >>> 1;
+            if (!before(line, heap[parent])) break;
+            place(pos, heap[parent]);
+            pos = parent;
+        }
+        place(pos, line);
+    }
+
+    private void siftDown(int pos) {
+        final int line = heap[pos];
+        for (;;) {
+            int child = 2 * pos + 1;
+            if (child >= size) break;
+            if (child + 1 < size && before(heap[child + 1], heap[child]))
+                child++;
+            if (!before(heap[child], line)) break;
+            place(pos, heap[child]);
+            pos = child;
+        }
+        place(pos, line);
+    }
+
+    /**
+     * Add a line, or move it after its level has changed. A line
+     * with no pending algorithm is removed instead.
+     *
+     * @param line the line number
+     *
+     * @return {@code true} if the line was not already in the queue,
+     * and has been added
+     */
+    boolean offer(int line) {
+        if (levels[line] == 0) {
+            remove(line);
+            return false;
+        }
+        final int pos = position[line];
+        if (pos < 0) {
+            arrival[line] = nextArrival++;
+            place(size, line);
+            siftUp(size++);
+            return true;
+        }
+        siftUp(pos);
+        siftDown(position[line]);
+        return false;
+    }
+
+    /**
+     * Remove a line, if present.
+     *
+     * @param line the line number
+     */
+    void remove(int line) {
+        final int pos = position[line];
+        if (pos < 0) return;
+        position[line] = -1;
+        if (pos == --size) return;
+        final int moved = heap[size];
+        place(pos, moved);
+        siftUp(pos);
+        siftDown(position[moved]);
+    }
+
+    /**
+     * Get the most preferred line.
+     *
+     * @return the most preferred line; or -1 if the queue is empty
+     */
+    int peek() {
+        return size == 0 ? -1 : heap[0];
+    }
+
+    /**
+     * Get the number of lines in the queue.
+     *
+     * @return the queue's length
+     */
+    int size() {
+        return size;
+    }
+}
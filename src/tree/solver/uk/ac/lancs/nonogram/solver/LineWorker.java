@@ -56,8 +56,8 @@ public class LineWorker implements Runnable {
      * 
      * @param algorithms the index of line-solving algorithms to use
      */
-    private LineWorker(GridSource<? extends Grid> source,
-                       List<? extends LineAlgorithm> algorithms) {
+    public LineWorker(GridSource<? extends Grid> source,
+                      List<? extends LineAlgorithm> algorithms) {
         this.source = source;
         this.algorithms = algorithms;
     }
@@ -69,6 +69,10 @@ public class LineWorker implements Runnable {
      * until it returns {@code null}. For each returned grid, it
      * repeatedly calls {@link Grid#getJob()} to attempt to claim a line
      * to work on, and submits that job to an appropriate line solver.
+     * It moves on from a grid whose budget has been exceeded, so that
+     * the source can notice and halt the search. If the grid's budget
+     * has {@linkplain SolveBudget#getMetrics() metrics}, each solver is
+     * timed.
      */
     @Override
     public void run() {
@@ -79,14 +83,27 @@ public class LineWorker implements Runnable {
 
             /* Work on the current grid until it tells us to try
              * something else. */
+            final SolveBudget budget = grid.getBudget();
+            final SolverMetrics metrics = budget.getMetrics();
             for (;;) {
+                if (budget.isExceeded()) break;
                 try (LineJob job = grid.getJob()) {
                     if (job.isInvalid()) break;
                     LineAlgorithm algo =
                         algorithms.get(job.getAlgorithmIndex());
                     LineSolver solver = algo.prepare(job.getLine());
                     grid.registerSolver(solver);
-                    job.submit(solver.process());
+                    if (metrics == null) {
+                        job.submit(solver.process());
+                        continue;
+                    }
+
+                    /* Time the solver for the metrics. */
+                    final long started = System.nanoTime();
+                    final LineSolver.Result result = solver.process();
+                    metrics.lineSolved(job.getAlgorithmIndex(),
+                                       System.nanoTime() - started);
+                    job.submit(result);
                 }
             }
         }
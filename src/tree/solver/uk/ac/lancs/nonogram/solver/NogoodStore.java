@@ -0,0 +1,141 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import uk.ac.lancs.nonogram.layout.Cell;
+
+/**
+ * Records line states known to admit no solution, so that a grid
+ * reaching any of them, or a narrower state, can be abandoned without
+ * solving the line again. A store is shared by a grid and all of its
+ * clones, so a contradiction found in one branch of a bifurcation
+ * prunes the same contradiction in the others.
+ *
+ * <p>
+ * Each nogood is the array of colour sets of a line's cells at the
+ * time a line solver found the line inconsistent. A line whose cells'
+ * colour sets are each subsets of a nogood's is also inconsistent. Only
+ * a bounded number of nogoods is kept for each line, and a new one
+ * replaces any it subsumes, or the oldest if the line is full.
+ *
+ * <p>
+ * Look-ups take no lock.
+ *
+ * @author simpsons
+ */
+final class NogoodStore {
+    private static final long[][] NONE = new long[0][];
+
+    private final AtomicReferenceArray<long[][]> byLine;
+
+    private final int perLine;
+
+    /**
+     * Create a store.
+     *
+     * @param lineCount the number of lines in the puzzle
+     *
+     * @param perLine the maximum number of nogoods to keep for each
+     * line
+     */
+    NogoodStore(int lineCount, int perLine) {
+        this.byLine = new AtomicReferenceArray<>(lineCount);
+        this.perLine = perLine;
+        for (int i = 0; i < lineCount; i++)
+            byLine.set(i, NONE);
+    }
+
+    private static boolean subset(long[] narrow, long[] wide) {
+        for (int i = 0; i < narrow.length; i++)
+            if ((narrow[i] & ~wide[i]) != 0) return false;
+        return true;
+    }
+
+    /**
+     * Record that a line state is inconsistent.
+     *
+     * @param line the line number
+     *
+     * @param states the colour sets of the line's cells, which must not
+     * be modified after this call
+     */
+    synchronized void learn(int line, long[] states) {
+        long[][] old = byLine.get(line);
+        long[][] tmp = new long[old.length + 1][];
+        int len = 0;
+        for (long[] cand : old) {
+            /* Ignore this nogood if we already have a more general
+             * one. */
+            if (subset(states, cand)) return;
+
+            /* Drop old nogoods that are less general than this one. */
+            if (!subset(cand, states)) tmp[len++] = cand;
+        }
+
+        /* Drop the oldest if full, and put the new one at the end. */
+        int skip = Math.max(0, len + 1 - perLine);
+        long[][] result = new long[len - skip + 1][];
+        System.arraycopy(tmp, skip, result, 0, len - skip);
+        result[len - skip] = states;
+        byLine.set(line, result);
+    }
+
+    /**
+     * Determine whether a line's current state is known to be
+     * inconsistent.
+     *
+     * @param line the line number
+     *
+     * @param cells the line's cells
+     *
+     * @param states the colour sets of all cells of the grid
+     *
+     * @return {@code true} if the line's state is no wider than a
+     * recorded nogood
+     */
+    boolean matches(int line, List<? extends Cell> cells, long[] states) {
+        long[][] cands = byLine.get(line);
+        outer: for (long[] cand : cands) {
+            int i = 0;
+            for (Cell cell : cells)
+                if ((states[cell.index()] & ~cand[i++]) != 0) continue outer;
+            return true;
+        }
+        return false;
+    }
+}
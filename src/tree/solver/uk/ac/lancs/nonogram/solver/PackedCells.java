@@ -0,0 +1,249 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes cell states compactly, for grids that are parked in a
+ * search frontier, and for checkpoints. Each cell state is a colour
+ * set, which takes a whole {@code long} in a grid, but needs only as
+ * many bits as there are colours. If every cell is either determined
+ * or completely unknown, only the colour index (or a special value for
+ * unknown) is stored, in <var>ceil</var>(log<sub>2</sub>(<var>colors</var>
+ * + 1)) bits. Either way, monochrome cells take two bits. Codes are
+ * packed least significant bit first. If runs of equal codes make it
+ * shorter, the codes are instead run-length encoded.
+ *
+ * <p>
+ * An encoding begins with a flags byte, the number of colours, and the
+ * number of cells, so it can be decoded without context.
+ *
+ * @author simpsons
+ */
+public final class PackedCells {
+    private PackedCells() {}
+
+    private static final int INDEXED = 1;
+
+    private static final int RUN_LENGTH = 2;
+
+    private static int bitsFor(int values) {
+        return 32 - Integer.numberOfLeadingZeros(values - 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Encode cell states.
+     *
+     * @param cells the colour set of each cell
+     *
+     * @param colors the number of colours
+     *
+     * @return the encoded states
+     *
+     * @throws IllegalArgumentException if the number of colours is not
+     * from 1 to 64, or a cell includes a colour beyond it
+     */
+    public static byte[] pack(long[] cells, int colors) {
+        if (colors < 1 || colors > 64)
+            throw new IllegalArgumentException("bad colour count: " + colors);
+        final long all = colors == 64 ? -1L : (1L << colors) - 1;
+        boolean indexed = true;
+        for (long cell : cells) {
+            if ((cell & ~all) != 0)
+                throw new IllegalArgumentException("bad cell state: "
+                    + Long.toHexString(cell));
+            if (cell != all && Long.bitCount(cell) != 1) indexed = false;
+        }
+        final int width = indexed ? bitsFor(colors + 1) : colors;
+
+        /* Work out the codes, and how long a run-length encoding would
+         * be. */
+        final long[] codes = new long[cells.length];
+        int runBytes = 0;
+        for (int i = 0; i < cells.length; i++) {
+            final long cell = cells[i];
+            codes[i] = indexed ?
+                (cell == all ? colors : Long.numberOfTrailingZeros(cell)) :
+                cell;
+            if (i == 0 || codes[i] != codes[i - 1])
+                runBytes += 2 + (width + 6) / 7;
+        }
+        final long packedBytes = ((long) width * cells.length + 7) / 8;
+        final boolean runs = runBytes < packedBytes;
+
+        ByteArrayOutputStream out =
+            new ByteArrayOutputStream((int) Math.min(packedBytes, runBytes)
+                + 12);
+        out.write((indexed ? INDEXED : 0) | (runs ? RUN_LENGTH : 0));
+        writeVarint(out, colors);
+        writeVarint(out, cells.length);
+        if (runs) {
+            for (int i = 0; i < codes.length;) {
+                int j = i + 1;
+                while (j < codes.length && codes[j] == codes[i])
+                    j++;
+                writeVarint(out, j - i);
+                long code = codes[i];
+                while ((code & ~0x7fL) != 0) {
+                    out.write((int) (code & 0x7f) | 0x80);
+                    code >>>= 7;
+                }
+                out.write((int) code);
+                i = j;
+            }
+        } else {
+            long acc = 0;
+            int bits = 0;
+            for (long code : codes) {
+                for (int b = 0; b < width; b++) {
+                    acc |= ((code >>> b) & 1) << bits;
+                    if (++bits == 8) {
+                        out.write((int) acc);
+                        acc = 0;
+                        bits = 0;
+                    }
+                }
+            }
+            if (bits > 0) out.write((int) acc);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads an encoding.
+     */
+    private static final class Reader {
+        final byte[] data;
+
+        int pos;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int next() {
+            if (pos >= data.length)
+                throw new IllegalArgumentException("truncated cells");
+            return data[pos++] & 0xff;
+        }
+
+        long varint() {
+            long result = 0;
+            for (int shift = 0;; shift += 7) {
+                if (shift > 63)
+                    throw new IllegalArgumentException("bad varint");
+                final int b = next();
+                result |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+        }
+    }
+
+    /**
+     * Decode cell states.
+     *
+     * @param data the encoded states, as produced by
+     * {@link #pack(long[], int)}
+     *
+     * @return the colour set of each cell
+     *
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    public static long[] unpack(byte[] data) {
+        final Reader in = new Reader(data);
+        final int flags = in.next();
+        final long colors = in.varint();
+        final long count = in.varint();
+        if (colors < 1 || colors > 64 || count > Integer.MAX_VALUE
+            || (flags & ~(INDEXED | RUN_LENGTH)) != 0)
+            throw new IllegalArgumentException("bad cells header");
+        final boolean indexed = (flags & INDEXED) != 0;
+        final long all = colors == 64 ? -1L : (1L << colors) - 1;
+        final int width = indexed ? bitsFor((int) colors + 1) : (int) colors;
+
+        final long[] result = new long[(int) count];
+        if ((flags & RUN_LENGTH) != 0) {
+            for (int i = 0; i < result.length;) {
+                final long run = in.varint();
+                final long code = in.varint();
+                if (run < 1 || run > result.length - i)
+                    throw new IllegalArgumentException("bad run: " + run);
+                final long cell = decode(code, indexed, colors, all);
+                for (long r = 0; r < run; r++)
+                    result[i++] = cell;
+            }
+        } else {
+            int acc = 0;
+            int bits = 0;
+            for (int i = 0; i < result.length; i++) {
+                long code = 0;
+                for (int b = 0; b < width; b++) {
+                    if (bits == 0) {
+                        acc = in.next();
+                        bits = 8;
+                    }
+                    code |= (long) (acc & 1) << b;
+                    acc >>>= 1;
+                    bits--;
+                }
+                result[i] = decode(code, indexed, colors, all);
+            }
+        }
+        return result;
+    }
+
+    private static long decode(long code, boolean indexed, long colors,
+                               long all) {
+        if (indexed) {
+            if (code == colors) return all;
+            if (code < 0 || code > colors)
+                throw new IllegalArgumentException("bad cell code: " + code);
+            return 1L << code;
+        }
+        if (code == 0 || (code & ~all) != 0)
+            throw new IllegalArgumentException("bad cell code: " + code);
+        return code;
+    }
+}
@@ -0,0 +1,118 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+/**
+ * Collects the outcomes of probing several cells of a stalled grid.
+ * Each candidate cell is probed once for each of its remaining colours,
+ * by a scratch grid with that colour forced at the cell. A probe ends
+ * either inconsistent, or having deduced all it can. Every solution of
+ * the grid lies within the union of a candidate's consistent probes, so
+ * cell states outside that union can be eliminated, and the unions of
+ * all candidates can be intersected. If all probes of a candidate fail,
+ * the grid has no solution.
+ *
+ * <p>
+ * Instances are not thread-safe, and are guarded by the grid that
+ * created them.
+ *
+ * @author simpsons
+ */
+final class ProbeRound {
+    private final long[][] unions;
+
+    private int pending;
+
+    /**
+     * Prepare to collect probe outcomes.
+     *
+     * @param candidates the number of cells being probed
+     *
+     * @param probes the total number of probes
+     */
+    ProbeRound(int candidates, int probes) {
+        this.unions = new long[candidates][];
+        this.pending = probes;
+    }
+
+    /**
+     * Record the outcome of a probe.
+     *
+     * @param candidate the index of the cell that was probed
+     *
+     * @param result the cell states of the probe when it could deduce
+     * no more; or {@code null} if it was inconsistent
+     */
+    void record(int candidate, long[] result) {
+        assert pending > 0;
+        pending--;
+        if (result == null) return;
+        long[] union = unions[candidate];
+        if (union == null) {
+            unions[candidate] = result.clone();
+            return;
+        }
+        for (int i = 0; i < union.length; i++)
+            union[i] |= result[i];
+    }
+
+    /**
+     * Determine whether all probes have reported.
+     *
+     * @return {@code true} if no more outcomes are expected
+     */
+    boolean isComplete() {
+        return pending == 0;
+    }
+
+    /**
+     * Narrow cell states using the probes' outcomes.
+     *
+     * @param cells the cell states of the probed grid
+     *
+     * @return the narrowed cell states; or {@code null} if some cell
+     * had no consistent probe
+     */
+    long[] narrow(long[] cells) {
+        long[] result = cells.clone();
+        for (long[] union : unions) {
+            if (union == null) return null;
+            for (int i = 0; i < result.length; i++)
+                result[i] &= union[i];
+        }
+        return result;
+    }
+}
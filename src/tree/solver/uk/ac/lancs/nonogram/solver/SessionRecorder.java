@@ -0,0 +1,355 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import uk.ac.lancs.nonogram.line.LineSolver;
+
+/**
+ * Records the schedule of a solve, so that it can be re-executed by a
+ * {@link SessionReplay}. The order in which grids are selected and
+ * lines are issued from them depends on thread timing, so a slow
+ * multi-threaded solve cannot otherwise be reproduced. Supply a
+ * recorder to a budget with
+ * {@link SolveBudget.Builder#recorder(SessionRecorder)}, and close it
+ * once the solve is over. A recorder covers only one solve.
+ *
+ * <p>
+ * The record is a compact binary stream. It starts with the four bytes
+ * of {@link #MAGIC} and a version byte, and is followed by
+ * entries, each a tag byte and unsigned variable-length integers:
+ *
+ * <dl>
+ *
+ * <dt>{@value #ROOT} <var>grid</var> <var>colors</var>
+ * <var>cells</var> <var>lines</var> <var>algorithms</var>
+ * <var>limit</var>
+ *
+ * <dd>The initial grid was created for a layout of the given
+ * dimensions, and its sink stops the search after the given number of
+ * solutions, or never if zero.
+ *
+ * <dt>{@value #GRID} <var>grid</var> <var>parent</var>
+ * <var>child</var>
+ *
+ * <dd>A grid was created from another, as its given child, counting
+ * from zero. Clones, probes, parts and combined solutions are all
+ * children.
+ *
+ * <dt>{@value #JOB} <var>grid</var> <var>line</var>
+ * <var>algorithm</var>
+ *
+ * <dd>A grid issued a line job.
+ *
+ * <dt>{@value #RESULT} <var>grid</var> <var>line</var>
+ * <var>result</var> [<var>length</var> <var>state</var>...]
+ *
+ * <dd>A line job was completed with the given
+ * {@linkplain LineSolver.Result result} ordinal. If the line was
+ * exhausted, the new cell states follow as colour sets.
+ *
+ * <dt>{@value #GUESS} <var>grid</var> <var>cell</var>
+ * <var>color</var> <var>clone</var>
+ *
+ * <dd>A grid guessed a colour at a cell, and created a clone to try
+ * the others.
+ *
+ * </dl>
+ *
+ * <p>
+ * Entries are written under the recorder's lock, while the grid they
+ * concern is locked, so a grid's own entries are in the order of its
+ * operations.
+ *
+ * @author simpsons
+ */
+public final class SessionRecorder implements Closeable {
+    /**
+     * The magic number at the start of a record, <samp>NGSR</samp> in
+     * ASCII
+     */
+    public static final int MAGIC = 0x4e475352;
+
+    /**
+     * The version of the record format
+     */
+    static final int VERSION = 2;
+
+    /**
+     * The tag of an entry describing the initial grid
+     */
+    static final int ROOT = 0;
+
+    /**
+     * The tag of an entry describing a grid created from another
+     */
+    static final int GRID = 1;
+
+    /**
+     * The tag of an entry describing an issued line job
+     */
+    static final int JOB = 2;
+
+    /**
+     * The tag of an entry describing a completed line job
+     */
+    static final int RESULT = 3;
+
+    /**
+     * The tag of an entry describing a guess
+     */
+    static final int GUESS = 4;
+
+    /**
+     * The destination of entries; or {@code null} if nothing is
+     * written
+     */
+    private final OutputStream out;
+
+    /**
+     * The first error in writing, after which nothing more is written
+     */
+    private IOException failure;
+
+    /**
+     * If set, grid identities are taken from the record being
+     * replayed, and issued jobs and guesses are reported to it.
+     */
+    private final SessionReplay replay;
+
+    private int nextGrid;
+
+    /**
+     * Create a recorder writing to a stream. The stream is buffered by
+     * the recorder, and is closed with it.
+     * 
+     * @param out the destination for the record
+     */
+    public SessionRecorder(OutputStream out) {
+        this.out = new BufferedOutputStream(out);
+        this.replay = null;
+        try {
+            for (int shift = 24; shift >= 0; shift -= 8)
+                this.out.write(MAGIC >>> shift);
+            this.out.write(VERSION);
+        } catch (IOException ex) {
+            failure = ex;
+        }
+    }
+
+    /**
+     * Create a recorder that writes nothing, but follows a record being
+     * replayed.
+     * 
+     * @param replay the record being replayed
+     */
+    SessionRecorder(SessionReplay replay) {
+        this.out = null;
+        this.replay = replay;
+    }
+
+    private void writeTag(int tag) throws IOException {
+        out.write(tag);
+    }
+
+    private void writeNumber(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private boolean isWriting() {
+        return out != null && failure == null;
+    }
+
+    /**
+     * Record the creation of an initial grid.
+     * 
+     * @param colors the number of colours in the puzzle
+     * 
+     * @param cells the number of cells
+     * 
+     * @param lines the number of lines
+     * 
+     * @param algos the number of line algorithms to be applied
+     * 
+     * @param limit the solution limit of the grid's sink; or 0 if
+     * there is none
+     * 
+     * @return the identity of the grid
+     */
+    synchronized int rootCreated(int colors, int cells, int lines,
+                                 int algos, int limit) {
+        final int grid = replay == null ? nextGrid++ : replay.root();
+        if (!isWriting()) return grid;
+        try {
+            writeTag(ROOT);
+            writeNumber(grid);
+            writeNumber(colors);
+            writeNumber(cells);
+            writeNumber(lines);
+            writeNumber(algos);
+            writeNumber(limit);
+        } catch (IOException ex) {
+            failure = ex;
+        }
+        return grid;
+    }
+
+    /**
+     * Record the creation of a grid from another.
+     * 
+     * @param parent the identity of the source grid
+     * 
+     * @param child the number of grids already created from the source
+     * 
+     * @return the identity of the new grid
+     */
+    synchronized int gridCreated(int parent, int child) {
+        final int grid =
+            replay == null ? nextGrid++ : replay.child(parent, child);
+        if (!isWriting()) return grid;
+        try {
+            writeTag(GRID);
+            writeNumber(grid);
+            writeNumber(parent);
+            writeNumber(child);
+        } catch (IOException ex) {
+            failure = ex;
+        }
+        return grid;
+    }
+
+    /**
+     * Record the issue of a line job.
+     * 
+     * @param grid the identity of the grid
+     * 
+     * @param line the line number
+     * 
+     * @param algo the index of the algorithm to be applied
+     */
+    synchronized void jobIssued(int grid, int line, int algo) {
+        if (replay != null) replay.issued(grid, line, algo);
+        if (!isWriting()) return;
+        try {
+            writeTag(JOB);
+            writeNumber(grid);
+            writeNumber(line);
+            writeNumber(algo);
+        } catch (IOException ex) {
+            failure = ex;
+        }
+    }
+
+    /**
+     * Record the completion of a line job.
+     * 
+     * @param grid the identity of the grid
+     * 
+     * @param line the line number
+     * 
+     * @param result the result submitted for the job
+     * 
+     * @param states the new states of the line's cells, only used if
+     * the line was exhausted
+     */
+    synchronized void jobCompleted(int grid, int line,
+                                   LineSolver.Result result,
+                                   long[] states) {
+        if (!isWriting()) return;
+        try {
+            writeTag(RESULT);
+            writeNumber(grid);
+            writeNumber(line);
+            writeNumber(result.ordinal());
+            if (result != LineSolver.Result.EXHAUSTED) return;
+            writeNumber(states.length);
+            for (long state : states)
+                writeNumber(state);
+        } catch (IOException ex) {
+            failure = ex;
+        }
+    }
+
+    /**
+     * Record a guess.
+     * 
+     * @param grid the identity of the guessing grid
+     * 
+     * @param cell the cell guessed at
+     * 
+     * @param color the colour left at the cell
+     * 
+     * @param clone the identity of the clone trying the other colours
+     */
+    synchronized void guessed(int grid, int cell, int color, int clone) {
+        if (replay != null) replay.guessed(grid, cell, color);
+        if (!isWriting()) return;
+        try {
+            writeTag(GUESS);
+            writeNumber(grid);
+            writeNumber(cell);
+            writeNumber(color);
+            writeNumber(clone);
+        } catch (IOException ex) {
+            failure = ex;
+        }
+    }
+
+    /**
+     * Flush and close the record.
+     * 
+     * @throws IOException if an I/O error occurred while writing any
+     * part of the record, or while closing it
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ex) {
+            if (failure == null) throw ex;
+            failure.addSuppressed(ex);
+        }
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,706 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import uk.ac.lancs.nonogram.clue.CellSequence;
+import uk.ac.lancs.nonogram.display.DisplayFactory;
+import uk.ac.lancs.nonogram.layout.Layout;
+import uk.ac.lancs.nonogram.line.LineAlgorithm;
+import uk.ac.lancs.nonogram.line.LineSolver;
+import uk.ac.lancs.nonogram.line.heuristic.LineHeuristic;
+
+/**
+ * Re-executes a solve recorded by a {@link SessionRecorder} on the
+ * calling thread. Line jobs are claimed from the same grids in the
+ * order that they were issued, and completed in the order that they
+ * were completed, so a search path that depended on thread timing can
+ * be followed again, under a profiler for example.
+ *
+ * <p>
+ * Each job is solved again by the supplied algorithms, which may differ
+ * from those that made the record, and the time they take is measured.
+ * The recorded result is then submitted in place of the new one, so
+ * the path stays the same even if the algorithms now deduce more, less
+ * or differently. Such disagreements are counted as mismatches.
+ *
+ * <p>
+ * A grid may still reach a state in the replay that it did not reach
+ * in the recording, as grids share line states found inconsistent, and
+ * the order in which concurrent grids learned and consulted them is not
+ * recorded exactly. When a grid does not offer the recorded job, or
+ * makes a guess that was not recorded, it is said to diverge, and its
+ * remaining entries are skipped.
+ *
+ * <p>
+ * Budgets are not replayed. A recorded solve that was cut short simply
+ * has no entries beyond the point where it stopped. A record that was
+ * itself cut short, for example by a crash, is replayed up to its last
+ * complete entry.
+ *
+ * @author simpsons
+ */
+public final class SessionReplay {
+    /**
+     * Holds one recorded job, job completion or guess.
+     */
+    private static final class Entry {
+        final int tag;
+
+        final int grid;
+
+        /**
+         * The line number of a job or result, or the cell of a guess
+         */
+        final int target;
+
+        /**
+         * The algorithm index of a job, the result ordinal of a result,
+         * or the colour of a guess
+         */
+        final int value;
+
+        /**
+         * The new cell states of an exhausted line; otherwise
+         * {@code null}
+         */
+        final long[] states;
+
+        Entry(int tag, int grid, int target, int value, long[] states) {
+            this.tag = tag;
+            this.grid = grid;
+            this.target = target;
+            this.value = value;
+            this.states = states;
+        }
+    }
+
+    private final int rootGrid;
+
+    private final int colors;
+
+    private final int cellCount;
+
+    private final int lineCount;
+
+    private final int algos;
+
+    private final int solutionLimit;
+
+    /**
+     * Maps a parent grid and child number to the identity of the child,
+     * as recorded
+     */
+    private final Map<Long, Integer> children;
+
+    /**
+     * The highest grid identity recorded
+     */
+    private final int maxGrid;
+
+    private final List<Entry> entries;
+
+    private final boolean truncated;
+
+    private SessionReplay(int rootGrid, int colors, int cellCount,
+                          int lineCount, int algos, int solutionLimit,
+                          Map<Long, Integer> children, int maxGrid,
+                          List<Entry> entries, boolean truncated) {
+        this.rootGrid = rootGrid;
+        this.colors = colors;
+        this.cellCount = cellCount;
+        this.lineCount = lineCount;
+        this.algos = algos;
+        this.solutionLimit = solutionLimit;
+        this.children = children;
+        this.maxGrid = maxGrid;
+        this.entries = entries;
+        this.truncated = truncated;
+    }
+
+    private static long key(int grid, int number) {
+        return ((long) grid << 32) | (number & 0xffffffffL);
+    }
+
+    private static long readNumber(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            final int b = in.read();
+            if (b < 0) throw new EOFException();
+            if (shift > 63) throw new IOException("number too long");
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        final long value = readNumber(in);
+        if (value > Integer.MAX_VALUE)
+            throw new IOException("number out of range: " + value);
+        return (int) value;
+    }
+
+    /**
+     * Read a record made by a {@link SessionRecorder}. The stream is
+     * read to its end, but not closed.
+     * 
+     * @param in the stream to read from
+     * 
+     * @return the recorded schedule
+     * 
+     * @throws IOException if an I/O error occurs, or the stream is not
+     * a record in a known format
+     */
+    public static SessionReplay read(InputStream in) throws IOException {
+        in = new BufferedInputStream(in);
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            final int b = in.read();
+            if (b < 0) throw new EOFException();
+            magic = magic << 8 | b;
+        }
+        if (magic != SessionRecorder.MAGIC)
+            throw new IOException("not a session record");
+        final int version = in.read();
+        if (version != SessionRecorder.VERSION)
+            throw new IOException("unknown session record version: "
+                + version);
+
+        int rootGrid = -1;
+        int colors = 0, cellCount = 0, lineCount = 0, algos = 0;
+        int solutionLimit = 0;
+        int maxGrid = -1;
+        final Map<Long, Integer> children = new HashMap<>();
+        final List<Entry> entries = new ArrayList<>();
+        final LineSolver.Result[] results = LineSolver.Result.values();
+        boolean truncated = false;
+        for (int tag; (tag = in.read()) >= 0;) {
+            try {
+                if (tag != SessionRecorder.ROOT && rootGrid < 0)
+                    throw new IOException("no initial grid");
+                final int grid = readInt(in);
+                maxGrid = Math.max(maxGrid, grid);
+                switch (tag) {
+                case SessionRecorder.ROOT:
+                    if (rootGrid >= 0)
+                        throw new IOException("more than one initial grid");
+                    colors = readInt(in);
+                    cellCount = readInt(in);
+                    lineCount = readInt(in);
+                    algos = readInt(in);
+                    solutionLimit = readInt(in);
+                    rootGrid = grid;
+                    break;
+
+                case SessionRecorder.GRID: {
+                    final int parent = readInt(in);
+                    final int child = readInt(in);
+                    children.put(key(parent, child), grid);
+                    break;
+                }
+
+                case SessionRecorder.JOB: {
+                    final int line = readInt(in);
+                    final int algo = readInt(in);
+                    if (line >= lineCount || algo >= algos)
+                        throw new IOException("bad job for grid " + grid);
+                    entries.add(new Entry(tag, grid, line, algo, null));
+                    break;
+                }
+
+                case SessionRecorder.RESULT: {
+                    final int line = readInt(in);
+                    final int result = readInt(in);
+                    if (line >= lineCount || result >= results.length)
+                        throw new IOException("bad result for grid "
+                            + grid);
+                    long[] states = null;
+                    if (results[result] == LineSolver.Result.EXHAUSTED) {
+                        states = new long[readInt(in)];
+                        for (int i = 0; i < states.length; i++)
+                            states[i] = readNumber(in);
+                    }
+                    entries.add(new Entry(tag, grid, line, result, states));
+                    break;
+                }
+
+                case SessionRecorder.GUESS: {
+                    final int cell = readInt(in);
+                    final int color = readInt(in);
+                    readInt(in);
+                    entries.add(new Entry(tag, grid, cell, color, null));
+                    break;
+                }
+
+                default:
+                    throw new IOException("unknown entry tag: " + tag);
+                }
+            } catch (EOFException ex) {
+                /* The recording stopped in the middle of an entry, so
+                 * drop it. */
+                truncated = true;
+                break;
+            }
+        }
+        if (rootGrid < 0) throw new IOException("no initial grid");
+        return new SessionReplay(rootGrid, colors, cellCount, lineCount,
+                                 algos, solutionLimit, children, maxGrid,
+                                 entries, truncated);
+    }
+
+    /**
+     * Get the number of line jobs recorded.
+     * 
+     * @return the number of line jobs in the record
+     */
+    public int getLineJobs() {
+        return (int) entries.stream()
+            .filter(e -> e.tag == SessionRecorder.JOB).count();
+    }
+
+    /**
+     * Get the solution limit of the recorded search.
+     * 
+     * @return the number of solutions after which the search was
+     * stopped; or 0 if there was no limit
+     */
+    public int getSolutionLimit() {
+        return solutionLimit;
+    }
+
+    /**
+     * Determine whether the record ended in the middle of an entry.
+     * 
+     * @return {@code true} if the record was cut short
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Holds the outcome of a replay.
+     * 
+     * @author simpsons
+     */
+    public static final class Report {
+        private final int lineJobs;
+
+        private final long[] solverNanos;
+
+        private final long elapsed;
+
+        private final int mismatches;
+
+        private final int divergences;
+
+        private final int skipped;
+
+        private final List<long[]> solutions;
+
+        Report(int lineJobs, long[] solverNanos, long elapsed,
+               int mismatches, int divergences, int skipped,
+               List<long[]> solutions) {
+            this.lineJobs = lineJobs;
+            this.solverNanos = solverNanos;
+            this.elapsed = elapsed;
+            this.mismatches = mismatches;
+            this.divergences = divergences;
+            this.skipped = skipped;
+            this.solutions = solutions;
+        }
+
+        /**
+         * Get the number of line jobs replayed.
+         * 
+         * @return the number of line jobs solved again
+         */
+        public int getLineJobs() {
+            return lineJobs;
+        }
+
+        /**
+         * Get the time spent in line solvers.
+         * 
+         * @return the total time spent in all algorithms
+         */
+        public Duration getSolverTime() {
+            long total = 0;
+            for (long nanos : solverNanos)
+                total += nanos;
+            return Duration.ofNanos(total);
+        }
+
+        /**
+         * Get the time spent in a line algorithm.
+         * 
+         * @param algo the index of the algorithm
+         * 
+         * @return the time spent in the algorithm
+         */
+        public Duration getSolverTime(int algo) {
+            return Duration.ofNanos(solverNanos[algo]);
+        }
+
+        /**
+         * Get the time taken by the whole replay, including grid
+         * management.
+         * 
+         * @return the elapsed time
+         */
+        public Duration getElapsed() {
+            return Duration.ofNanos(elapsed);
+        }
+
+        /**
+         * Get the number of line jobs whose new result differed from
+         * the recorded one.
+         * 
+         * @return the number of mismatched results
+         */
+        public int getMismatches() {
+            return mismatches;
+        }
+
+        /**
+         * Get the number of grids that departed from the recorded
+         * schedule.
+         * 
+         * @return the number of divergent grids
+         */
+        public int getDivergences() {
+            return divergences;
+        }
+
+        /**
+         * Get the number of recorded jobs, results and guesses that
+         * could not be replayed, because their grids had diverged.
+         * 
+         * @return the number of skipped entries
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * Get the solutions found by the replay.
+         * 
+         * @return an unmodifiable list of cell states of complete
+         * grids, in the order they were found
+         */
+        public List<long[]> getSolutions() {
+            return solutions;
+        }
+    }
+
+    /**
+     * Holds an issued job until its recorded completion.
+     */
+    private static final class Pending {
+        final LineJob job;
+
+        final LineSolver.Result result;
+
+        Pending(LineJob job, LineSolver.Result result) {
+            this.job = job;
+            this.result = result;
+        }
+    }
+
+    /* The following are only used during a replay. */
+
+    private int nextUnknown;
+
+    private final Set<Integer> diverged = new HashSet<>();
+
+    private final Map<Integer, Deque<Long>> guesses = new HashMap<>();
+
+    private int issuedGrid, issuedLine, issuedAlgo;
+
+    /**
+     * Get the identity of the initial grid.
+     * 
+     * @return the recorded identity
+     */
+    int root() {
+        return rootGrid;
+    }
+
+    /**
+     * Get the identity of a grid created from another.
+     * 
+     * @param parent the identity of the source grid
+     * 
+     * @param child the number of grids already created from the source
+     * 
+     * @return the recorded identity; or a new identity if the grid was
+     * not recorded
+     */
+    int child(int parent, int child) {
+        final Integer grid = children.get(key(parent, child));
+        if (grid != null) return grid;
+        return nextUnknown++;
+    }
+
+    /**
+     * Note the line job just issued.
+     * 
+     * @param grid the identity of the grid
+     * 
+     * @param line the line number
+     * 
+     * @param algo the index of the algorithm to be applied
+     */
+    void issued(int grid, int line, int algo) {
+        issuedGrid = grid;
+        issuedLine = line;
+        issuedAlgo = algo;
+    }
+
+    /**
+     * Check a guess against the record. The grid diverges if its next
+     * recorded guess is different.
+     * 
+     * @param grid the identity of the guessing grid
+     * 
+     * @param cell the cell guessed at
+     * 
+     * @param color the colour left at the cell
+     */
+    void guessed(int grid, int cell, int color) {
+        final Deque<Long> expected = guesses.get(grid);
+        final Long next = expected == null ? null : expected.poll();
+        if (next == null || next != key(cell, color)) diverged.add(grid);
+    }
+
+    /**
+     * Replay the record. The layout, heuristic and number of algorithms
+     * must match those used to make the record, but the algorithms
+     * themselves may be different. As in the recorded search, the
+     * remaining grids are aborted once the recorded solution limit is
+     * reached, and later entries are skipped.
+     * 
+     * @param layout the puzzle layout
+     * 
+     * @param heur the heuristic for weighting lines for selection
+     * 
+     * @param displays the factory for creating displays of the grids
+     * 
+     * @param algorithms the line-solving algorithms to apply
+     * 
+     * @return the outcome of the replay
+     * 
+     * @throws IllegalArgumentException if the layout or number of
+     * algorithms does not match the record
+     */
+    public synchronized Report
+        replay(Layout layout, LineHeuristic heur, DisplayFactory displays,
+               List<? extends LineAlgorithm> algorithms) {
+        if (layout.colors() != colors || layout.cells().size() != cellCount
+            || layout.lines().size() != lineCount)
+            throw new IllegalArgumentException("layout does not match"
+                + " record of " + colors + " colours, " + cellCount
+                + " cells and " + lineCount + " lines");
+        if (algorithms.size() != algos)
+            throw new IllegalArgumentException("record needs " + algos
+                + " algorithms; got " + algorithms.size());
+
+        /* Reset the state used while following the record. */
+        nextUnknown = maxGrid + 1;
+        diverged.clear();
+        guesses.clear();
+        for (Entry e : entries) {
+            if (e.tag != SessionRecorder.GUESS) continue;
+            guesses.computeIfAbsent(e.grid, k -> new ArrayDeque<>())
+                .add(key(e.target, e.value));
+        }
+
+        /* Keep track of the grids that can issue jobs. */
+        final Map<Integer, Grid> grids = new HashMap<>();
+        final List<long[]> solutions = new ArrayList<>();
+        final boolean[] halted = { false };
+        final GridSink<Grid> sink = new GridSink<Grid>() {
+            @Override
+            public void submit(Grid grid, double score) {
+                grids.put(grid.getRecordId(), grid);
+            }
+
+            @Override
+            public void withdraw(Grid grid) {
+                grids.put(grid.getRecordId(), grid);
+            }
+
+            @Override
+            public void retain(Grid grid) {
+                grids.remove(grid.getRecordId());
+                if (halted[0]) return;
+                solutions.add(grid.getCellStates());
+                if (solutionLimit == 0 || solutions.size() < solutionLimit)
+                    return;
+
+                /* We have enough solutions, so abort the other grids,
+                 * as the recorded search did. */
+                halted[0] = true;
+                final List<Grid> victims = new ArrayList<>(grids.values());
+                grids.clear();
+                for (Grid victim : victims)
+                    victim.abort();
+            }
+
+            @Override
+            public void discard(Grid grid) {
+                grids.remove(grid.getRecordId());
+            }
+
+            @Override
+            public int getSolutionLimit() {
+                return solutionLimit;
+            }
+        };
+
+        final long start = System.nanoTime();
+        final SolveBudget budget =
+            SolveBudget.start().recorder(new SessionRecorder(this)).create();
+        new Grid(algos, sink, layout, heur, displays, budget).start();
+
+        final LineSolver.Result[] results = LineSolver.Result.values();
+        final Map<Long, Pending> pending = new HashMap<>();
+        final long[] solverNanos = new long[algos];
+        int lineJobs = 0, mismatches = 0, skipped = 0;
+        for (Entry e : entries) {
+            /* Once the solution limit is reached, the rest of the
+             * record only concerns aborted grids. */
+            if (halted[0]) {
+                skipped++;
+                continue;
+            }
+
+            /* Ignore grids that have strayed from the record. */
+            if (diverged.contains(e.grid)) {
+                skipped++;
+                continue;
+            }
+            final Grid grid = grids.get(e.grid);
+
+            switch (e.tag) {
+            case SessionRecorder.JOB: {
+                /* The grid should issue the recorded line for the
+                 * recorded algorithm. */
+                if (grid == null) {
+                    diverged.add(e.grid);
+                    skipped++;
+                    continue;
+                }
+                issuedGrid = -1;
+                final LineJob job = grid.getJob();
+                if (job.isInvalid() || issuedGrid != e.grid
+                    || issuedLine != e.target || issuedAlgo != e.value) {
+                    grid.abort();
+                    job.close();
+                    diverged.add(e.grid);
+                    skipped++;
+                    continue;
+                }
+
+                /* Solve it now. Its state was fixed when it was
+                 * issued. */
+                final LineSolver solver =
+                    algorithms.get(e.value).prepare(job.getLine());
+                grid.registerSolver(solver);
+                final long started = System.nanoTime();
+                final LineSolver.Result result = solver.process();
+                solverNanos[e.value] += System.nanoTime() - started;
+                lineJobs++;
+                pending.put(key(e.grid, e.target), new Pending(job, result));
+                break;
+            }
+
+            case SessionRecorder.RESULT: {
+                final Pending p = pending.remove(key(e.grid, e.target));
+                if (p == null) {
+                    skipped++;
+                    continue;
+                }
+
+                /* Impose the recorded result, noting whether it
+                 * differs from the new one. A recorded abortion came
+                 * from outside the line solver, so it can't be
+                 * disagreed with. */
+                final LineSolver.Result recorded = results[e.value];
+                boolean same = p.result == recorded
+                    || recorded == LineSolver.Result.ABORTED;
+                if (e.states != null) {
+                    final CellSequence cells = p.job.getLine().cells;
+                    if (cells.size() != e.states.length)
+                        throw new IllegalArgumentException("line "
+                            + e.target + " does not match record");
+                    for (int i = 0; i < e.states.length; i++)
+                        if (cells.put(i, e.states[i]) != e.states[i])
+                            same = false;
+                }
+                if (!same) mismatches++;
+                p.job.submit(recorded);
+                p.job.close();
+                break;
+            }
+
+            default:
+                /* Guesses are checked as they are made. */
+                break;
+            }
+        }
+
+        /* Release jobs whose completion was not recorded. */
+        for (Pending p : pending.values())
+            p.job.close();
+
+        return new Report(lineJobs, solverNanos, System.nanoTime() - start,
+                          mismatches, diverged.size(), skipped,
+                          Collections.unmodifiableList(solutions));
+    }
+}
@@ -0,0 +1,425 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Limits the resources spent on solving a single puzzle, and counts
+ * those resources as they are consumed. A budget is shared by an
+ * initial {@link Grid}, all of its clones, the {@link LineWorker}s
+ * working on them, and the {@link GridManager} that manages them. Once
+ * any limit is exceeded, the budget remains exceeded, grids stop
+ * offering new work, and the manager halts the search, retaining the
+ * most determined grid as a partial result.
+ *
+ * <p>
+ * Counters are updated atomically, and the limits are tested without
+ * locking, so a budget may be consulted on every line job. Only the
+ * limited resources are counted here, so they can be reported for a
+ * single solve. Further statistics, accumulated over many solves, are
+ * gathered by the {@link SolverMetrics} supplied to the budget.
+ *
+ * @author simpsons
+ */
+public final class SolveBudget {
+    /**
+     * Identifies a limit that has been exceeded.
+     *
+     * @author simpsons
+     */
+    public enum Limit {
+        /**
+         * The wall-clock deadline has passed.
+         */
+        DEADLINE,
+
+        /**
+         * The maximum number of line jobs has been issued.
+         */
+        LINE_JOBS,
+
+        /**
+         * The maximum number of bifurcations has been made.
+         */
+        BIFURCATIONS,
+
+        /**
+         * A bifurcation was required when the maximum number of live
+         * grids already existed.
+         */
+        GRIDS;
+    }
+
+    private final long start;
+
+    /**
+     * The deadline in terms of {@link System#nanoTime()}, only
+     * meaningful if {@link #timed}
+     */
+    private final long deadline;
+
+    private final boolean timed;
+
+    private final long maxLineJobs;
+
+    private final long maxBifurcations;
+
+    private final int maxGrids;
+
+    private final SolverMetrics metrics;
+
+    private final SessionRecorder recorder;
+
+    private final AtomicLong lineJobs = new AtomicLong();
+
+    private final AtomicLong bifurcations = new AtomicLong();
+
+    private final AtomicInteger grids = new AtomicInteger();
+
+    private final AtomicReference<Limit> exceeded = new AtomicReference<>();
+
+    private SolveBudget(Builder builder) {
+        this.start = System.nanoTime();
+        this.timed = builder.timeout != null;
+        this.deadline = timed ? start + builder.timeout.toNanos() : 0;
+        this.maxLineJobs = builder.lineJobs;
+        this.maxBifurcations = builder.bifurcations;
+        this.maxGrids = builder.grids;
+        this.metrics = builder.metrics;
+        this.recorder = builder.recorder;
+    }
+
+    /**
+     * Prepare to create a budget.
+     *
+     * @return a configuration with no limits
+     *
+     * @constructor
+     */
+    public static Builder start() {
+        return new Builder();
+    }
+
+    /**
+     * Create a budget with no limits. Resources are still counted.
+     *
+     * @return a new unlimited budget
+     */
+    public static SolveBudget unlimited() {
+        return start().create();
+    }
+
+    /**
+     * @resume A mutable configuration for a budget
+     *
+     * @author simpsons
+     */
+    public static final class Builder {
+        private Builder() {}
+
+        private Duration timeout;
+
+        private long lineJobs = Long.MAX_VALUE;
+
+        private long bifurcations = Long.MAX_VALUE;
+
+        private int grids = Integer.MAX_VALUE;
+
+        private SolverMetrics metrics;
+
+        private SessionRecorder recorder;
+
+        /**
+         * Set the wall-clock time allowed, measured from the creation
+         * of the budget.
+         *
+         * @param timeout the time allowed; or {@code null} for no limit
+         *
+         * @return this builder
+         */
+        public Builder timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of line jobs to be issued.
+         *
+         * @param amount the maximum number of line jobs
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the amount is negative
+         */
+        public Builder lineJobs(long amount) {
+            if (amount < 0)
+                throw new IllegalArgumentException("-ve line jobs: " + amount);
+            this.lineJobs = amount;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of bifurcations, i.e., guesses that
+         * cause a grid to be cloned.
+         *
+         * @param amount the maximum number of bifurcations
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the amount is negative
+         */
+        public Builder bifurcations(long amount) {
+            if (amount < 0)
+                throw new IllegalArgumentException("-ve bifurcations: "
+                    + amount);
+            this.bifurcations = amount;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of grids that may exist at once.
+         *
+         * @param amount the maximum number of live grids
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if the amount is not
+         * positive
+         */
+        public Builder grids(int amount) {
+            if (amount < 1)
+                throw new IllegalArgumentException("non-positive grids: "
+                    + amount);
+            this.grids = amount;
+            return this;
+        }
+
+        /**
+         * Set the metrics to be updated by the solve. The same metrics
+         * may be supplied to many budgets.
+         *
+         * @param metrics the metrics to update; or {@code null} for
+         * none
+         *
+         * @return this builder
+         */
+        public Builder metrics(SolverMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Set the recorder of the solve's schedule. Unlike metrics, a
+         * recorder must not be supplied to more than one budget.
+         *
+         * @param recorder the recorder; or {@code null} for none
+         *
+         * @return this builder
+         */
+        public Builder recorder(SessionRecorder recorder) {
+            this.recorder = recorder;
+            return this;
+        }
+
+        /**
+         * Create a budget from this configuration. The deadline, if
+         * any, runs from this call.
+         *
+         * @return the new budget
+         */
+        public SolveBudget create() {
+            return new SolveBudget(this);
+        }
+    }
+
+    private boolean trip(Limit limit) {
+        exceeded.compareAndSet(null, limit);
+        return false;
+    }
+
+    /**
+     * Determine whether any limit has been exceeded. This also checks
+     * the deadline.
+     *
+     * @return {@code true} if a limit has been exceeded
+     */
+    public boolean isExceeded() {
+        if (exceeded.get() != null) return true;
+        if (timed && System.nanoTime() - deadline >= 0) {
+            trip(Limit.DEADLINE);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the limit that was exceeded first.
+     *
+     * @return the first limit exceeded; or {@code null} if none has
+     * been
+     */
+    public Limit getExceededLimit() {
+        isExceeded();
+        return exceeded.get();
+    }
+
+    /**
+     * Get the time remaining before the deadline.
+     *
+     * @return the number of nanoseconds remaining, which is zero or
+     * negative if the deadline has passed, or {@link Long#MAX_VALUE} if
+     * there is no deadline
+     */
+    long remainingNanos() {
+        if (!timed) return Long.MAX_VALUE;
+        return deadline - System.nanoTime();
+    }
+
+    /**
+     * Account for a line job about to be issued.
+     *
+     * @return {@code true} if the job may proceed; {@code false} if a
+     * limit has been exceeded
+     */
+    boolean claimLineJob() {
+        if (isExceeded()) return false;
+        if (lineJobs.incrementAndGet() > maxLineJobs)
+            return trip(Limit.LINE_JOBS);
+        return true;
+    }
+
+    /**
+     * Account for a bifurcation about to be made, which will create an
+     * extra grid.
+     *
+     * @return {@code true} if the bifurcation may proceed;
+     * {@code false} if a limit has been exceeded
+     */
+    boolean claimBifurcation() {
+        if (isExceeded()) return false;
+        if (grids.get() >= maxGrids) return trip(Limit.GRIDS);
+        if (bifurcations.incrementAndGet() > maxBifurcations)
+            return trip(Limit.BIFURCATIONS);
+        return true;
+    }
+
+    /**
+     * Determine whether some extra grids may be created without
+     * exceeding the limit on simultaneous grids. Nothing is claimed.
+     *
+     * @param count the number of extra grids
+     *
+     * @return {@code true} if the grids may be created
+     */
+    boolean canOpenGrids(int count) {
+        if (isExceeded()) return false;
+        return (long) grids.get() + count <= maxGrids;
+    }
+
+    /**
+     * Account for a newly created grid.
+     */
+    void gridOpened() {
+        final int live = grids.incrementAndGet();
+        if (metrics != null) metrics.gridsLive(live);
+    }
+
+    /**
+     * Account for a grid that has been retained or discarded.
+     */
+    void gridClosed() {
+        grids.decrementAndGet();
+    }
+
+    /**
+     * Get the metrics updated by work within this budget.
+     *
+     * @return the metrics; or {@code null} if none were supplied
+     */
+    public SolverMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the recorder of the schedule of work within this budget.
+     *
+     * @return the recorder; or {@code null} if none was supplied
+     */
+    public SessionRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Get the number of line jobs issued so far.
+     *
+     * @return the number of line jobs issued
+     */
+    public long getLineJobs() {
+        return Math.min(lineJobs.get(), maxLineJobs);
+    }
+
+    /**
+     * Get the number of bifurcations made so far.
+     *
+     * @return the number of bifurcations made
+     */
+    public long getBifurcations() {
+        return Math.min(bifurcations.get(), maxBifurcations);
+    }
+
+    /**
+     * Get the number of grids that have not yet been retained or
+     * discarded.
+     *
+     * @return the number of live grids
+     */
+    public int getGrids() {
+        return grids.get();
+    }
+
+    /**
+     * Get the time elapsed since the budget was created.
+     *
+     * @return the elapsed time
+     */
+    public Duration getElapsed() {
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,404 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import uk.ac.lancs.nonogram.line.LineSolver;
+
+/**
+ * Counts the work done by solvers, for monitoring. Unlike a
+ * {@link SolveBudget}, which covers a single puzzle, metrics may be
+ * shared by any number of budgets, and so accumulate over all the
+ * puzzles solved with them. Supply metrics to a budget with
+ * {@link SolveBudget.Builder#metrics(SolverMetrics)}.
+ *
+ * <p>
+ * Counters are {@link LongAdder}s, so updates from many threads do not
+ * contend. Values may be pulled directly through the getters, or
+ * through JMX once {@linkplain #register(MBeanServer, String)
+ * registered}.
+ *
+ * @author simpsons
+ */
+public final class SolverMetrics implements SolverMetricsMXBean {
+    /**
+     * The JMX domain under which metrics are registered
+     */
+    public static final String DOMAIN = "uk.ac.lancs.nonogram";
+
+    /**
+     * Holds the metrics of one line algorithm.
+     */
+    private static final class Algorithm {
+        final LongAdder jobs = new LongAdder();
+
+        final LatencyHistogram solveTimes = new LatencyHistogram();
+    }
+
+    /**
+     * Holds the metrics of each line algorithm, by index. The array is
+     * replaced by a longer copy when a new index is encountered.
+     */
+    private volatile Algorithm[] algorithms = new Algorithm[0];
+
+    private final LongAdder[] results =
+        new LongAdder[LineSolver.Result.values().length];
+
+    private final LongAdder deductions = new LongAdder();
+
+    private final LongAdder guesses = new LongAdder();
+
+    private final LongAdder gridsCloned = new LongAdder();
+
+    private final LongAdder gridsRetained = new LongAdder();
+
+    private final LongAdder gridsDiscarded = new LongAdder();
+
+    private final LongAdder lockedLines = new LongAdder();
+
+    private final LongAdder idleLineJobs = new LongAdder();
+
+    private final LongAdder sharedLineResults = new LongAdder();
+
+    private final LongAdder decompositions = new LongAdder();
+
+    private final LongAccumulator peakGrids =
+        new LongAccumulator(Math::max, 0);
+
+    private final LongAccumulator peakQueueDepth =
+        new LongAccumulator(Math::max, 0);
+
+    private final LongAdder queueDepthTotal = new LongAdder();
+
+    private final LongAdder queueDepthSamples = new LongAdder();
+
+    /**
+     * Create metrics with all counters at zero.
+     */
+    public SolverMetrics() {
+        for (int i = 0; i < results.length; i++)
+            results[i] = new LongAdder();
+    }
+
+    private Algorithm algorithm(int index) {
+        Algorithm[] algos = algorithms;
+        if (index < algos.length) return algos[index];
+        synchronized (this) {
+            algos = algorithms;
+            if (index >= algos.length) {
+                final int oldLength = algos.length;
+                algos = Arrays.copyOf(algos, index + 1);
+                for (int i = oldLength; i < algos.length; i++)
+                    algos[i] = new Algorithm();
+                algorithms = algos;
+            }
+            return algos[index];
+        }
+    }
+
+    /**
+     * Account for a line job being issued.
+     * 
+     * @param algo the index of the algorithm to be applied
+     */
+    void lineJobIssued(int algo) {
+        algorithm(algo).jobs.increment();
+    }
+
+    /**
+     * Account for the time a line solver spent.
+     * 
+     * @param algo the index of the algorithm applied
+     * 
+     * @param nanos the time spent in nanoseconds
+     */
+    void lineSolved(int algo, long nanos) {
+        algorithm(algo).solveTimes.record(nanos);
+    }
+
+    /**
+     * Account for a line job being completed.
+     * 
+     * @param result the result of the line solver
+     * 
+     * @param eliminated the number of colours eliminated from cells
+     */
+    void lineJobCompleted(LineSolver.Result result, int eliminated) {
+        results[result.ordinal()].increment();
+        if (eliminated > 0) deductions.add(eliminated);
+    }
+
+    /**
+     * Account for a guess.
+     */
+    void guessed() {
+        guesses.increment();
+    }
+
+    /**
+     * Account for a grid cloned to explore a guess.
+     */
+    void gridCloned() {
+        gridsCloned.increment();
+    }
+
+    /**
+     * Account for a grid retained as complete.
+     */
+    void gridRetained() {
+        gridsRetained.increment();
+    }
+
+    /**
+     * Account for a grid discarded.
+     */
+    void gridDiscarded() {
+        gridsDiscarded.increment();
+    }
+
+    /**
+     * Account for lines locked out of solving while an intersecting
+     * line is solved.
+     * 
+     * @param count the number of lines locked out
+     */
+    void linesLocked(int count) {
+        if (count > 0) lockedLines.add(count);
+    }
+
+    /**
+     * Account for a line job that found nothing new.
+     */
+    void lineJobIdle() {
+        idleLineJobs.increment();
+    }
+
+    /**
+     * Account for a line job's result being applied to another line
+     * with the same clue and state.
+     */
+    void lineResultShared() {
+        sharedLineResults.increment();
+    }
+
+    /**
+     * Account for a stalled grid being split into independent parts.
+     */
+    void gridDecomposed() {
+        decompositions.increment();
+    }
+
+    /**
+     * Account for the number of grids live within one budget.
+     * 
+     * @param count the number of live grids
+     */
+    void gridsLive(int count) {
+        peakGrids.accumulate(count);
+    }
+
+    /**
+     * Account for the number of lines ready to be solved in a grid.
+     * 
+     * @param depth the number of ready lines
+     */
+    void queueDepth(int depth) {
+        peakQueueDepth.accumulate(depth);
+        queueDepthTotal.add(depth);
+        queueDepthSamples.increment();
+    }
+
+    @Override
+    public long getLineJobs() {
+        long sum = 0;
+        for (Algorithm algo : algorithms)
+            sum += algo.jobs.sum();
+        return sum;
+    }
+
+    @Override
+    public long[] getLineJobsByAlgorithm() {
+        return Arrays.stream(algorithms).mapToLong(a -> a.jobs.sum())
+            .toArray();
+    }
+
+    @Override
+    public Map<String, Long> getResults() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (LineSolver.Result r : LineSolver.Result.values())
+            result.put(r.name(), results[r.ordinal()].sum());
+        return result;
+    }
+
+    /**
+     * Get the number of line jobs completed with a given result.
+     * 
+     * @param result the result of interest
+     * 
+     * @return the number of line jobs completed with the result
+     */
+    public long getResultCount(LineSolver.Result result) {
+        return results[result.ordinal()].sum();
+    }
+
+    @Override
+    public long getDeductions() {
+        return deductions.sum();
+    }
+
+    @Override
+    public long getGuesses() {
+        return guesses.sum();
+    }
+
+    @Override
+    public long getGridsCloned() {
+        return gridsCloned.sum();
+    }
+
+    @Override
+    public long getGridsRetained() {
+        return gridsRetained.sum();
+    }
+
+    @Override
+    public long getGridsDiscarded() {
+        return gridsDiscarded.sum();
+    }
+
+    @Override
+    public long getLinesLocked() {
+        return lockedLines.sum();
+    }
+
+    @Override
+    public long getIdleLineJobs() {
+        return idleLineJobs.sum();
+    }
+
+    @Override
+    public long getSharedLineResults() {
+        return sharedLineResults.sum();
+    }
+
+    @Override
+    public double getDedupRatio() {
+        final long shared = sharedLineResults.sum();
+        final long total = shared + getLineJobs();
+        return total == 0 ? 0.0 : (double) shared / total;
+    }
+
+    @Override
+    public long getDecompositions() {
+        return decompositions.sum();
+    }
+
+    @Override
+    public int getPeakGrids() {
+        return (int) peakGrids.get();
+    }
+
+    @Override
+    public int getPeakQueueDepth() {
+        return (int) peakQueueDepth.get();
+    }
+
+    @Override
+    public double getMeanQueueDepth() {
+        final long samples = queueDepthSamples.sum();
+        return samples == 0 ? 0.0 :
+            (double) queueDepthTotal.sum() / samples;
+    }
+
+    @Override
+    public List<LatencyHistogram.Snapshot> getSolveTimes() {
+        List<LatencyHistogram.Snapshot> result = new ArrayList<>();
+        for (Algorithm algo : algorithms)
+            result.add(algo.solveTimes.snapshot());
+        return result;
+    }
+
+    /**
+     * Get the distribution of time spent by line solvers for an
+     * algorithm.
+     * 
+     * @param algo the index of the algorithm
+     * 
+     * @return the algorithm's solve times, which will be empty if the
+     * algorithm has not been used
+     * 
+     * @throws IndexOutOfBoundsException if the index is negative
+     */
+    public LatencyHistogram.Snapshot getSolveTimes(int algo) {
+        if (algo < 0)
+            throw new IndexOutOfBoundsException("-ve algorithm: " + algo);
+        final Algorithm[] algos = algorithms;
+        if (algo >= algos.length)
+            return new LatencyHistogram().snapshot();
+        return algos[algo].solveTimes.snapshot();
+    }
+
+    /**
+     * Register these metrics with an MBean server.
+     * 
+     * @param server the server to register with, e.g.,
+     * {@link java.lang.management.ManagementFactory#getPlatformMBeanServer()}
+     * 
+     * @param name a name distinguishing these metrics from others
+     * registered by the same process
+     * 
+     * @return the name the metrics were registered under, of the form
+     * <samp>uk.ac.lancs.nonogram:type=SolverMetrics,name=<var>name</var></samp>
+     * 
+     * @throws JMException if the metrics could not be registered,
+     * e.g., because the name is already in use
+     */
+    public ObjectName register(MBeanServer server, String name)
+        throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type="
+            + getClass().getSimpleName() + ",name=" + ObjectName.quote(name));
+        return server.registerMBean(this, objectName).getObjectName();
+    }
+}
@@ -0,0 +1,179 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes solver metrics through JMX. All attributes are read-only, and
+ * accumulate over every solve sharing the same {@link SolverMetrics}.
+ * 
+ * @author simpsons
+ */
+public interface SolverMetricsMXBean {
+    /**
+     * Get the number of line jobs issued.
+     * 
+     * @return the number of line jobs issued
+     */
+    long getLineJobs();
+
+    /**
+     * Get the number of line jobs issued for each algorithm.
+     * 
+     * @return the number of line jobs issued, indexed by algorithm
+     */
+    long[] getLineJobsByAlgorithm();
+
+    /**
+     * Get the number of line jobs completed with each result.
+     * 
+     * @return the number of line jobs completed, indexed by the name of
+     * the result
+     */
+    Map<String, Long> getResults();
+
+    /**
+     * Get the number of colours eliminated from cells by line jobs.
+     * 
+     * @return the number of deductions
+     */
+    long getDeductions();
+
+    /**
+     * Get the number of guesses made.
+     * 
+     * @return the number of guesses
+     */
+    long getGuesses();
+
+    /**
+     * Get the number of grids cloned to explore a guess.
+     * 
+     * @return the number of grids cloned
+     */
+    long getGridsCloned();
+
+    /**
+     * Get the number of grids retained as complete.
+     * 
+     * @return the number of grids retained
+     */
+    long getGridsRetained();
+
+    /**
+     * Get the number of grids discarded.
+     * 
+     * @return the number of grids discarded
+     */
+    long getGridsDiscarded();
+
+    /**
+     * Get the number of lines locked out of solving by line jobs. Each
+     * job locks the lines that intersect its undetermined cells, so
+     * this is the sum over all jobs of the number of lines each
+     * locked. It does not count threads waiting for a lock.
+     * 
+     * @return the number of lines locked
+     */
+    long getLinesLocked();
+
+    /**
+     * Get the number of line jobs that completed without eliminating
+     * any colour. Each is a revisit of a line that yielded nothing.
+     * 
+     * @return the number of idle line jobs
+     */
+    long getIdleLineJobs();
+
+    /**
+     * Get the number of times a line job's result has been applied to
+     * an identical line, instead of solving it separately.
+     * 
+     * @return the number of shared line results
+     */
+    long getSharedLineResults();
+
+    /**
+     * Get the proportion of line solutions that were obtained from an
+     * identical line, rather than by running a line job.
+     * 
+     * @return the number of shared line results over the sum of line
+     * jobs and shared results; or zero if there have been neither
+     */
+    double getDedupRatio();
+
+    /**
+     * Get the number of times a stalled grid has been split into parts
+     * that share no undetermined line, and searched separately.
+     * 
+     * @return the number of decompositions
+     */
+    long getDecompositions();
+
+    /**
+     * Get the largest number of grids that have been live at once
+     * within any one budget.
+     * 
+     * @return the peak number of live grids
+     */
+    int getPeakGrids();
+
+    /**
+     * Get the largest number of lines that have been ready to be solved
+     * in any one grid at once.
+     * 
+     * @return the peak queue depth
+     */
+    int getPeakQueueDepth();
+
+    /**
+     * Get the mean number of lines ready to be solved in a grid, as
+     * sampled whenever a line becomes ready.
+     * 
+     * @return the mean queue depth; or zero if none has been sampled
+     */
+    double getMeanQueueDepth();
+
+    /**
+     * Get the distribution of time spent by line solvers for each
+     * algorithm.
+     * 
+     * @return the solve times, indexed by algorithm
+     */
+    List<LatencyHistogram.Snapshot> getSolveTimes();
+}
@@ -0,0 +1,132 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public final class TestBinaryFormat extends TestCase {
+    private static byte[] encode(Puzzle puzzle) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryFormat.INSTANCE.write(puzzle, out);
+        return out.toByteArray();
+    }
+
+    private static Puzzle decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        Puzzle puzzle = BinaryFormat.INSTANCE.read(in, Locale.UK);
+        assertEquals(0, in.remaining());
+        return puzzle;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Puzzle puzzle = TestXMLFormat.createPuzzle();
+        TestXMLFormat.assertSamePuzzle(puzzle, decode(encode(puzzle)));
+    }
+
+    @Test
+    public void testFromXML() throws IOException {
+        StringWriter out = new StringWriter();
+        XMLFormat.INSTANCE.write(TestXMLFormat.createPuzzle(), out);
+        Puzzle fromXML = XMLFormat.INSTANCE
+            .read(new StringReader(out.toString()), Locale.UK);
+
+        Puzzle fromBinary = decode(encode(fromXML));
+        out = new StringWriter();
+        XMLFormat.INSTANCE.write(fromBinary, out);
+        Puzzle back = XMLFormat.INSTANCE
+            .read(new StringReader(out.toString()), Locale.UK);
+        TestXMLFormat.assertSamePuzzle(fromXML, back);
+    }
+
+    @Test
+    public void testConcatenated() throws IOException {
+        Puzzle[] puzzles = new Puzzle[3];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < puzzles.length; i++) {
+            puzzles[i] = TestXMLFormat.createPuzzle();
+            BinaryFormat.INSTANCE.write(puzzles[i], out);
+        }
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+        for (Puzzle puzzle : puzzles)
+            TestXMLFormat.assertSamePuzzle(puzzle, BinaryFormat.INSTANCE
+                .read(in, Locale.UK));
+        assertEquals(0, in.remaining());
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        byte[] bytes = encode(TestXMLFormat.createPuzzle());
+        for (int len = 0; len < bytes.length; len++) {
+            try {
+                decode(Arrays.copyOf(bytes, len));
+                fail("accepted " + len + " of " + bytes.length + " bytes");
+            } catch (IllegalArgumentException ex) {
+                /* Expected */
+            }
+        }
+    }
+
+    @Test
+    public void testLongNumber() throws IOException {
+        /* Pad the length of the geometry name to five bytes, with
+         * stray bits beyond 32 in the last. */
+        byte[] bytes = encode(TestXMLFormat.createPuzzle());
+        assertEquals(4, bytes[5]);
+        byte[] padded = new byte[bytes.length + 4];
+        System.arraycopy(bytes, 0, padded, 0, 5);
+        padded[5] = (byte) 0x84;
+        padded[6] = (byte) 0x80;
+        padded[7] = (byte) 0x80;
+        padded[8] = (byte) 0x80;
+        padded[9] = 0x10;
+        System.arraycopy(bytes, 6, padded, 10, bytes.length - 6);
+        try {
+            decode(padded);
+            fail("accepted number beyond 32 bits");
+        } catch (IllegalArgumentException ex) {
+            /* Expected */
+        }
+    }
+}
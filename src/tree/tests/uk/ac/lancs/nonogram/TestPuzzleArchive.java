@@ -0,0 +1,163 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public final class TestPuzzleArchive extends TestCase {
+    private static final int PUZZLES = 100;
+
+    private static Puzzle createPuzzle(int number) {
+        Hue hue = Hue.distinct();
+        List<Clue> rows = new ArrayList<>();
+        for (int r = 0; r < 1 + number % 4; r++)
+            rows.add(Clue.of(List.of(Bar.of(1 + (number + r) % 5, hue))));
+        return Puzzle.start().geometry("rect")
+            .tile(Hue.UNKNOWN, Puzzle.DEFAULT_CONTEXT,
+                  Tile.of(Color.BLACK, Color.WHITE, Shape.DOT))
+            .tile(Hue.BACKGROUND, Puzzle.DEFAULT_CONTEXT,
+                  Tile.of(Color.BLACK, Color.WHITE, Shape.BLANK))
+            .tile(hue, Puzzle.DEFAULT_CONTEXT,
+                  Tile.of(Color.BLACK, Color.WHITE, Shape.SOLID))
+            .clues("rows", rows).clues("cols", List.of(Clue.unspecified()))
+            .meta("title", Locale.UK, "Puzzle " + number).create();
+    }
+
+    private static void check(PuzzleArchive.Encoding encoding)
+        throws IOException {
+        List<Puzzle> puzzles = new ArrayList<>();
+        for (int i = 0; i < PUZZLES; i++)
+            puzzles.add(i == PUZZLES / 2 ? TestXMLFormat.createPuzzle() :
+                createPuzzle(i));
+
+        Path path = Files.createTempFile("archive", ".bin");
+        try {
+            try (PuzzleArchive.Appender out =
+                PuzzleArchive.create(path, encoding)) {
+                for (Puzzle puzzle : puzzles)
+                    out.add(puzzle);
+            }
+
+            try (PuzzleArchive archive = PuzzleArchive.open(path, Locale.UK)) {
+                assertEquals(encoding, archive.encoding());
+                assertEquals(PUZZLES, archive.size());
+
+                /* Random access */
+                for (int i = PUZZLES - 1; i >= 0; i--)
+                    TestXMLFormat.assertSamePuzzle(puzzles.get(i),
+                                                   archive.get(i));
+
+                /* Iteration order */
+                int n = 0;
+                for (Puzzle puzzle : archive)
+                    TestXMLFormat.assertSamePuzzle(puzzles.get(n++), puzzle);
+                assertEquals(PUZZLES, n);
+
+                /* Bounds */
+                for (long bad : new long[] { -1, PUZZLES }) {
+                    try {
+                        archive.record(bad);
+                        fail("accepted puzzle " + bad);
+                    } catch (IndexOutOfBoundsException ex) {
+                        /* Expected */
+                    }
+                }
+
+                /* A parallel stream yields the same puzzles in the same
+                 * order. */
+                List<Puzzle> streamed =
+                    archive.stream().parallel().collect(Collectors.toList());
+                assertEquals(PUZZLES, streamed.size());
+                for (int i = 0; i < PUZZLES; i++)
+                    TestXMLFormat.assertSamePuzzle(archive.get(i),
+                                                   streamed.get(i));
+
+                /* Splitting covers every puzzle exactly once. */
+                assertEquals(PUZZLES, cover(archive.spliterator(),
+                                            new boolean[PUZZLES]));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Split a traversal completely, and mark each puzzle reached by its
+     * title.
+     * 
+     * @return the number of puzzles reached
+     */
+    private static int cover(Spliterator<Puzzle> split, boolean[] seen) {
+        final long expected = split.estimateSize();
+        Spliterator<Puzzle> prefix = split.trySplit();
+        if (prefix != null) {
+            assertEquals(expected,
+                         prefix.estimateSize() + split.estimateSize());
+            return cover(prefix, seen) + cover(split, seen);
+        }
+        int[] count = { 0 };
+        split.forEachRemaining(p -> {
+            String title = p.meta.get("title").get(Locale.UK);
+            int n = title.startsWith("Puzzle ") ?
+                Integer.parseInt(title.substring(7)) : PUZZLES / 2;
+            assertFalse(seen[n]);
+            seen[n] = true;
+            count[0]++;
+        });
+        assertEquals(expected, count[0]);
+        return count[0];
+    }
+
+    @Test
+    public void testBinary() throws IOException {
+        check(PuzzleArchive.Encoding.BINARY);
+    }
+
+    @Test
+    public void testXML() throws IOException {
+        check(PuzzleArchive.Encoding.XML);
+    }
+}
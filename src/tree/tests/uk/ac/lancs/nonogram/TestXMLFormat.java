@@ -0,0 +1,176 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public final class TestXMLFormat extends TestCase {
+    /* Enough foreground colours for keys to run past Z */
+    private static final int COLORS = 30;
+
+    static Puzzle createPuzzle() {
+        Puzzle.Builder builder = Puzzle.start().geometry("rect");
+        builder.tile(Hue.UNKNOWN, Puzzle.DEFAULT_CONTEXT,
+                     Tile.of(Color.BLACK, Color.WHITE, Shape.DOT));
+        builder.tile(Hue.BACKGROUND, Puzzle.DEFAULT_CONTEXT,
+                     Tile.of(Color.BLACK, Color.WHITE, Shape.BLANK));
+        List<Hue> hues = new ArrayList<>();
+        for (int i = 0; i < COLORS; i++) {
+            Hue hue = Hue.distinct();
+            builder.tile(hue, Puzzle.DEFAULT_CONTEXT,
+                         Tile.of(new Color(i * 8, 255 - i * 8, 17),
+                                 Color.WHITE, Shape.SOLID));
+            hues.add(hue);
+        }
+
+        /* Each row has every colour, and runs of the same colour are
+         * separated. */
+        List<Clue> rows = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            List<Bar> blocks = new ArrayList<>();
+            for (int i = 0; i < COLORS; i++)
+                blocks.add(Bar.of(1 + (i + r) % 3, hues.get(i)));
+            rows.add(Clue.of(blocks));
+        }
+        rows.add(Clue.of(List.of()));
+        rows.add(Clue.unspecified());
+        builder.clues("rows", rows);
+
+        List<Clue> cols = new ArrayList<>();
+        cols.add(Clue.unspecified());
+        for (int i = 0; i < COLORS; i++)
+            cols.add(Clue.of(List.of(Bar.of(i + 1, hues.get(i)))));
+        cols.add(Clue.of(List.of()));
+        builder.clues("cols", cols);
+
+        builder.meta("title", Locale.UK, "Colours & <keys>");
+        builder.meta("title", Locale.FRANCE, "Couleurs");
+        builder.meta("title", Locale.GERMANY, "Farben");
+        builder.meta("author", Locale.UK, "A. N. Other");
+        return builder.create();
+    }
+
+    static void assertSamePuzzle(Puzzle expected, Puzzle actual) {
+        assertEquals(expected.geometryType, actual.geometryType);
+
+        assertEquals(expected.meta.keySet(), actual.meta.keySet());
+        for (Map.Entry<String, Metadatum> entry : expected.meta.entrySet()) {
+            Metadatum exp = entry.getValue();
+            Metadatum act = actual.meta.get(entry.getKey());
+            assertEquals(exp.getLocales().size(), act.getLocales().size());
+            for (Locale locale : exp.getLocales())
+                assertEquals(exp.get(locale), act.get(locale));
+        }
+
+        /* Colours are only identified by their tiles. */
+        assertEquals(expected.hueIndex.size(), actual.hueIndex.size());
+        assertEquals(expected.hueInfo.get(Hue.UNKNOWN).tiles,
+                     actual.hueInfo.get(Hue.UNKNOWN).tiles);
+        assertEquals(expected.hueInfo.get(Hue.BACKGROUND).tiles,
+                     actual.hueInfo.get(Hue.BACKGROUND).tiles);
+
+        assertEquals(expected.clues.keySet(), actual.clues.keySet());
+        for (String bank : expected.clues.keySet()) {
+            List<Clue> exp = expected.clues.get(bank);
+            List<Clue> act = actual.clues.get(bank);
+            assertEquals(exp.size(), act.size());
+            for (int i = 0; i < exp.size(); i++) {
+                List<Bar> expBlocks = exp.get(i).blocks();
+                List<Bar> actBlocks = act.get(i).blocks();
+                if (expBlocks == null) {
+                    assertNull(actBlocks);
+                    continue;
+                }
+                assertNotNull(actBlocks);
+                assertEquals(expBlocks.size(), actBlocks.size());
+                for (int j = 0; j < expBlocks.size(); j++) {
+                    Bar expBar = expBlocks.get(j);
+                    Bar actBar = actBlocks.get(j);
+                    assertEquals(expBar.length, actBar.length);
+                    assertEquals(expected.hueInfo.get(expBar.color).tiles,
+                                 actual.hueInfo.get(actBar.color).tiles);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        Puzzle puzzle = createPuzzle();
+        StringWriter out = new StringWriter();
+        XMLFormat.INSTANCE.write(puzzle, out);
+        String text = out.toString();
+        assertTrue(text.contains("key=\"Z\""));
+        assertTrue(text.contains("key=\"AA\""));
+        assertTrue(text.contains("key=\"AC\""));
+        Puzzle copy =
+            XMLFormat.INSTANCE.read(new StringReader(text), Locale.UK);
+        assertSamePuzzle(puzzle, copy);
+    }
+
+    @Test
+    public void testDocument() throws Exception {
+        Puzzle puzzle = createPuzzle();
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Puzzle copy = XMLFormat.load(XMLFormat
+            .toXML(puzzle, factory.newDocumentBuilder()), Locale.UK);
+        assertSamePuzzle(puzzle, copy);
+    }
+
+    @Test
+    public void testMany() throws IOException {
+        List<Puzzle> puzzles = List.of(createPuzzle(), createPuzzle());
+        StringWriter out = new StringWriter();
+        XMLFormat.INSTANCE.writeAll(puzzles, out);
+        List<Puzzle> copies = new ArrayList<>();
+        XMLFormat.INSTANCE.readAll(new StringReader(out.toString()),
+                                   Locale.UK, copies::add);
+        assertEquals(puzzles.size(), copies.size());
+        for (int i = 0; i < puzzles.size(); i++)
+            assertSamePuzzle(puzzles.get(i), copies.get(i));
+    }
+}
@@ -0,0 +1,203 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.cache;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.junit.Test;
+import uk.ac.lancs.nonogram.Bar;
+import uk.ac.lancs.nonogram.Clue;
+import uk.ac.lancs.nonogram.Hue;
+import uk.ac.lancs.nonogram.Puzzle;
+import uk.ac.lancs.nonogram.Shape;
+import uk.ac.lancs.nonogram.Tile;
+
+public final class TestCanonicalForm extends TestCase {
+    private static final long DOT = 1;
+
+    private static final long SOLID = 2;
+
+    /* A solution with no symmetry, so that every orientation differs */
+    private static final String[] PICTURE = { "##..#", "#..##", "..#.." };
+
+    /**
+     * Holds a solution and its dimensions.
+     */
+    private static final class Picture {
+        final int width;
+
+        final int height;
+
+        final long[] cells;
+
+        Picture(int width, int height, long[] cells) {
+            this.width = width;
+            this.height = height;
+            this.cells = cells;
+        }
+
+        long get(int x, int y) {
+            return cells[x + y * width];
+        }
+
+        Picture flipX() {
+            long[] result = new long[cells.length];
+            for (int y = 0; y < height; y++)
+                for (int x = 0; x < width; x++)
+                    result[x + y * width] = get(width - 1 - x, y);
+            return new Picture(width, height, result);
+        }
+
+        Picture flipY() {
+            long[] result = new long[cells.length];
+            for (int y = 0; y < height; y++)
+                for (int x = 0; x < width; x++)
+                    result[x + y * width] = get(x, height - 1 - y);
+            return new Picture(width, height, result);
+        }
+
+        Picture transpose() {
+            long[] result = new long[cells.length];
+            for (int y = 0; y < height; y++)
+                for (int x = 0; x < width; x++)
+                    result[y + x * height] = get(x, y);
+            return new Picture(height, width, result);
+        }
+
+        private Clue line(int start, int step, int length, Hue hue) {
+            List<Bar> blocks = new ArrayList<>();
+            int run = 0;
+            for (int i = 0; i <= length; i++) {
+                if (i < length && cells[start + i * step] == SOLID) {
+                    run++;
+                } else if (run > 0) {
+                    blocks.add(Bar.of(run, hue));
+                    run = 0;
+                }
+            }
+            return Clue.of(blocks);
+        }
+
+        Puzzle puzzle() {
+            Hue hue = Hue.distinct();
+            List<Clue> rows = new ArrayList<>();
+            for (int y = 0; y < height; y++)
+                rows.add(line(y * width, 1, width, hue));
+            List<Clue> cols = new ArrayList<>();
+            for (int x = 0; x < width; x++)
+                cols.add(line(x, width, height, hue));
+            return Puzzle.start().geometry("rect")
+                .tile(Hue.UNKNOWN, Puzzle.DEFAULT_CONTEXT,
+                      Tile.of(Color.BLACK, Color.WHITE, Shape.DOT))
+                .tile(Hue.BACKGROUND, Puzzle.DEFAULT_CONTEXT,
+                      Tile.of(Color.BLACK, Color.WHITE, Shape.BLANK))
+                .tile(hue, Puzzle.DEFAULT_CONTEXT,
+                      Tile.of(Color.BLACK, Color.WHITE, Shape.SOLID))
+                .clues("rows", rows).clues("cols", cols).create();
+        }
+    }
+
+    private static List<Picture> orientations() {
+        final int width = PICTURE[0].length();
+        final int height = PICTURE.length;
+        long[] cells = new long[width * height];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                cells[x + y * width] =
+                    PICTURE[y].charAt(x) == '#' ? SOLID : DOT;
+        Picture base = new Picture(width, height, cells);
+
+        List<Picture> result = new ArrayList<>();
+        for (int code = 0; code < 8; code++) {
+            Picture p = base;
+            if ((code & 1) != 0) p = p.flipX();
+            if ((code & 2) != 0) p = p.flipY();
+            if ((code & 4) != 0) p = p.transpose();
+            result.add(p);
+        }
+        return result;
+    }
+
+    @Test
+    public void testOrientations() {
+        List<Picture> pictures = orientations();
+        CanonicalForm first = CanonicalForm.of(pictures.get(0).puzzle());
+        long[] canonical = first.toCanonical(pictures.get(0).cells);
+        for (Picture picture : pictures) {
+            CanonicalForm form = CanonicalForm.of(picture.puzzle());
+            assertEquals(first.key, form.key);
+
+            /* Every orientation has the same canonical solution, which
+             * maps back to the orientation's own. */
+            assertTrue(Arrays.equals(canonical,
+                                     form.toCanonical(picture.cells)));
+            assertTrue(Arrays.equals(picture.cells,
+                                     form.fromCanonical(canonical)));
+        }
+    }
+
+    @Test
+    public void testDistinct() {
+        Picture base = orientations().get(0);
+        long[] cells = base.cells.clone();
+        cells[0] = DOT;
+        Picture other = new Picture(base.width, base.height, cells);
+        assertFalse(PuzzleKey.of(base.puzzle())
+            .equals(PuzzleKey.of(other.puzzle())));
+    }
+
+    @Test
+    public void testCache() throws IOException {
+        List<Picture> pictures = orientations();
+        Path path = Files.createTempFile("solutions", ".bin");
+        try {
+            try (SolutionCache cache = SolutionCache.open(path, 16)) {
+                cache.put(pictures.get(5).puzzle(), pictures.get(5).cells);
+                for (Picture picture : pictures)
+                    assertTrue(Arrays.equals(picture.cells,
+                                             cache.get(picture.puzzle())));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.sat;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public final class TestCdclSolver extends TestCase {
+    /**
+     * Create a formula placing some pigeons in some holes, one pigeon
+     * per hole.
+     */
+    private static CdclSolver pigeons(int pigeons, int holes) {
+        CdclSolver solver = new CdclSolver();
+        int[][] in = new int[pigeons][holes];
+        for (int p = 0; p < pigeons; p++)
+            for (int h = 0; h < holes; h++)
+                in[p][h] = solver.newVariable();
+        for (int p = 0; p < pigeons; p++)
+            solver.addClause(in[p]);
+        for (int h = 0; h < holes; h++)
+            for (int p1 = 0; p1 < pigeons; p1++)
+                for (int p2 = p1 + 1; p2 < pigeons; p2++)
+                    solver.addClause(-in[p1][h], -in[p2][h]);
+        return solver;
+    }
+
+    @Test
+    public void testPigeonholes() {
+        assertEquals(CdclSolver.Outcome.SATISFIABLE, pigeons(5, 5).solve());
+        assertEquals(CdclSolver.Outcome.UNSATISFIABLE,
+                     pigeons(6, 5).solve());
+    }
+
+    @Test
+    public void testEnumeration() {
+        /* Exactly one of three variables is true. */
+        CdclSolver solver = new CdclSolver();
+        int a = solver.newVariable();
+        int b = solver.newVariable();
+        int c = solver.newVariable();
+        solver.addClause(a, b, c);
+        solver.addClause(-a, -b);
+        solver.addClause(-a, -c);
+        solver.addClause(-b, -c);
+
+        int found = 0;
+        while (solver.solve() == CdclSolver.Outcome.SATISFIABLE) {
+            int trueCount = 0;
+            int[] block = new int[3];
+            for (int v = 1; v <= 3; v++) {
+                if (solver.value(v)) trueCount++;
+                block[v - 1] = solver.value(v) ? -v : v;
+            }
+            assertEquals(1, trueCount);
+            found++;
+            solver.addClause(block);
+        }
+        assertEquals(3, found);
+    }
+
+    @Test
+    public void testStop() {
+        assertEquals(CdclSolver.Outcome.UNKNOWN,
+                     pigeons(10, 9).solve(() -> true));
+    }
+}
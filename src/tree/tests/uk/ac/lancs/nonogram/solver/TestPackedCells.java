@@ -0,0 +1,96 @@
+// -*- c-basic-offset: 4; indent-tabs-mode: nil -*-
+
+/*
+ * Copyright (c) 2011,2022, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.ac.lancs.nonogram.solver;
+
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public final class TestPackedCells extends TestCase {
+    private static void check(long[] cells, int colors) {
+        byte[] packed = PackedCells.pack(cells, colors);
+        assertTrue(Arrays.equals(cells, PackedCells.unpack(packed)));
+    }
+
+    @Test
+    public void testMonochrome() {
+        Random rng = new Random(1);
+        long[] cells = new long[225];
+        for (int i = 0; i < cells.length; i++)
+            cells[i] = 1 + rng.nextInt(3);
+        check(cells, 2);
+
+        /* Two bits per cell, plus a short header */
+        assertTrue(PackedCells.pack(cells, 2).length <= 57 + 4);
+    }
+
+    @Test
+    public void testPartialSets() {
+        Random rng = new Random(2);
+        for (int colors = 1; colors <= 64; colors++) {
+            long[] cells = new long[100];
+            long all = colors == 64 ? -1L : (1L << colors) - 1;
+            for (int i = 0; i < cells.length; i++) {
+                long cell;
+                do
+                    cell = rng.nextLong() & all;
+                while (cell == 0);
+                cells[i] = cell;
+            }
+            check(cells, colors);
+        }
+    }
+
+    @Test
+    public void testRuns() {
+        long[] cells = new long[10000];
+        Arrays.fill(cells, 7);
+        Arrays.fill(cells, 5000, 5100, 2);
+        check(cells, 3);
+        assertTrue(PackedCells.pack(cells, 3).length < 20);
+    }
+
+    @Test
+    public void testBadCell() {
+        try {
+            PackedCells.pack(new long[] { 4 }, 2);
+            fail("accepted colour out of range");
+        } catch (IllegalArgumentException ex) {
+            /* Expected */
+        }
+    }
+}